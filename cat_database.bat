@@ -2,4 +2,4 @@ call cat_defs.bat
 
 echo set up the CatShop database
 
-java -cp "%CP_DERBY%" clients/Setup
+java -cp "%CP_DERBY%" clients/Setup %*
@@ -6,9 +6,11 @@
 # The contents of 'database.txt' tells it what the 
 # database configuration is (derby, or a remote sql service)
 # (You could extend the jenkins pipleine to test this too)
+# Give the argument migrate to add keys to a database made
+# by an earlier version of CatShop, keeping its data
 
 . cat_defs.sh
 
 echo set up the CatShop database
 
-java -cp "${CP_CATSHOP}" clients/Setup
+java -cp "${CP_CATSHOP}" clients/Setup $*
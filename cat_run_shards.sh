@@ -0,0 +1,32 @@
+
+# script to run distributed CatShop with the orders split across
+# several servers (shards), all on this machine
+#     ./cat_run_shards.sh [number of servers, default 2]
+
+# Server i listens on port 1099+i and holds the orders of shard i,
+# journalled in orders.journal.i . Only server 0 serves the stock.
+# The clients are given the list of order servers, so each order goes
+# to the server holding it.
+# As with cat_run_dist.sh, quit the clients and kill the servers to stop.
+
+. cat_defs.sh
+SHARDS=${1:-2}
+ORDERS=""
+echo Run the distributed version with $SHARDS order servers
+echo "Hit <enter> to start clients once the servers are running"
+for (( i=0; i<SHARDS; i++ ))
+do
+  PORT=$((1099+i))
+  java -Dcatshop.port=$PORT -Dcatshop.shard=$i/$SHARDS -cp "${CP_CATSHOP}" middle/Server &
+  ORDERS="${ORDERS:+${ORDERS},}rmi://localhost:${PORT}/order"
+done
+read
+STOCK_R=rmi://localhost/stock_r
+STOCK_RW=rmi://localhost/stock_rw
+java -cp "${CP_CATSHOP}" clients/customer/CustomerClient $STOCK_R &
+java -cp "${CP_CATSHOP}" clients/cashier/CashierClient $STOCK_RW $ORDERS &
+java -cp "${CP_CATSHOP}" clients/backDoor/BackDoorClient $STOCK_RW $ORDERS &
+java -cp "${CP_CATSHOP}" clients/warehousePick/PickClient $STOCK_RW $ORDERS &
+java -cp "${CP_CATSHOP}" clients/warehousePick/PickClient $STOCK_RW $ORDERS &
+java -cp "${CP_CATSHOP}" clients/shopDisplay/DisplayClient $STOCK_RW $ORDERS &
+java -cp "${CP_CATSHOP}" clients/collection/CollectClient $STOCK_RW $ORDERS &
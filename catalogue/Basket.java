@@ -17,7 +17,14 @@ import java.util.Locale;
 public class Basket extends ArrayList<Product> implements Serializable
 {
   private static final long serialVersionUID = 1;
-  private int    theOrderNum = 0;          // Order number
+
+  /** How urgently an order is to be picked */
+  public enum Priority { Express, Standard };
+
+  private int      theOrderNum  = 0;                  // Order number
+  private Priority thePriority  = Priority.Standard;  // Urgency
+  private long     theCollectBy = 0;                  // Slot, 0 none
+  private long     thePlaced    = 0;                  // When, 0 not yet
   
   /**
    * Constructor for a basket which is
@@ -47,6 +54,60 @@ public class Basket extends ArrayList<Product> implements Serializable
     return theOrderNum;
   }
   
+  /**
+   * Set how urgently the order is to be picked
+   * @param aPriority Express or Standard
+   */
+  public void setPriority( Priority aPriority )
+  {
+    thePriority = aPriority;
+  }
+
+  /**
+   * Returns how urgently the order is to be picked
+   * @return the priority of the order
+   */
+  public Priority getPriority()
+  {
+    return thePriority == null ? Priority.Standard : thePriority;
+  }
+
+  /**
+   * Set the click and collect slot the order must be ready by
+   * @param aTime Time in ms since 1970, 0 if no slot
+   */
+  public void setCollectBy( long aTime )
+  {
+    theCollectBy = aTime;
+  }
+
+  /**
+   * Returns the click and collect slot the order must be ready by
+   * @return Time in ms since 1970, 0 if no slot
+   */
+  public long getCollectBy()
+  {
+    return theCollectBy;
+  }
+
+  /**
+   * Set when the order was first placed
+   * @param aTime Time in ms since 1970
+   */
+  public void setPlaced( long aTime )
+  {
+    thePlaced = aTime;
+  }
+
+  /**
+   * Returns when the order was first placed
+   * @return Time in ms since 1970, 0 if not yet placed
+   */
+  public long getPlaced()
+  {
+    return thePlaced;
+  }
+
   /**
    * Add a product to the Basket.
    * Product is appended to the end of the existing products
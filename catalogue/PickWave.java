@@ -0,0 +1,88 @@
+package catalogue;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * A wave of orders picked from the warehouse together by one picker.
+ * <P>
+ * The products of all the orders are put into one pick list, with
+ *  each product appearing once with the total quantity needed, in
+ *  product number order. The picker walks the warehouse once for the
+ *  whole wave, then sorts the products into the orders.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public class PickWave implements Serializable
+{
+  private static final long serialVersionUID = 1;
+
+  private final ArrayList<Basket> theOrders;     // Orders in the wave
+  private final Basket            thePickList;   // Products to pick
+
+  /**
+   * A wave of orders
+   * @param orders The orders to pick together
+   */
+  public PickWave( List<Basket> orders )
+  {
+    theOrders   = new ArrayList<>( orders );
+    thePickList = new Basket();
+    TreeMap<String,Product> total = new TreeMap<>();
+    for ( Basket order : theOrders )
+    {
+      for ( Product pr : order )
+      {
+        Product sum = total.get( pr.getProductNum() );
+        if ( sum == null )
+          total.put( pr.getProductNum(),
+                     new Product( pr.getProductNum(), pr.getDescription(),
+                                  pr.getPrice(), pr.getQuantity() ) );
+        else
+          sum.setQuantity( sum.getQuantity() + pr.getQuantity() );
+      }
+    }
+    thePickList.addAll( total.values() );
+  }
+
+  /**
+   * The orders in the wave, in the order they were chosen
+   * @return The orders
+   */
+  public List<Basket> getOrders()
+  {
+    return theOrders;
+  }
+
+  /**
+   * The order numbers of the orders in the wave
+   * @return The order numbers
+   */
+  public List<Integer> getOrderNums()
+  {
+    List<Integer> res = new ArrayList<>();
+    for ( Basket order : theOrders ) res.add( order.getOrderNum() );
+    return res;
+  }
+
+  /**
+   * The products to pick for the whole wave, one line per product
+   * @return The pick list
+   */
+  public Basket getPickList()
+  {
+    return thePickList;
+  }
+
+  /**
+   * Number of orders in the wave
+   * @return The number of orders
+   */
+  public int size()
+  {
+    return theOrders.size();
+  }
+}
@@ -3,9 +3,12 @@ package clients;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
 
 /**
  * A class to display a picture in a client
+ * A picture too big for the area is scaled down once when set,
+ *  not each time it is drawn.
  * @author  Mike Smith University of Brighton
  * @version 1.0
  */
@@ -33,6 +36,33 @@ public class Picture extends Canvas
     thePicture = ic.getImage();         // Image to be drawn
     repaint();
   }
+
+  public void set( BufferedImage image )
+  {
+    thePicture = fit( image );          // Image to be drawn
+    repaint();
+  }
+
+  /**
+   * The image scaled down to fit the area, keeping its shape
+   * @param image The image
+   * @return The image, or a smaller copy of it
+   */
+  private BufferedImage fit( BufferedImage image )
+  {
+    double scale = Math.min( (double) width  / image.getWidth(),
+                             (double) height / image.getHeight() );
+    if ( scale >= 1.0 ) return image;   // Fits already
+    int w = Math.max( 1, (int) Math.round( image.getWidth()  * scale ) );
+    int h = Math.max( 1, (int) Math.round( image.getHeight() * scale ) );
+    BufferedImage res = new BufferedImage( w, h, BufferedImage.TYPE_INT_RGB );
+    Graphics2D g = res.createGraphics();
+    g.setRenderingHint( RenderingHints.KEY_INTERPOLATION,
+                        RenderingHints.VALUE_INTERPOLATION_BILINEAR );
+    g.drawImage( image, 0, 0, w, h, null );
+    g.dispose();
+    return res;
+  }
     
   public void clear()
   {
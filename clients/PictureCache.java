@@ -0,0 +1,173 @@
+package clients;
+
+import debug.DEBUG;
+import middle.AsyncStockReader;
+import middle.ProductImage;
+import middle.StockException;
+import middle.StockReader;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Decoded product pictures, shared by every client in the JVM,
+ *  so the picture of a product is only fetched and decoded once.
+ * <P>
+ * A picture is used without asking the stock list for
+ *  catshop.image.ttl seconds (default 60) after it was fetched or
+ *  checked. After that it is fetched again with its ETag, and only
+ *  decoded again if it has changed (see ProductImage).
+ * The most recently used pictures, up to catshop.image.decoded KB of
+ *  pixels (default 16384), are held, the least recently used being
+ *  dropped first.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+public class PictureCache
+{
+  private static final long TTL =
+          Math.max( 0, Integer.getInteger( "catshop.image.ttl", 60 ) ) * 1000L;
+  private static final long MAX_BYTES =
+          Math.max( 0, Integer.getInteger( "catshop.image.decoded", 16384 ) ) * 1024L;
+
+  /**
+   * A decoded picture
+   */
+  private static class Entry
+  {
+    private final String        etag;
+    private final BufferedImage image;          // null if not an image
+    private final long          checked;        // When last known current
+
+    Entry( String anETag, BufferedImage anImage, long when )
+    {
+      etag    = anETag;
+      image   = anImage;
+      checked = when;
+    }
+
+    long bytes()
+    {
+      return image == null ? 0 : 4L * image.getWidth() * image.getHeight();
+    }
+  }
+
+  // Product number (+ " thumb") -> picture, least recently used first
+  private static final LinkedHashMap<String,Entry> thePictures =
+                       new LinkedHashMap<>( 16, 0.75f, true );
+  private static long theBytes = 0;             // Held in thePictures
+
+  /**
+   * The picture of a product
+   * @param stock     The stock list to fetch the picture from
+   * @param pNum      Product number
+   * @param thumbnail true for a thumbnail of the picture
+   * @return The picture, null if there is no picture
+   * @throws StockException if the picture could not be fetched
+   */
+  public static BufferedImage get( StockReader stock, String pNum,
+                                   boolean thumbnail )
+         throws StockException
+  {
+    String key  = thumbnail ? pNum + " thumb" : pNum;
+    Entry  held = held( key );
+    if ( fresh( held ) ) return held.image;
+    return got( key, held,
+                stock.getImageData( pNum, thumbnail, etag( held ) ) );
+  }
+
+  /**
+   * The picture of a product, without waiting for it to be
+   *  fetched and decoded
+   * @param stock     The stock list to fetch the picture from
+   * @param pNum      Product number
+   * @param thumbnail true for a thumbnail of the picture
+   * @return Completed with the picture, null if there is no picture,
+   *         or with the StockException if it could not be fetched
+   */
+  public static CompletableFuture<BufferedImage> get( AsyncStockReader stock,
+                                                      String pNum,
+                                                      boolean thumbnail )
+  {
+    String key  = thumbnail ? pNum + " thumb" : pNum;
+    Entry  held = held( key );
+    if ( fresh( held ) ) return CompletableFuture.completedFuture( held.image );
+    return stock.getImageData( pNum, thumbnail, etag( held ) )
+                .thenApply( got -> got( key, held, got ) );
+  }
+
+  private static Entry held( String key )
+  {
+    synchronized ( thePictures )
+    {
+      return thePictures.get( key );
+    }
+  }
+
+  private static boolean fresh( Entry held )
+  {
+    return held != null && System.currentTimeMillis() - held.checked < TTL;
+  }
+
+  private static String etag( Entry held )
+  {
+    return held == null ? null : held.etag;
+  }
+
+  /**
+   * Hold the picture fetched, decoding it only if it has changed
+   * @return The picture
+   */
+  private static BufferedImage got( String key, Entry held, ProductImage got )
+  {
+    long  now   = System.currentTimeMillis();
+    Entry entry = held != null && ! got.isModified()
+                  ? new Entry( held.etag, held.image, now )
+                  : new Entry( got.getETag(), decode( key, got.getBytes() ), now );
+    hold( key, entry );
+    return entry.image;
+  }
+
+  /**
+   * Decode a picture
+   * @return The picture, null if not a picture
+   */
+  private static BufferedImage decode( String key, byte[] bytes )
+  {
+    if ( bytes == null || bytes.length == 0 ) return null;
+    try
+    {
+      return ImageIO.read( new ByteArrayInputStream( bytes ) );
+    } catch ( IOException e )
+    {
+      DEBUG.trace( "PictureCache: can not decode %s: %s", key, e.getMessage() );
+      return null;
+    }
+  }
+
+  /**
+   * Hold a picture, dropping the least recently used
+   *  pictures if over the limit
+   */
+  private static void hold( String key, Entry entry )
+  {
+    synchronized ( thePictures )
+    {
+      Entry old = thePictures.put( key, entry );
+      if ( old != null ) theBytes -= old.bytes();
+      theBytes += entry.bytes();
+      Iterator<Map.Entry<String,Entry>> it = thePictures.entrySet().iterator();
+      while ( theBytes > MAX_BYTES && it.hasNext() )
+      {
+        theBytes -= it.next().getValue().bytes();
+        it.remove();
+      }
+    }
+  }
+}
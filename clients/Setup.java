@@ -2,14 +2,23 @@ package clients;
 
 import dbAccess.DBAccess;
 import dbAccess.DBAccessFactory;
+import dbAccess.Thumbnails;
 
+import java.io.File;
+import java.io.IOException;
 import java.sql.*;
 import java.util.ArrayList;
 
 /**
  * Repopulate the database with test data
+ * <P>
+ * Run with the argument migrate to instead add the primary keys,
+ *  foreign key and index to the tables of an existing database
+ *  created by an earlier version, keeping the data in it.
+ * Either way the thumbnails of the product pictures are made,
+ *  see Thumbnails.
  * @author  Mike Smith University of Brighton
- * @version 3.0 Derby
+ * @version 3.1 Derby
  */
 
 class Setup 
@@ -22,12 +31,16 @@ class Setup
 //  "drop table StockList",
 
 
+  // StockTable refers to ProductTable so must be dropped first
+  "drop table StockTable",
   "drop table ProductTable",
   "create table ProductTable ("+
-      "productNo      Char(4)," +
+      "productNo      Char(4) not null," +
       "description    Varchar(40)," +
       "picture        Varchar(80)," +
-      "price          Float)",
+      "price          Float," +
+      "constraint ProductPK primary key (productNo))",
+  "create index ProductDescIdx on ProductTable (description)",
 
   "insert into ProductTable values " +
      "('0001', '40 inch LED HD TV', 'images/pic0001.jpg', 269.00)",
@@ -46,10 +59,12 @@ class Setup
 //  "select * from ProductTable",
 
 
-  "drop table StockTable",
   "create table StockTable ("+
-      "productNo      Char(4)," +
-      "stockLevel     Integer)",
+      "productNo      Char(4) not null," +
+      "stockLevel     Integer," +
+      "constraint StockPK primary key (productNo)," +
+      "constraint StockProductFK foreign key (productNo)" +
+      "  references ProductTable (productNo))",
 
   "insert into StockTable values ( '0001',  90 )",
   "insert into StockTable values ( '0002',  20 )",
@@ -65,14 +80,33 @@ class Setup
   /*"select * from StockTable, ProductTable " +
   	"where ProductTable.description like '%TV%'"*/
 
+ };
+
+  // Bring a database created without keys up to date,
+  //  fails if there are duplicate or orphan product numbers
+  private static String[] migrateStatements = {
+  "alter table ProductTable alter column productNo not null",
+  "alter table ProductTable add constraint ProductPK primary key (productNo)",
+  "create index ProductDescIdx on ProductTable (description)",
+  "alter table StockTable alter column productNo not null",
+  "alter table StockTable add constraint StockPK primary key (productNo)",
+  "alter table StockTable add constraint StockProductFK foreign key (productNo)" +
+  "  references ProductTable (productNo)",
+
+  "select * from StockTable, ProductTable " +
+          " where StockTable.productNo = ProductTable.productNo",
  };
 
   public static void main(String[] args)
   {
     Connection theCon    = null;      // Connection to database
     DBAccess   dbDriver  = null;
-    DBAccessFactory.setAction("Create");
-    System.out.println("Setup CatShop database of stock items");
+    boolean    migrate   = args.length >= 1 && args[0].equals( "migrate" );
+    String[]   todo      = migrate ? migrateStatements : sqlStatements;
+    DBAccessFactory.setAction( migrate ? "" : "Create" );
+    System.out.println( migrate
+                        ? "Migrate CatShop database to add keys"
+                        : "Setup CatShop database of stock items");
     try
     {
       dbDriver = (new DBAccessFactory()).getNewDBAccess();
@@ -105,7 +139,7 @@ class Setup
     }
 
     // execute SQL commands to create table, insert data
-    for ( String sqlStatement : sqlStatements )
+    for ( String sqlStatement : todo )
     {
       try
       {
@@ -157,6 +191,15 @@ class Setup
                          ": "+e.getMessage());
     }
 
+    try                                 // Thumbnails of the pictures
+    {
+      int made = Thumbnails.makeAll( new File( "images" ) );
+      System.out.println( "Made " + made + " thumbnails in images/thumbs" );
+    } catch ( IOException e )
+    {
+      System.err.println("problems making thumbnails " +
+                         ": "+e.getMessage());
+    }
   }
 
 
@@ -4,11 +4,14 @@ import catalogue.Basket;
 import catalogue.BetterBasket;
 import catalogue.Product;
 import debug.DEBUG;
+import middle.AsyncMiddle;
+import middle.AsyncStockReadWriter;
 import middle.MiddleFactory;
-import middle.StockException;
-import middle.StockReadWriter;
 
+import javax.swing.*;
 import java.util.Observable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * Implements the Model of the back door client
@@ -20,7 +23,10 @@ public class BackDoorModel extends Observable
   private Basket      theBasket  = null;            // Bought items
   private String      pn = "";                      // Product being processed
 
-  private StockReadWriter theStock     = null;
+  private AsyncStockReadWriter theStock = null;
+
+  // Answers are dealt with on the event thread, like the user's actions
+  private static final Executor EDT = SwingUtilities::invokeLater;
 
   /*
    * Construct the model of the back door client
@@ -31,7 +37,7 @@ public class BackDoorModel extends Observable
   {
     try                                           // 
     {      
-      theStock = mf.makeStockReadWriter();        // Database access
+      theStock = mf.makeAsyncStockReadWriter();   // Database access
     } catch ( Exception e )
     {
       DEBUG.error("CustomerModel.constructor\n%s", e.getMessage() );
@@ -59,18 +65,23 @@ public class BackDoorModel extends Observable
   }
 
   /**
-   * Query 
+   * Query, the view being told on the event thread
+   *  when the answer comes
    * @param productNum The product number of the item
    */
   public void doQuery(String productNum )
   {
-    String theAction = "";
     pn  = productNum.trim();                    // Product no.
-    try
-    {                 //  & quantity
-      if ( theStock.exists( pn ) )              // Stock Exists?
+    String number = pn;
+    theStock.findDetails( number ).whenCompleteAsync( ( found, e ) ->
+    {
+      String theAction = "";
+      if ( e != null )
+      {
+        theAction = AsyncMiddle.cause( e ).getMessage();
+      } else if ( found.isPresent() )           // Stock Exists?
       {                                         // T
-        Product pr = theStock.getDetails( pn ); //  Product
+        Product pr = found.get();               //  Product
         theAction =                             //   Display 
           String.format( "%s : %7.2f (%2d) ",   //
           pr.getDescription(),                  //    description
@@ -78,58 +89,62 @@ public class BackDoorModel extends Observable
           pr.getQuantity() );                   //    quantity
       } else {                                  //  F
         theAction =                             //   Inform
-          "Unknown product number " + pn;       //  product number
+          "Unknown product number " + number;   //  product number
       } 
-    } catch( StockException e )
-    {
-      theAction = e.getMessage();
-    }
-    setChanged(); notifyObservers(theAction);
+      setChanged(); notifyObservers(theAction);
+    }, EDT );
   }
 
   /**
-   * Re stock 
+   * Re stock, the view being told on the event thread
+   *  when it has been done
    * @param productNum The product number of the item
    * @param quantity How many to be added
    */
   public void doRStock(String productNum, String quantity )
   {
-    String theAction = "";
     theBasket = makeBasket();
     pn  = productNum.trim();                    // Product no.
     String pn  = productNum.trim();             // Product no.
     int amount = 0;
+    String aQuantity = quantity.trim();
     try
     {
-      String aQuantity = quantity.trim();
-      try
-      {
-        amount = Integer.parseInt(aQuantity);   // Convert
-        if ( amount < 0 )
-          throw new NumberFormatException("-ve");
-      }
-      catch ( Exception err)
-      {
-        theAction = "Invalid quantity";
-        setChanged(); notifyObservers(theAction);
-        return;
-      }
-  
-      if ( theStock.exists( pn ) )              // Stock Exists?
-      {                                         // T
-        theStock.addStock(pn, amount);          //  Re stock
-        Product pr = theStock.getDetails(pn);   //  Get details
-        theBasket.add(pr);                      //
-        theAction = "";                         // Display 
-      } else {                                  // F
-        theAction =                             //  Inform Unknown
-          "Unknown product number " + pn;       //  product number
-      } 
-    } catch( StockException e )
+      amount = Integer.parseInt(aQuantity);     // Convert
+      if ( amount < 0 )
+        throw new NumberFormatException("-ve");
+    }
+    catch ( Exception err)
     {
-      theAction = e.getMessage();
+      setChanged(); notifyObservers("Invalid quantity");
+      return;
     }
-    setChanged(); notifyObservers(theAction);
+
+    int    added  = amount;
+    Basket basket = theBasket;
+    theStock.findDetails( pn )                  // One look up
+      .thenCompose( found -> found.isPresent()  // Stock Exists?
+                    ? theStock.addStock( pn, added )   //  Re stock
+                              .thenApply( done -> found )
+                    : CompletableFuture.completedFuture( found ) )
+      .whenCompleteAsync( ( found, e ) ->
+      {
+        String theAction = "";
+        if ( e != null )
+        {
+          theAction = AsyncMiddle.cause( e ).getMessage();
+        } else if ( found.isPresent() )         // T
+        {
+          Product pr = found.get();             //  Details
+          pr.setQuantity( pr.getQuantity() + added ); // as re stocked
+          basket.add(pr);                       //
+          theAction = "";                       // Display 
+        } else {                                // F
+          theAction =                           //  Inform Unknown
+            "Unknown product number " + pn;     //  product number
+        } 
+        setChanged(); notifyObservers(theAction);
+      }, EDT );
   }
 
   /**
@@ -47,6 +47,15 @@ public class CashierController
     model.doBought();
   }
   
+  /**
+   * Express interaction from view
+   * @param express true if the order is to be picked first
+   */
+  public void doExpress( boolean express )
+  {
+    model.doExpress( express );
+  }
+
   /**
    * Remove interaction from view
    */
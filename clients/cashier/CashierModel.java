@@ -5,7 +5,14 @@ import catalogue.Product;
 import debug.DEBUG;
 import middle.*;
 
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Observable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * Implements the Model of the cashier client
@@ -19,11 +26,20 @@ public class CashierModel extends Observable
   private State       theState   = State.process;   // Current state
   private Product     theProduct = null;            // Current product
   private Basket      theBasket  = null;            // Bought items
+  private boolean     theExpress = false;           // Express order
 
-  private String      pn = "";                      // Product being processed
+  private AsyncStockReadWriter theStock = null;
+  private AsyncOrderProcessing theOrder = null;
+  private OrderNumberLease theNumbers  = null;      // Order numbers to use
+  private int             theAsked   = 0;           // Latest check asked
+  private boolean         theBusy    = false;       // Buy or pay under way
 
-  private StockReadWriter theStock     = null;
-  private OrderProcessing theOrder     = null;
+  // Order numbers asked for at once, so most orders need no call
+  private static final int LEASE = Integer.getInteger( "catshop.cashier.lease", 20 );
+
+  // Answers are dealt with on the event thread, like the user's actions
+  private static final Executor EDT  = SwingUtilities::invokeLater;
+  private static final String   BUSY = "Please wait, still working";
 
   /**
    * Construct the model of the Cashier
@@ -34,8 +50,8 @@ public class CashierModel extends Observable
   {
     try                                           // 
     {      
-      theStock = mf.makeStockReadWriter();        // Database access
-      theOrder = mf.makeOrderProcessing();        // Process order
+      theStock = mf.makeAsyncStockReadWriter();   // Database access
+      theOrder = mf.makeAsyncOrderProcessing();   // Process order
     } catch ( Exception e )
     {
       DEBUG.error("CashierModel.constructor\n%s", e.getMessage() );
@@ -53,20 +69,29 @@ public class CashierModel extends Observable
   }
 
   /**
-   * Check if the product is in Stock
+   * Check if the product is in Stock.
+   * The stock list is asked without waiting, the view being
+   *  told on the event thread when the answer comes
    * @param productNum The product number
    */
   public void doCheck(String productNum )
   {
-    String theAction = "";
     theState  = State.process;                  // State process
-    pn  = productNum.trim();                    // Product no.
+    String number  = productNum.trim();         // Product no.
     int    amount  = 1;                         //  & quantity
-    try
+    int    asked   = ++theAsked;
+    theStock.findDetails( number ).whenCompleteAsync( ( found, e ) ->
     {
-      if ( theStock.exists( pn ) )              // Stock Exists?
+      if ( asked != theAsked ) return;          // Asked again since
+      String theAction = "";
+      if ( e != null )
+      {
+        DEBUG.error( "%s\n%s", 
+              "CashierModel.doCheck", AsyncMiddle.cause( e ).getMessage() );
+        theAction = AsyncMiddle.cause( e ).getMessage();
+      } else if ( found.isPresent() )           // Stock Exists?
       {                                         // T
-        Product pr = theStock.getDetails(pn);   //  Get details
+        Product pr = found.get();               //  Get details
         if ( pr.getQuantity() >= amount )       //  In stock?
         {                                       //  T
           theAction =                           //   Display 
@@ -83,98 +108,226 @@ public class CashierModel extends Observable
         }
       } else {                                  // F Stock exists
         theAction =                             //  Unknown
-          "Unknown product number " + pn;       //  product no.
+          "Unknown product number " + number;   //  product no.
       }
-    } catch( StockException e )
-    {
-      DEBUG.error( "%s\n%s", 
-            "CashierModel.doCheck", e.getMessage() );
-      theAction = e.getMessage();
-    }
-    setChanged(); notifyObservers(theAction);
+      setChanged(); notifyObservers(theAction);
+    }, EDT );
   }
 
   /**
-   * Buy the product
+   * Buy the product.
+   * The product is added to the basket, the stock is
+   *  only taken when the customer pays (doBought)
    */
   public void doBuy()
   {
-    String theAction = "";
-    int    amount  = 1;                         //  & quantity
-    try
+    if ( theBusy )                              // Still talking to
+    {                                           //  the middle tier
+      setChanged(); notifyObservers(BUSY);
+      return;
+    }
+    if ( theState != State.checked )            // Not checked
+    {                                           //  with customer
+      theState = State.process;
+      setChanged(); notifyObservers("Check if OK with customer first");
+      return;
+    }
+    theState = State.process;                   // All Done
+    Product product = theProduct;
+    theBusy = true;
+    makeBasketIfReq().whenCompleteAsync( ( basket, e ) ->
     {
-      if ( theState != State.checked )          // Not checked
-      {                                         //  with customer
-        theAction = "Check if OK with customer first";
-      } else {
-        boolean stockBought =                   // Buy
-          theStock.buyStock(                    //  however
-            theProduct.getProductNum(),         //  may fail              
-            theProduct.getQuantity() );         //
-        if ( stockBought )                      // Stock bought
+      theBusy = false;
+      if ( e != null )
+      {
+        DEBUG.error( "Comms failure\n" +
+                     "CashierModel.makeBasket()\n%s",
+                     AsyncMiddle.cause( e ).getMessage() );
+        return;
+      }
+      boolean inBasket = false;
+      for ( Product pr : basket )               //  Already in
+      {                                         //   basket
+        if ( pr.getProductNum().equals( product.getProductNum() ) )
         {
-        	boolean inBasket = false;
-          makeBasketIfReq(); 
-          for (int i =0; i < theBasket.size(); i++) {
-	    		if (theBasket.get(i).getProductNum().equals(theProduct.getProductNum())) {
-	    			theBasket.get(i).setQuantity(theBasket.get(i).getQuantity()+ 1);
-	    			inBasket = true;
-	    		}
-	    	}//  new Basket ?
-          if (!inBasket) {theBasket.add( theProduct );   }       //  Add to bought
-          theAction = "Purchased " +            //    details
-                  theProduct.getDescription();  //
-        } else {                                // F
-          theAction = "!!! Not in stock";       //  Now no stock
+          pr.setQuantity( pr.getQuantity() + product.getQuantity() );
+          inBasket = true;
         }
       }
-    } catch( StockException e )
-    {
-      DEBUG.error( "%s\n%s", 
-            "CashierModel.doBuy", e.getMessage() );
-      theAction = e.getMessage();
-    }
-    theState = State.process;                   // All Done
-    setChanged(); notifyObservers(theAction);
+      if ( !inBasket )                          //  Add to bought
+        basket.add( product );
+      String theAction = "Purchased " +         //    details
+              product.getDescription();         //
+      setChanged(); notifyObservers(theAction);
+    }, EDT );
   }
   
   /**
-   * Customer pays for the contents of the basket
+   * Customer pays for the contents of the basket.
+   * The stock for every line of the basket is taken in one
+   *  transaction, if any line is out of stock nothing is taken
+   *  and the basket is kept so the item can be removed.
+   * If the order is then refused the stock is given back and the
+   *  basket is kept, so the customer can pay again. If the answer
+   *  was lost the order may have been placed, so the stock is kept
    */
   public void doBought()
   {
-    String theAction = "";
-    int    amount  = 1;                       //  & quantity
-    try
+    if ( theBusy )                              // Still talking to
+    {                                           //  the middle tier
+      setChanged(); notifyObservers(BUSY);
+      return;
+    }
+    if ( theBasket == null ||
+         theBasket.size() < 1 )                 // No items
     {
-      if ( theBasket != null &&
-           theBasket.size() >= 1 )            // items > 1
-      {                                       // T
-        theOrder.newOrder( theBasket );       //  Process order
-        theBasket = null;                     //  reset
-      }                                       //
-      theAction = "Next customer";            // New Customer
-      theState = State.process;               // All Done
+      theState = State.process;                 // All Done
       theBasket = null;
-    } catch( OrderException e )
-    {
-      DEBUG.error( "%s\n%s", 
-            "CashierModel.doCancel", e.getMessage() );
-      theAction = e.getMessage();
+      setChanged(); notifyObservers("Next customer");
+      return;
     }
-    theBasket = null;
-    setChanged(); notifyObservers(theAction); // Notify
+    Basket paying = theBasket;
+    Map<String,Integer> lines = new LinkedHashMap<>();
+    for ( Product pr : paying )
+      lines.merge( pr.getProductNum(), pr.getQuantity(), Integer::sum );
+    paying.setPriority( theExpress ? Basket.Priority.Express
+                                   : Basket.Priority.Standard );
+    theBusy = true;
+    theStock.buyStock( lines, true )            //  All or nothing
+      .thenCompose( bought -> bought.containsValue( false )
+                    ? CompletableFuture.completedFuture( bought )
+                    : placeOrder( paying, lines )      //  Process order
+                              .thenApply( done -> bought ) )
+      .whenCompleteAsync( ( bought, e ) ->
+      {
+        theBusy = false;
+        String theAction = "";
+        if ( e != null )
+        {
+          Throwable cause = AsyncMiddle.cause( e );
+          if ( refused( cause ) )               // Stock given back
+          {
+            DEBUG.trace( "CashierModel.doBought order not placed\n%s",
+                         cause.getMessage() );
+            theAction = "Order not placed, please pay again: " +
+                        cause.getMessage();
+            setChanged(); notifyObservers(theAction);
+            return;                             //  Keep basket
+          } else if ( cause instanceof OrderException ) // Maybe placed
+          {
+            DEBUG.trace( "CashierModel.doBought order maybe placed\n%s",
+                         cause.getMessage() );
+            theAction = "Order may have been placed, check before " +
+                        "taking payment again: " + cause.getMessage();
+            theState   = State.process;
+            theExpress = false;
+          } else {
+            DEBUG.error( "%s\n%s", "CashierModel.doBought",
+                         cause.getMessage() );
+            theAction = cause.getMessage();
+            setChanged(); notifyObservers(theAction);
+            return;
+          }
+        } else if ( bought.containsValue( false ) )
+        {
+          StringBuilder sb = new StringBuilder( "!!! Not in stock:" );
+          for ( Product pr : paying )
+            if ( ! bought.get( pr.getProductNum() ) )
+              sb.append( " " ).append( pr.getDescription() );
+          theAction = sb.toString();
+          setChanged(); notifyObservers(theAction);
+          return;                               //  Keep basket
+        } else {
+          theAction = "Next customer";          // New Customer
+          theState = State.process;             // All Done
+          theExpress = false;
+        }
+        theBasket = null;
+        setChanged(); notifyObservers(theAction); // Notify
+      }, EDT );
   }
   
+  /**
+   * Place the order for stock that has been taken. If the order was
+   *  refused, the stock is given back before the future fails.
+   *  If the call failed after being sent the order may have been
+   *  placed, so the stock is kept
+   * @param paying The order
+   * @param lines  Product number to quantity taken
+   * @return Completed when placed, or with the OrderException
+   */
+  private CompletableFuture<Void> placeOrder( Basket paying,
+                                              Map<String,Integer> lines )
+  {
+    CompletableFuture<Void> placed = new CompletableFuture<>();
+    theOrder.newOrder( paying ).whenComplete( ( done, e ) ->
+    {
+      if ( e == null )
+      {
+        placed.complete( null );
+        return;
+      }
+      if ( ! refused( AsyncMiddle.cause( e ) ) )  // May be placed
+      {
+        placed.completeExceptionally( AsyncMiddle.cause( e ) );
+        return;
+      }
+      List<CompletableFuture<Void>> back = new ArrayList<>();
+      lines.forEach( ( pNum, amount ) -> back.add( theStock.addStock( pNum, amount ) ) );
+      CompletableFuture.allOf( back.toArray( new CompletableFuture<?>[0] ) )
+        .whenComplete( ( given, e2 ) ->
+        {
+          if ( e2 != null )
+            DEBUG.trace( "CashierModel.placeOrder stock not given back\n%s",
+                         AsyncMiddle.cause( e2 ).getMessage() );
+          placed.completeExceptionally( AsyncMiddle.cause( e ) );
+        } );
+    } );
+    return placed;
+  }
+
+  /**
+   * Was the order certainly not placed
+   * @param cause Why newOrder failed
+   * @return true if refused, false if it may have been placed
+   */
+  private static boolean refused( Throwable cause )
+  {
+    return cause instanceof OrderException &&
+           ! ( (OrderException) cause ).isMaybeDone();
+  }
+
+  /**
+   * Mark the customers order as express, so it is picked first
+   * @param express true if express
+   */
+  public void doExpress( boolean express )
+  {
+    theExpress = express;
+  }
+
+  /**
+   * Is the customers order express
+   * @return true if express
+   */
+  public boolean isExpress()
+  {
+    return theExpress;
+  }
+
   /**
    * Cashier Removes item from Order
-   * Checks to make sure the basket array size is more than 0 and not null and ensures the state is state.checked
+   * Checks to make sure the basket is not null and not empty and ensures the state is state.checked
+   * No stock has been taken yet, so nothing is returned to stock
    */
   public void doRemove() {
 	  DEBUG.trace("Remove accessed");
 	    String theAction = "";
-	    try {
-	    if (theBasket.size() > 0 && theBasket != null && theState == State.checked) {
+	    if ( theBusy ) {                      // Basket being changed
+	      setChanged(); notifyObservers(BUSY);
+	      return;
+	    }
+	    if (theBasket != null && theBasket.size() > 0 && theState == State.checked) {
 	    	for (int i =0; i < theBasket.size(); i++) {
 	    		if (theBasket.get(i).getProductNum().equals(theProduct.getProductNum())) {
 	    			if (theBasket.get(i).getQuantity() > 1) {
@@ -183,7 +336,7 @@ public class CashierModel extends Observable
 	    			else {
 	    				theBasket.remove(i);
 	    			}
-	    			theStock.addStock(theProduct.getProductNum(),theProduct.getQuantity());
+	    			break;
 	    		}
 	    	}
 		    theAction = "Removed " + theProduct.getDescription() + " from the basket";
@@ -192,13 +345,6 @@ public class CashierModel extends Observable
 	    else {
 		    theAction = "No item to remove or item cannot be removed";
 		}
-	    }
-	    catch( StockException e )
-	    {
-	      DEBUG.error( "%s\n%s", 
-	            "CashierModel.doBuy", e.getMessage() );
-	      theAction = e.getMessage();
-	    }
 	    setChanged(); notifyObservers(theAction);
   }
   
@@ -214,22 +360,36 @@ public class CashierModel extends Observable
   
   /**
    * make a Basket when required
+   * @return Completed on the event thread with the basket
    */
-  private void makeBasketIfReq()
+  private CompletableFuture<Basket> makeBasketIfReq()
   {
-    if ( theBasket == null )
+    if ( theBasket != null )
+      return CompletableFuture.completedFuture( theBasket );
+    return nextOrderNum().thenApplyAsync( uon ->   // Unique order num.
     {
-      try
-      {
-        int uon   = theOrder.uniqueNumber();     // Unique order num.
-        theBasket = makeBasket();                //  basket list
-        theBasket.setOrderNum( uon );            // Add an order number
-      } catch ( OrderException e )
-      {
-        DEBUG.error( "Comms failure\n" +
-                     "CashierModel.makeBasket()\n%s", e.getMessage() );
-      }
-    }
+      theBasket = makeBasket();                  //  basket list
+      theBasket.setOrderNum( uon );              // Add an order number
+      return theBasket;
+    }, EDT );
+  }
+
+  /**
+   * Return the next order number of the lease, asking for
+   *  a new lease when it has all been used or has run out
+   * @return Completed with a unique order number
+   */
+  private CompletableFuture<Integer> nextOrderNum()
+  {
+    int num = theNumbers == null ? 0 : theNumbers.next();
+    if ( num != 0 ) return CompletableFuture.completedFuture( num );
+    return theOrder.leaseNumbers( LEASE ).thenComposeAsync( lease ->
+    {
+      theNumbers = lease;
+      int leased = lease.next();
+      return leased != 0 ? CompletableFuture.completedFuture( leased )
+                         : theOrder.uniqueNumber();
+    }, EDT );
   }
 
   /**
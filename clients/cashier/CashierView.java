@@ -25,6 +25,7 @@ public class CashierView implements Observer
   private static final String BOUGHT = "Bought";
   // Creating the string for the Remove button
   private static final String REMOVE = "Remove";
+  private static final String EXPRESS = "Express";
 
   private final JLabel      theAction  = new JLabel();
   private final JTextField  theInput   = new JTextField();
@@ -35,6 +36,7 @@ public class CashierView implements Observer
   private final JButton     theBtBought= new JButton( BOUGHT );
   // Creating the Remove button
   private final JButton     theBtRemove= new JButton( REMOVE );
+  private final JCheckBox   theExpress = new JCheckBox( EXPRESS );
   private StockReadWriter theStock     = null;
   private OrderProcessing theOrder     = null;
   private CashierController cont       = null;
@@ -87,6 +89,11 @@ public class CashierView implements Observer
       e -> cont.doBought() );
     cp.add( theBtBought );                          //  Add to canvas
 
+    theExpress.setBounds( 16, 25+60*4-15, 90, 20 ); // Express order
+    theExpress.addActionListener(                   // Call back code
+      e -> cont.doExpress( theExpress.isSelected() ) );
+    cp.add( theExpress );                           //  Add to canvas
+
     theAction.setBounds( 110, 25 , 270, 20 );       // Message area
     theAction.setText( "" );                        // Blank
     cp.add( theAction );                            //  Add to canvas
@@ -125,6 +132,7 @@ public class CashierView implements Observer
     CashierModel model  = (CashierModel) modelC;
     String      message = (String) arg;
     theAction.setText( message );
+    theExpress.setSelected( model.isExpress() );
     Basket basket = model.getBasket();
     if ( basket == null )
       theOutput.setText( "Customers order" );
@@ -1,10 +1,13 @@
 package clients.collection;
 
 import debug.DEBUG;
+import middle.AsyncMiddle;
+import middle.AsyncOrderProcessing;
 import middle.MiddleFactory;
-import middle.OrderProcessing;
 
+import javax.swing.*;
 import java.util.Observable;
+import java.util.concurrent.Executor;
 
 /**
  * Implements the Model of the collection client
@@ -16,7 +19,10 @@ public class CollectModel extends Observable
 {
   private String      theAction   = "";
   private String      theOutput   = "";
-  private OrderProcessing theOrder     = null;
+  private AsyncOrderProcessing theOrder = null;
+
+  // Answers are dealt with on the event thread, like the user's actions
+  private static final Executor EDT = SwingUtilities::invokeLater;
 
   /*
    * Construct the model of the Collection client
@@ -26,7 +32,7 @@ public class CollectModel extends Observable
   {
     try                                           // 
     {      
-      theOrder = mf.makeOrderProcessing();        // Process order
+      theOrder = mf.makeAsyncOrderProcessing();   // Process order
     } catch ( Exception e )
     {
       DEBUG.error("%s\n%s",
@@ -36,7 +42,8 @@ public class CollectModel extends Observable
   }
   
   /**
-   * Check if the product is in Stock
+   * Collect the order, the view being told on the event thread
+   *  when the order processing system has answered
    * @param orderNumber The order to be collected
    */
   public void doCollect(String orderNumber )
@@ -51,28 +58,28 @@ public class CollectModel extends Observable
     {
       // Convert invalid order number to 0
     }
-    try
+    int collected = orderNum;
+    theOrder.informOrderCollected( collected ).whenCompleteAsync( ( ok, e ) ->
     {
-      boolean ok = 
-       theOrder.informOrderCollected( orderNum );
-      if ( ok )
+      if ( e != null )
+      {
+        theOutput = String.format( "%s\n%s",
+                     "Error connection to order processing system",
+                     AsyncMiddle.cause( e ).getMessage() );
+        theAction = "!!!Error";
+      }
+      else if ( ok )
       {
         theAction = "";
-        theOutput = "Collected order #" + orderNum;
+        theOutput = "Collected order #" + collected;
       }
       else
       {
         theAction = "No such order to be collected : " + orderNumber;
         theOutput = "No such order to be collected : " + orderNumber;
       }
-    } catch ( Exception e )
-    {
-      theOutput = String.format( "%s\n%s",
-                   "Error connection to order processing system",
-                   e.getMessage() );
-      theAction = "!!!Error";
-    }
-    setChanged(); notifyObservers(theAction);
+      setChanged(); notifyObservers(theAction);
+    }, EDT );
   }
 
   /**
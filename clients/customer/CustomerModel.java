@@ -2,17 +2,17 @@ package clients.customer;
 
 import catalogue.Basket;
 import catalogue.Product;
+import clients.PictureCache;
 import debug.DEBUG;
+import middle.AsyncMiddle;
+import middle.AsyncStockReader;
 import middle.MiddleFactory;
-import middle.OrderProcessing;
-import middle.StockException;
-import middle.StockReader;
 
 import javax.swing.*;
-
-import java.util.ArrayList;
+import java.awt.image.BufferedImage;
 import java.util.HashMap;
 import java.util.Observable;
+import java.util.concurrent.Executor;
 
 /**
  * Implements the Model of the customer client
@@ -26,11 +26,14 @@ public class CustomerModel extends Observable
 
   private String      pn = "";                    // Product being processed
 
-  private StockReader     theStock     = null;
-  private OrderProcessing theOrder     = null;
-  private ImageIcon       thePic       = null;
+  private AsyncStockReader theStock    = null;
+  private BufferedImage   thePic       = null;
+  private int             theAsked     = 0;       // Latest check asked
   private HashMap<String, String> productsKey = new HashMap<String, String>();
 
+  // Answers are dealt with on the event thread, like the user's actions
+  private static final Executor EDT = SwingUtilities::invokeLater;
+
   /*
    * Construct the model of the Customer
    * @param mf The factory to create the connection objects
@@ -39,7 +42,7 @@ public class CustomerModel extends Observable
   {
     try                                          // 
     {  
-      theStock = mf.makeStockReader();           // Database access
+      theStock = mf.makeAsyncStockReader();      // Database access
     } catch ( Exception e )
     {
       DEBUG.error("CustomerModel.constructor\n" +
@@ -58,20 +61,29 @@ public class CustomerModel extends Observable
   }
 
   /**
-   * Check if the product is in Stock
+   * Check if the product is in Stock.
+   * The stock list is asked without waiting, the view being
+   *  told on the event thread when the answer comes
    * @param productNum The product number
    */
   public void doCheck(String productNum )
   {
-    theBasket.clear();                          // Clear s. list
-    String theAction = "";
-    String pn  = productNum.trim();                    // Product no.
+    String pn  = productNum.trim();             // Product no.
     int    amount  = 1;                         //  & quantity
-    try
+    int    asked   = ++theAsked;
+    theStock.findDetails( pn ).whenCompleteAsync( ( found, e ) ->
     {
-      if ( theStock.exists( pn ) )              // Stock Exists?
+      if ( asked != theAsked ) return;          // Asked again since
+      theBasket.clear();                        // Clear s. list
+      thePic = null;
+      String theAction = "";
+      if ( e != null )
+      {
+        DEBUG.error("CustomerClient.doCheck()\n%s",
+        AsyncMiddle.cause( e ).getMessage() );
+      } else if ( found.isPresent() )           // Stock Exists?
       {                                         // T
-        Product pr = theStock.getDetails( pn ); //  Product
+        Product pr = found.get();               //  Product
         if ( pr.getQuantity() >= amount )       //  In stock?
         { 
           theAction =                           //   Display 
@@ -81,7 +93,7 @@ public class CustomerModel extends Observable
               pr.getQuantity() );               //    quantity
           pr.setQuantity( amount );             //   Require 1
           theBasket.add( pr );                  //   Add to basket
-          thePic = theStock.getImage( pn );     //    product
+          showPicture( asked, pn, theAction );  //    product
         } else {                                //  F
           theAction =                           //   Inform
             pr.getDescription() +               //    product not
@@ -91,12 +103,8 @@ public class CustomerModel extends Observable
         theAction =                             //  Inform Unknown
           "Unknown product number " + pn;       //  product number
       }
-    } catch( StockException e )
-    {
-      DEBUG.error("CustomerClient.doCheck()\n%s",
-      e.getMessage() );
-    }
-    setChanged(); notifyObservers(theAction);
+      setChanged(); notifyObservers(theAction);
+    }, EDT );
   }
   
   /**
@@ -111,17 +119,33 @@ public class CustomerModel extends Observable
 		  doCheck(productName);
 		  return;
 	  }
-    theBasket.clear();   
-    String theAction = "";
     //Translates the product name to pn, gets rid of any blank space
     pn  = productName.trim();    
+    String name = pn;
     int    amount  = 1;               
-    try
-    {      
-      //Creates an array list of any products that match the criteria
-      ArrayList<Product> products = theStock.getDetailsName( pn );
+    int    asked   = ++theAsked;
+    //Asks for an array list of any products that match the criteria,
+    // found from the description index so no existsName() needed
+    theStock.getDetailsName( name ).whenCompleteAsync( ( products, e ) ->
+    {
+      if ( asked != theAsked ) return;          // Asked again since
+      theBasket.clear();   
+      thePic = null;
+      String theAction = "";
+      String shown = null;                      // Product pictured
+      if ( e != null )
+      {
+        DEBUG.error("CustomerClient.doCheck()\n%s",
+        AsyncMiddle.cause( e ).getMessage() );
+        setChanged(); notifyObservers(theAction);
+        return;
+      }
+      if ( products.isEmpty() )
+      {
+        theAction =                             //  Inform Unknown
+          "Unknown Product Query with the name:  " + name;       //  product name
+      }
        for (Product pr : products) {
-        if ( theStock.existsName(pr.getDescription()) ){  
         	if ( pr.getQuantity() >= amount )
         	{ 
         		theAction =
@@ -131,25 +155,16 @@ public class CustomerModel extends Observable
         						pr.getQuantity() );
         		pr.setQuantity( amount );      
         		theBasket.add( pr );               
-        		thePic = theStock.getImage( pr.getProductNum() ); 
+        		shown = pr.getProductNum();       // Picture of last
         	} else {              
         		theAction =            
         				pr.getDescription() +         
         				" this item does not exist." ; 
         	}
         }
-        else {       
-            theAction =                             //  Inform Unknown
-              "Unknown Product Query with the name:  " + pn;       //  product number
-          }
-        }
-       
-    } catch( StockException e )
-    {
-      DEBUG.error("CustomerClient.doCheck()\n%s",
-      e.getMessage() );
-    }
-    setChanged(); notifyObservers(theAction);
+      if ( shown != null ) showPicture( asked, shown, theAction ); // Only one fetched
+      setChanged(); notifyObservers(theAction);
+    }, EDT );
   }
   /**
    * Clear the products from the basket
@@ -157,6 +172,7 @@ public class CustomerModel extends Observable
   public void doClear()
   {
     String theAction = "";
+    theAsked++;                               // Ignore answers due
     theBasket.clear();                        // Clear s. list
     theAction = "Enter Product Number";       // Set display
     thePic = null;                            // No picture
@@ -165,12 +181,31 @@ public class CustomerModel extends Observable
   
   /**
    * Return a picture of the product
-   * @return An instance of an ImageIcon
+   * @return The picture, null if none
    */ 
-  public ImageIcon getPicture()
+  public BufferedImage getPicture()
   {
     return thePic;
   }
+
+  /**
+   * Show the thumbnail of a product when it has been fetched,
+   *  shared with the other clients, see PictureCache
+   */
+  private void showPicture( int asked, String productNum, String theAction )
+  {
+    PictureCache.get( theStock, productNum, true ).whenCompleteAsync( ( pic, e ) ->
+    {
+      if ( asked != theAsked ) return;          // Asked again since
+      if ( e != null )
+      {
+        DEBUG.error("CustomerClient.doCheck()\n%s",
+        AsyncMiddle.cause( e ).getMessage() );
+      }
+      thePic = pic;
+      setChanged(); notifyObservers(theAction);
+    }, EDT );
+  }
   
   /**
    * ask for update of view callled at start
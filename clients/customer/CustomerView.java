@@ -8,6 +8,7 @@ import middle.StockReader;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.image.BufferedImage;
 import java.util.Observable;
 import java.util.Observer;
 
@@ -118,7 +119,7 @@ public class CustomerView implements Observer
     CustomerModel model  = (CustomerModel) modelC;
     String        message = (String) arg;
     theAction.setText( message );
-    ImageIcon image = model.getPicture();  // Image of product
+    BufferedImage image = model.getPicture(); // Image of product
     if ( image == null )
     {
       thePicture.clear();                  // Clear picture
@@ -2,28 +2,48 @@ package clients.shopDisplay;
 
 import debug.DEBUG;
 import middle.MiddleFactory;
+import middle.OrderChanges;
 import middle.OrderException;
+import middle.OrderListener;
 import middle.OrderProcessing;
 
+import javax.swing.*;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Observable;
 
-// File is complete but not optimal
-//  Will force update of display every 2 seconds
-//  Could be clever & only ask for an update of the display 
-//   if it really has changed
+// Told by the order processing system when the orders change,
+//  then asks for the changes since it last asked and updates the display.
+// Several changes close together lead to one update.
+// The view is told on the event thread, and the order processing
+//  system is only called on the background thread.
+// Also asks every 30 seconds in case a call back has been lost,
+//  and every 2 seconds while the order processing system can not
+//  be reached.
 
 /**
  * Implements the Model of the display client
  * @author  Mike Smith University of Brighton
- * @version 2.0
+ * @version 2.1
  */
 
 public class DisplayModel extends Observable
 {
   private OrderProcessing theOrder = null;
 
+  // Copy of the state of the orders, order number -> state
+  private final LinkedHashMap<Integer,String> theOrders = new LinkedHashMap<>();
+  private long           theVersion = 0;        // Version of the copy
+  private OrderException theFailure = null;     // Last ask failed
+
+  private final Object theSignal   = new Object();
+  private boolean      theNotified = false;     // Orders changed
+  private boolean      theListening = false;    // Listener added
+
+  private static final long CHECK_EVERY = 30000; // ms between asks
+  private static final long RETRY_EVERY = 2000;  //  while failed
+
   /**
    * Set up initial connection to the order processing system
    * @param mf Factory to return an object to access the order processing system
@@ -47,13 +67,31 @@ public class DisplayModel extends Observable
    */
   public void backgroundRun()
   {
+    OrderListener listener = version -> {
+      synchronized ( theSignal )
+      {
+        theNotified = true;
+        theSignal.notifyAll();
+      }
+    };
     while ( true )                               // Forever                    
     {
      try
       {
-        Thread.sleep(2000);
-        DEBUG.trace( "ModelOfDisplay call view" );
-        setChanged(); notifyObservers();
+        if ( ! theListening )
+          listen( listener );
+        if ( refresh() )
+        {
+          DEBUG.trace( "ModelOfDisplay call view" );
+          SwingUtilities.invokeLater(            // On event thread
+            () -> { setChanged(); notifyObservers(); } );
+        }
+        synchronized ( theSignal )               // Wait for change
+        {
+          if ( ! theNotified )
+            theSignal.wait( theFailure == null ? CHECK_EVERY : RETRY_EVERY );
+          theNotified = false;
+        }
       }
       catch ( InterruptedException e )
       {
@@ -63,12 +101,62 @@ public class DisplayModel extends Observable
       }
     }
   }
-  
+
+  /**
+   * Ask to be told when the orders change
+   */
+  private void listen( OrderListener listener )
+  {
+    try
+    {
+      theOrder.addOrderListener( listener );
+      theListening = true;
+    } catch ( OrderException e )
+    {
+      DEBUG.trace( "ModelOfDisplay: can not listen %s", e.getMessage() );
+    }
+  }
+
+  /**
+   * Bring the copy of the state of the orders up to date.
+   * The order processing system is asked without holding the lock,
+   *  so the view is not held up by the call when it asks for the state
+   * @return true if the display needs to be redrawn
+   */
+  private boolean refresh()
+  {
+    OrderChanges changes;
+    try
+    {
+      changes = theOrder.getOrderChanges( theVersion );
+    } catch ( OrderException e )
+    {
+      synchronized ( this )
+      {
+        boolean wasFailed = theFailure != null;
+        theFailure = e;
+        theVersion = 0;                          // Start again when back
+        theListening = false;                    //  and listen again
+        return ! wasFailed;
+      }
+    }
+    synchronized ( this )
+    {
+      boolean wasFailed = theFailure != null;
+      theFailure = null;
+      if ( ! changes.hasChanges() ) return wasFailed;
+      changes.applyTo( theOrders );
+      theVersion = changes.getVersion();
+      return true;
+    }
+  }
+
  // Will be called by the viewOfDisplay
  //   when it is told that the view has changed
  public synchronized Map<String, List<Integer> > getOrderState()
        throws OrderException
  {
-   return theOrder.getOrderState();
+   if ( theFailure != null ) throw theFailure;
+   return OrderChanges.asOrderState( theOrders );
  }
 }
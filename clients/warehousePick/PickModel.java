@@ -1,13 +1,20 @@
 package clients.warehousePick;
 
 import catalogue.Basket;
+import catalogue.PickWave;
 import debug.DEBUG;
+import middle.AsyncMiddle;
+import middle.AsyncOrderProcessing;
 import middle.MiddleFactory;
 import middle.OrderException;
 import middle.OrderProcessing;
 import middle.StockReadWriter;
 
+import javax.swing.*;
+import java.time.Duration;
 import java.util.Observable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -18,13 +25,23 @@ import java.util.concurrent.atomic.AtomicReference;
 public class PickModel extends Observable
 {
   private AtomicReference<Basket> theBasket = new AtomicReference<>(); 
+  private AtomicReference<PickWave> theWave = new AtomicReference<>();
 
   private StockReadWriter theStock   = null;
-  private OrderProcessing theOrder   = null;
+  private OrderProcessing theOrder   = null;    // Waited on in background
+  private AsyncOrderProcessing theAsyncOrder = null;  // Used by the picker
   private String          theAction  = "";
   
   private StateOf         worker   = new StateOf();
 
+  // Longest a request for an order is held by the order processing system
+  private static final Duration WAIT = Duration.ofSeconds( 30 );
+  // Orders picked together in one wave, 1 picks an order at a time
+  private static final int WAVE = Integer.getInteger( "catshop.pick.wave", 1 );
+
+  // Answers are dealt with on the event thread, like the user's actions
+  private static final Executor EDT = SwingUtilities::invokeLater;
+
   /*
    * Construct the model of the warehouse pick client
    * @param mf The factory to create the connection objects
@@ -35,6 +52,7 @@ public class PickModel extends Observable
     {      
       theStock = mf.makeStockReadWriter();  // Database access
       theOrder = mf.makeOrderProcessing();  // Process order
+      theAsyncOrder = mf.makeAsyncOrderProcessing();
     } catch ( Exception e )
     {
       DEBUG.error("CustomerModel.constructor\n%s", e.getMessage() );
@@ -63,6 +81,16 @@ public class PickModel extends Observable
       return held ? false : (held = true);
     }
     
+    /**
+     * Wait until can claim exclusive access
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized void claimWait() throws InterruptedException
+    {
+      while ( held ) wait();
+      held = true;
+    }
+
     /**
      * Free the lock
      */
@@ -70,14 +98,18 @@ public class PickModel extends Observable
     {
       assert held;
       held = false;
+      notifyAll();
     }
 
   }
   
   /**
-   * Method run in a separate thread to check if there
-   * is a new order waiting to be picked and we have
-   * nothing to do.
+   * Method run in a separate thread to wait for a new
+   * order to be picked when we have nothing to do.
+   * The order processing system holds on to the request
+   * until there is an order, so nothing is done while idle.
+   * If catshop.pick.wave is more than 1, a wave of up to that many
+   * orders is picked at once from a single pick list.
    */
   private void checkForNewOrder()
   {
@@ -85,22 +117,22 @@ public class PickModel extends Observable
     {
       try
       {
-        boolean isFree = worker.claim();     // Are we free
-        if ( isFree )                        // T
-        {                                    //
-          Basket sb = 
-            theOrder.getOrderToPick();       //  Order 
-          if ( sb != null )                  //  Order to pick
-          {                                  //  T
-            theBasket.set(sb);               //   Working on
-            theAction = "Order to pick";     //   what to do
-          } else {                           //  F
-            worker.free();                   //  Free
-            theAction = "";                  // 
-          }
-          setChanged(); notifyObservers(theAction);
-        }                                    // 
-        Thread.sleep(2000);                  // idle
+        worker.claimWait();                  // Wait till free
+        if ( WAVE > 1 )
+        {
+          checkForNewWave();
+          continue;
+        }
+        Basket sb = 
+          theOrder.takeOrderToPick( WAIT );  //  Wait for order
+        if ( sb != null )                    //  Order to pick
+        {                                    //  T
+          theBasket.set(sb);                 //   Working on
+          theAction = "Order to pick";       //   what to do
+          tell( theAction );
+        } else {                             //  F
+          worker.free();                     //  Free, ask again
+        }
       } catch ( Exception e )
       {
         DEBUG.error("%s\n%s",                // Eek!
@@ -111,6 +143,23 @@ public class PickModel extends Observable
   }
   
   
+  /**
+   * Wait for a wave of orders to pick, holding the claim
+   */
+  private void checkForNewWave() throws OrderException
+  {
+    PickWave wave = theOrder.takeWaveToPick( WAVE, WAIT );
+    if ( wave != null )                      // Orders to pick
+    {
+      theWave.set( wave );
+      theBasket.set( wave.getPickList() );   //  All products
+      theAction = "Wave to pick, orders " + wave.getOrderNums();
+      tell( theAction );
+    } else {
+      worker.free();                         // Free, ask again
+    }
+  }
+
   /**
    * Return the Basket of products that are to be picked
    * @return the basket
@@ -121,35 +170,42 @@ public class PickModel extends Observable
   }
 
   /**
-   * Process a picked Order
+   * Process a picked Order.
+   * The order processing system is told without waiting, the view
+   *  being told on the event thread when it has been done
    */
   public void doPick()
   {
-    String theAction = "";
-    try
+    Basket basket =  theBasket.get();         // Basket being picked
+    if ( basket == null )                     // F
     {
-      Basket basket =  theBasket.get();       // Basket being picked
-      if ( basket != null )                   // T
-      {
-        theBasket.set( null );                //  Picked
-        int no = basket.getOrderNum();        //  Order no
-        theOrder.informOrderPicked( no );     //  Tell system
-        theAction = "";                       //  Inform picker
-        worker.free();                        //  Can pick some more
-      } else {                                // F 
-        theAction = "No order to pick";       //   Not picked order
-      }
-      setChanged(); notifyObservers(theAction);
+      setChanged(); notifyObservers("No order to pick");
+      return;
     }
-    catch ( OrderException e )                // Error
-    {                                         //  Of course
-      DEBUG.error( "PickModel.doPick()\n%s\n",//  should not
-                            e.getMessage() ); //  happen
-    }
-    setChanged(); notifyObservers(theAction);
+    theBasket.set( null );                    //  Picked
+    PickWave wave = theWave.getAndSet( null );
+    CompletableFuture<?> picked = wave != null  //  Whole wave
+      ? theAsyncOrder.informOrdersPicked( wave.getOrderNums() )
+      : theAsyncOrder.informOrderPicked( basket.getOrderNum() );
+    picked.whenCompleteAsync( ( done, e ) ->
+    {
+      if ( e != null )                        // Error
+      {                                       //  Of course
+        DEBUG.error( "PickModel.doPick()\n%s\n",//  should not
+          AsyncMiddle.cause( e ).getMessage() ); //  happen
+        return;
+      }
+      worker.free();                          //  Can pick some more
+      setChanged(); notifyObservers("");      //  Inform picker
+    }, EDT );
   }
-}
-
-
-
 
+  /**
+   * Tell the view, on the event thread, of an order to pick
+   *  found by the background thread
+   */
+  private void tell( String action )
+  {
+    EDT.execute( () -> { setChanged(); notifyObservers( action ); } );
+  }
+}
@@ -0,0 +1,319 @@
+package dbAccess;
+
+import debug.DEBUG;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of connections to the database.
+ * A connection is borrowed for the duration of one request and then
+ * given back, so requests from different clients can use the
+ * database at the same time.
+ * <P>
+ * The size of the pool is set by the system properties
+ * <PRE>
+ * catshop.pool.min   Connections kept open even when idle  (default 1)
+ * catshop.pool.max   Maximum connections open at once      (default 8)
+ * catshop.pool.idle  Seconds a spare connection may idle   (default 60)
+ * catshop.pool.wait  Seconds to wait for a free connection (default 10)
+ * </PRE>
+ * The pool also counts how often a prepared statement is found
+ *  in the statement cache of the connection (see PooledConnection).
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+public class ConnectionPool
+{
+  private static final Map<String,ConnectionPool> thePools = new HashMap<>();
+
+  private final String theURL;              // Database
+  private final String theUser;             //  user name
+  private final String thePassword;         //  password
+  private final int    theMinSize;          // Min idle connections
+  private final int    theMaxSize;          // Max open connections
+  private final long   theMaxIdle;          // ms before idle evicted
+  private final long   theMaxWait;          // ms to wait for a borrow
+
+  private final Semaphore thePermits;       // One per connection
+  private final LinkedBlockingDeque<PooledConnection> theIdle =
+                new LinkedBlockingDeque<>();
+
+  // Metrics
+  private final AtomicInteger theActive    = new AtomicInteger(0);
+  private final AtomicLong    theBorrows   = new AtomicLong(0);
+  private final AtomicLong    theWaitNanos = new AtomicLong(0);
+  private final AtomicLong    theWorstWait = new AtomicLong(0);
+  private final AtomicLong    theTimeouts  = new AtomicLong(0);
+  private final AtomicLong    theCreated   = new AtomicLong(0);
+  private final AtomicLong    theEvicted   = new AtomicLong(0);
+  private final AtomicLong    theStmtHits  = new AtomicLong(0);
+  private final AtomicLong    theStmtMiss  = new AtomicLong(0);
+
+  /**
+   * Return the pool for the database described by dbDriver,
+   *  creating it on first use. All users of the same database
+   *  share the same pool.
+   * The database driver must already have been loaded.
+   * @param dbDriver Describes the database to connect to
+   * @return The pool of connections to the database
+   * @throws SQLException if can not open the initial connections
+   */
+  public static synchronized ConnectionPool getPool( DBAccess dbDriver )
+         throws SQLException
+  {
+    String url = dbDriver.urlOfDatabase();
+    ConnectionPool pool = thePools.get( url );
+    if ( pool == null )
+    {
+      pool = new ConnectionPool( url, dbDriver.username(),
+                                 dbDriver.password(),
+                                 Integer.getInteger( "catshop.pool.min",  1 ),
+                                 Integer.getInteger( "catshop.pool.max",  8 ),
+                                 Integer.getInteger( "catshop.pool.idle", 60 ) * 1000L,
+                                 Integer.getInteger( "catshop.pool.wait", 10 ) * 1000L );
+      thePools.put( url, pool );
+    }
+    return pool;
+  }
+
+  /**
+   * Create a pool of connections
+   * @param url      URL of the database
+   * @param user     User name
+   * @param password Password
+   * @param minSize  Connections kept open even when idle
+   * @param maxSize  Maximum number of connections open at once
+   * @param maxIdle  ms a spare connection may be idle before closed
+   * @param maxWait  ms to wait for a connection to become free
+   * @throws SQLException if can not open the initial connections
+   */
+  public ConnectionPool( String url, String user, String password,
+                         int minSize, int maxSize,
+                         long maxIdle, long maxWait )
+         throws SQLException
+  {
+    theURL      = url;
+    theUser     = user;
+    thePassword = password;
+    theMaxSize  = Math.max( 1, maxSize );
+    theMinSize  = Math.max( 0, Math.min( minSize, theMaxSize ) );
+    theMaxIdle  = maxIdle;
+    theMaxWait  = maxWait;
+    thePermits  = new Semaphore( theMaxSize, true );
+
+    for ( int i = 0; i < theMinSize; i++ )     // Open minimum
+      theIdle.offerFirst( open() );            //  connections
+
+    Thread evictor = new Thread( () -> evictRun(), "ConnectionPool evictor" );
+    evictor.setDaemon( true );
+    evictor.start();
+    DEBUG.trace( "ConnectionPool: %s min %d max %d",
+                 theURL, theMinSize, theMaxSize );
+  }
+
+  /**
+   * Borrow a connection from the pool, waiting if all
+   *  the connections are in use.
+   * The connection must be given back by calling close() on it.
+   * @return A connection to the database
+   * @throws SQLException if no connection becomes free in time
+   */
+  public PooledConnection borrow() throws SQLException
+  {
+    long start = System.nanoTime();
+    try
+    {
+      if ( ! thePermits.tryAcquire( theMaxWait, TimeUnit.MILLISECONDS ) )
+      {
+        theTimeouts.incrementAndGet();
+        throw new SQLException( "Timed out waiting for a database connection" );
+      }
+    } catch ( InterruptedException e )
+    {
+      Thread.currentThread().interrupt();
+      throw new SQLException( "Interrupted waiting for a database connection" );
+    }
+    recordWait( System.nanoTime() - start );
+
+    try
+    {
+      PooledConnection pc;
+      while ( ( pc = theIdle.pollFirst() ) != null )  // Most recent first
+      {
+        if ( isValid( pc ) ) break;                    //  still usable
+        discard( pc );
+      }
+      if ( pc == null ) pc = open();                   // None spare
+      pc.borrowed();
+      theActive.incrementAndGet();
+      return pc;
+    } catch ( SQLException e )
+    {
+      thePermits.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Give a borrowed connection back to the pool.
+   * Any transaction left open is rolled back.
+   * @param pc The connection borrowed
+   */
+  void giveBack( PooledConnection pc )
+  {
+    theActive.decrementAndGet();
+    try
+    {
+      Connection con = pc.getConnection();
+      if ( ! con.getAutoCommit() )                // Left in a
+      {                                           //  transaction
+        con.rollback();
+        con.setAutoCommit( true );
+      }
+      pc.setLastUsed( System.currentTimeMillis() );
+      theIdle.offerFirst( pc );
+    } catch ( SQLException e )
+    {
+      discard( pc );
+    } finally
+    {
+      thePermits.release();
+    }
+  }
+
+  public int  getMaxSize()      { return theMaxSize; }
+  public int  getActiveCount()  { return theActive.get(); }
+  public int  getIdleCount()    { return theIdle.size(); }
+  public long getBorrowCount()  { return theBorrows.get(); }
+  public long getTimeoutCount() { return theTimeouts.get(); }
+  public long getCreatedCount() { return theCreated.get(); }
+  public long getEvictedCount() { return theEvicted.get(); }
+  public long getStatementHits()   { return theStmtHits.get(); }
+  public long getStatementMisses() { return theStmtMiss.get(); }
+
+  /**
+   * Average time a borrower waited for a connection
+   * @return Average wait in ms
+   */
+  public double getAverageWaitMillis()
+  {
+    long borrows = theBorrows.get();
+    return borrows == 0 ? 0.0 : theWaitNanos.get() / 1.0e6 / borrows;
+  }
+
+  /**
+   * Longest time a borrower waited for a connection
+   * @return Longest wait in ms
+   */
+  public double getMaxWaitMillis()
+  {
+    return theWorstWait.get() / 1.0e6;
+  }
+
+  /**
+   * Return a one line summary of the pool metrics
+   * @return Description of the state of the pool
+   */
+  public String getStats()
+  {
+    return String.format(
+      "Pool active %d idle %d max %d borrows %d " +
+      "wait avg %.3fms max %.3fms timeouts %d created %d evicted %d " +
+      "statements hit %d miss %d",
+      getActiveCount(), getIdleCount(), theMaxSize, getBorrowCount(),
+      getAverageWaitMillis(), getMaxWaitMillis(), getTimeoutCount(),
+      getCreatedCount(), getEvictedCount(),
+      getStatementHits(), getStatementMisses() );
+  }
+
+  /**
+   * Close connections that have been idle for too long,
+   *  leaving at least the minimum number open.
+   */
+  public void evictIdle()
+  {
+    long oldest = System.currentTimeMillis() - theMaxIdle;
+    while ( theIdle.size() > theMinSize )
+    {
+      PooledConnection pc = theIdle.pollLast();   // Least recently used
+      if ( pc == null ) break;
+      if ( pc.getLastUsed() > oldest )            // Not idle long enough
+      {
+        theIdle.offerLast( pc );
+        break;
+      }
+      theEvicted.incrementAndGet();
+      pc.closeConnection();
+    }
+  }
+
+  /**
+   * Run as a thread in background to evict idle connections
+   */
+  private void evictRun()
+  {
+    while ( true )
+    {
+      try
+      {
+        Thread.sleep( Math.max( 1000, theMaxIdle / 2 ) );
+        evictIdle();
+        DEBUG.trace( "ConnectionPool: %s", getStats() );
+      }
+      catch ( InterruptedException e )
+      {
+        return;
+      }
+    }
+  }
+
+  private PooledConnection open() throws SQLException
+  {
+    Connection con = DriverManager.getConnection( theURL, theUser, thePassword );
+    con.setAutoCommit( true );
+    theCreated.incrementAndGet();
+    return new PooledConnection( this, con );
+  }
+
+  private boolean isValid( PooledConnection pc )
+  {
+    try
+    {
+      return pc.getConnection().isValid( 1 );
+    } catch ( SQLException e )
+    {
+      return false;
+    }
+  }
+
+  private void discard( PooledConnection pc )
+  {
+    theEvicted.incrementAndGet();
+    pc.closeConnection();
+  }
+
+  /**
+   * Record a look up in the prepared statement cache of a connection
+   * @param hit true if the statement was already prepared
+   */
+  void recordStatement( boolean hit )
+  {
+    ( hit ? theStmtHits : theStmtMiss ).incrementAndGet();
+  }
+
+  private void recordWait( long nanos )
+  {
+    theBorrows.incrementAndGet();
+    theWaitNanos.addAndGet( nanos );
+    theWorstWait.accumulateAndGet( nanos, Math::max );
+  }
+}
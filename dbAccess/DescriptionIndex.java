@@ -0,0 +1,210 @@
+package dbAccess;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In memory inverted index of the words in the product descriptions.
+ * Maps each word to the product numbers whose description contains it,
+ *  so a search does not have to read every row of ProductTable.
+ * <P>
+ * A search finds the products whose description has, for every word
+ *  searched for, a word starting with it (ignoring case).
+ *  So "usb dr" finds "32Gb USB2 drive".
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+public class DescriptionIndex
+{
+  // Word -> product numbers, sorted so can find words by prefix
+  //  and return the first few product numbers without sorting
+  private final TreeMap<String,Set<String>> theWords = new TreeMap<>();
+  // Product number -> words in its description
+  private final TreeMap<String,String[]>    theProducts = new TreeMap<>();
+
+  private final ReadWriteLock theLock = new ReentrantReadWriteLock();
+
+  /**
+   * Add or replace the description of a product in the index
+   * @param pNum        Product number
+   * @param description Description of the product
+   */
+  public void put( String pNum, String description )
+  {
+    String[] words = words( description );
+    theLock.writeLock().lock();
+    try
+    {
+      removeWords( pNum );
+      theProducts.put( pNum, words );
+      for ( String word : words )
+        theWords.computeIfAbsent( word, w -> new TreeSet<>() ).add( pNum );
+    } finally
+    {
+      theLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Remove a product from the index
+   * @param pNum Product number
+   */
+  public void remove( String pNum )
+  {
+    theLock.writeLock().lock();
+    try
+    {
+      removeWords( pNum );
+      theProducts.remove( pNum );
+    } finally
+    {
+      theLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Number of products in the index
+   * @return number of products
+   */
+  public int size()
+  {
+    theLock.readLock().lock();
+    try
+    {
+      return theProducts.size();
+    } finally
+    {
+      theLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Find the products whose description has a word starting with
+   *  each of the words in the search text.
+   * Search text with no words in it matches every product.
+   * @param text  The search text entered by the customer
+   * @param limit Maximum number of product numbers returned, 0 for all
+   * @return Matching product numbers in ascending order
+   */
+  public List<String> search( String text, int limit )
+  {
+    String[] prefixes = words( text );
+    theLock.readLock().lock();
+    try
+    {
+      Set<String> found;
+      if ( prefixes.length == 0 )
+      {
+        found = theProducts.keySet();
+      } else {
+        // Only the products of the prefix matching fewest are looked at,
+        //  each then being checked for the other prefixes in its words
+        String best = prefixes[0];
+        long   bestCount = Long.MAX_VALUE;
+        for ( String prefix : prefixes )
+        {
+          long count = 0;
+          for ( Set<String> pNums : wordsStarting( prefix ).values() )
+            count += pNums.size();
+          if ( count < bestCount ) { best = prefix; bestCount = count; }
+        }
+        found = matching( best );
+      }
+      Set<String> sorted = found instanceof SortedSet
+                           ? found : new TreeSet<>( found );
+      List<String> res = new ArrayList<>();
+      for ( String pNum : sorted )
+      {
+        if ( limit > 0 && res.size() >= limit ) break;
+        if ( hasAll( theProducts.get( pNum ), prefixes ) )
+          res.add( pNum );
+      }
+      return res;
+    } finally
+    {
+      theLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Product numbers with a word starting with prefix.
+   * Must be called holding the read lock
+   */
+  private Set<String> matching( String prefix )
+  {
+    NavigableMap<String,Set<String>> words = wordsStarting( prefix );
+    if ( words.size() == 1 )
+      return words.firstEntry().getValue();
+    if ( words.isEmpty() )
+      return Collections.emptySet();
+    Set<String> res = new HashSet<>();
+    for ( Set<String> pNums : words.values() )
+      res.addAll( pNums );
+    return res;
+  }
+
+  /**
+   * The words in the index that start with prefix.
+   * Must be called holding the read lock
+   */
+  private NavigableMap<String,Set<String>> wordsStarting( String prefix )
+  {
+    return theWords.subMap( prefix, true, prefix + Character.MAX_VALUE, false );
+  }
+
+  /**
+   * Does every prefix start one of the words
+   */
+  private static boolean hasAll( String[] words, String[] prefixes )
+  {
+    for ( String prefix : prefixes )
+    {
+      boolean found = false;
+      for ( String word : words )
+        if ( word.startsWith( prefix ) ) { found = true; break; }
+      if ( ! found ) return false;
+    }
+    return true;
+  }
+
+  /**
+   * Must be called holding the write lock
+   */
+  private void removeWords( String pNum )
+  {
+    String[] old = theProducts.get( pNum );
+    if ( old == null ) return;
+    for ( String word : old )
+    {
+      Set<String> pNums = theWords.get( word );
+      if ( pNums != null )
+      {
+        pNums.remove( pNum );
+        if ( pNums.isEmpty() ) theWords.remove( word );
+      }
+    }
+  }
+
+  /**
+   * Split text into distinct lower case words of letters and digits
+   * @param text Text to split
+   * @return The words
+   */
+  private static String[] words( String text )
+  {
+    if ( text == null ) return new String[0];
+    Set<String> res = new HashSet<>();
+    for ( String word : text.toLowerCase().split( "[^\\p{L}\\p{N}]+" ) )
+      if ( ! word.isEmpty() ) res.add( word );
+    return res.toArray( new String[0] );
+  }
+}
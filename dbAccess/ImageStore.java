@@ -0,0 +1,135 @@
+package dbAccess;
+
+import debug.DEBUG;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The product images as JPEG bytes, read from the image files
+ *  and held in memory so each file is only read once.
+ * <P>
+ * A thumbnail is read from the file made when the database was set
+ *  up (see Thumbnails), or made when first asked for if there is no
+ *  up to date file.
+ * Each image has an ETag made from its bytes, so it only changes
+ *  when the image does. A file is read again if it has changed on disk.
+ * At most catshop.image.store images (default 256) are held, the
+ *  least recently used being dropped first.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+class ImageStore
+{
+  private static final int MAX_HELD =
+                   Math.max( 1, Integer.getInteger( "catshop.image.store", 256 ) );
+
+  /**
+   * An image as read from its file
+   */
+  static class Stored
+  {
+    private final long   modified;     // Of the file when read
+    private final long   length;
+    private final String etag;
+    private final byte[] bytes;
+
+    Stored( long aModified, long aLength, byte[] someBytes )
+    {
+      modified = aModified;
+      length   = aLength;
+      bytes    = someBytes;
+      etag     = etag( someBytes );
+    }
+
+    String getETag()  { return etag; }
+    byte[] getBytes() { return bytes; }
+  }
+
+  // File name (+ " thumb") -> image, least recently used first
+  private static final LinkedHashMap<String,Stored> theImages =
+    new LinkedHashMap<String,Stored>( 16, 0.75f, true )
+    {
+      private static final long serialVersionUID = 1;
+      protected boolean removeEldestEntry( Map.Entry<String,Stored> eldest )
+      {
+        return size() > MAX_HELD;
+      }
+    };
+
+  /**
+   * The image in a file
+   * @param filename  The image file
+   * @param thumbnail true for a thumbnail of the image
+   * @return The image, with no bytes if the file can not be read
+   */
+  static Stored get( String filename, boolean thumbnail )
+  {
+    File    file     = new File( filename );
+    boolean scale    = thumbnail;                // No thumbnail file
+    if ( thumbnail )
+    {
+      File made = Thumbnails.fileFor( file );
+      if ( made.isFile() && made.lastModified() >= file.lastModified() )
+      {
+        file  = made;
+        scale = false;
+      }
+    }
+    long    modified = file.lastModified();      // 0 if no file
+    long    length   = file.length();
+    String  key      = thumbnail ? filename + " thumb" : filename;
+    synchronized ( theImages )
+    {
+      Stored held = theImages.get( key );
+      if ( held != null && held.modified == modified && held.length == length )
+        return held;
+    }
+    Stored read = new Stored( modified, length, read( file, scale ) );
+    synchronized ( theImages )
+    {
+      theImages.put( key, read );
+    }
+    return read;
+  }
+
+  /**
+   * Read an image file, scaling it down to a thumbnail if asked
+   */
+  private static byte[] read( File file, boolean thumbnail )
+  {
+    try
+    {
+      byte[] bytes = Files.readAllBytes( file.toPath() );
+      return thumbnail ? Thumbnails.thumbnail( bytes ) : bytes;
+    } catch ( IOException e )
+    {
+      DEBUG.trace( "ImageStore: can not read %s: %s", file, e.getMessage() );
+      return new byte[0];
+    }
+  }
+
+  /**
+   * ETag of an image, from a digest of its bytes
+   */
+  private static String etag( byte[] bytes )
+  {
+    try
+    {
+      byte[] digest = MessageDigest.getInstance( "SHA-1" ).digest( bytes );
+      StringBuilder res = new StringBuilder();
+      for ( int i = 0; i < 8; i++ )
+        res.append( String.format( "%02x", digest[i] ) );
+      return res.toString();
+    } catch ( NoSuchAlgorithmException e )       // Always there
+    {
+      return Integer.toHexString( Arrays.hashCode( bytes ) );
+    }
+  }
+}
@@ -0,0 +1,151 @@
+package dbAccess;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A connection to the database that has been borrowed from a
+ * ConnectionPool.
+ * Closing it gives the connection back to the pool
+ * rather than closing the underlying database connection.
+ * Closing it again does nothing, until it is borrowed again.
+ * <P>
+ * Each connection keeps a cache of the prepared statements used on it,
+ *  keyed by their SQL text, so a query is only parsed and planned by
+ *  the database the first time it is used on the connection.
+ * The size of the cache is set by the system property
+ *  catshop.pool.statements (default 32).
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+public class PooledConnection implements AutoCloseable
+{
+  private final ConnectionPool thePool;     // Owning pool
+  private final Connection     theCon;      // Real connection
+  private long                 theLastUsed; // When last given back
+  private final AtomicBoolean  theClosed =  // Given back
+                               new AtomicBoolean( false );
+
+  private static final int MAX_STATEMENTS =
+                       Integer.getInteger( "catshop.pool.statements", 32 );
+
+  // Prepared statements, least recently used first
+  private final LinkedHashMap<String,PreparedStatement> theStatements =
+    new LinkedHashMap<String,PreparedStatement>( 16, 0.75f, true )
+    {
+      private static final long serialVersionUID = 1;
+      @Override
+      protected boolean removeEldestEntry(
+                  Map.Entry<String,PreparedStatement> eldest )
+      {
+        if ( size() <= MAX_STATEMENTS ) return false;
+        closeStatement( eldest.getValue() );
+        return true;
+      }
+    };
+
+  PooledConnection( ConnectionPool pool, Connection con )
+  {
+    thePool     = pool;
+    theCon      = con;
+    theLastUsed = System.currentTimeMillis();
+  }
+
+  /**
+   * Return the underlying connection to the database
+   * @return The JDBC connection
+   */
+  public Connection getConnection()
+  {
+    return theCon;
+  }
+
+  /**
+   * Create a statement object on this connection
+   * @return A new statement object
+   * @throws SQLException if problem
+   */
+  public Statement createStatement() throws SQLException
+  {
+    return theCon.createStatement();
+  }
+
+  /**
+   * Return a prepared statement for the SQL text, re-using the one
+   *  prepared earlier on this connection if there is one.
+   * The statement belongs to the cache, so must not be closed,
+   *  and must only be used until the connection is given back.
+   * @param sql SQL text with ? for each parameter
+   * @return A prepared statement, parameters to be set by the caller
+   * @throws SQLException if problem
+   */
+  public PreparedStatement prepare( String sql ) throws SQLException
+  {
+    PreparedStatement ps = theStatements.get( sql );
+    if ( ps != null )
+    {
+      thePool.recordStatement( true );
+      return ps;
+    }
+    thePool.recordStatement( false );
+    ps = theCon.prepareStatement( sql );
+    theStatements.put( sql, ps );
+    return ps;
+  }
+
+  /**
+   * Give the connection back to the pool it was borrowed from
+   */
+  @Override
+  public void close()
+  {
+    if ( theClosed.compareAndSet( false, true ) )  // Only once
+      thePool.giveBack( this );
+  }
+
+  /**
+   * The connection has been handed out by the pool, so may be
+   *  given back again
+   */
+  void borrowed()
+  {
+    theClosed.set( false );
+  }
+
+  long getLastUsed()            { return theLastUsed; }
+
+  void setLastUsed( long when ) { theLastUsed = when; }
+
+  /**
+   * Really close the connection to the database
+   */
+  void closeConnection()
+  {
+    for ( PreparedStatement ps : theStatements.values() )
+      closeStatement( ps );
+    theStatements.clear();
+    try
+    {
+      theCon.close();
+    } catch ( SQLException e )
+    {
+      // Being thrown away, nothing more can be done
+    }
+  }
+
+  private static void closeStatement( PreparedStatement ps )
+  {
+    try
+    {
+      ps.close();
+    } catch ( SQLException e )
+    {
+      // Being thrown away, nothing more can be done
+    }
+  }
+}
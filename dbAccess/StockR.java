@@ -9,16 +9,24 @@ package dbAccess;
 
 import catalogue.Product;
 import debug.DEBUG;
+import middle.ProductImage;
 import middle.StockException;
 import middle.StockReader;
 
 import javax.swing.*;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
 
-// There can only be 1 ResultSet opened per statement
-// so no simultaneous use of the statement object
-// hence the synchronized methods
+// Each request borrows its own connection from the pool
+// so requests do not share a statement object
+// and can run at the same time
 
 // mySQL
 //    no spaces after SQL statement ;
@@ -28,8 +36,11 @@ import java.util.ArrayList;
   */
 public class StockR implements StockReader
 {
-  private Connection theCon    = null;      // Connection to database
-  private Statement  theStmt   = null;      // Statement object
+  private ConnectionPool thePool = null;      // Connections to database
+
+  // Words in the product descriptions, shared by all users
+  //  of the database, built when first needed
+  private static DescriptionIndex theIndex = null;
 
   /**
    * Connects to database
@@ -44,13 +55,8 @@ public class StockR implements StockReader
       DBAccess dbDriver = (new DBAccessFactory()).getNewDBAccess();
       dbDriver.loadDriver();
     
-      theCon  = DriverManager.getConnection
-                  ( dbDriver.urlOfDatabase(), 
-                    dbDriver.username(), 
-                    dbDriver.password() );
-
-      theStmt = theCon.createStatement();
-      theCon.setAutoCommit( true );
+      thePool = ConnectionPool.getPool( dbDriver );
+      getDescriptionIndex();
     }
     catch ( SQLException e )
     {
@@ -64,42 +70,101 @@ public class StockR implements StockReader
 
 
   /**
-   * Returns a statement object that is used to process SQL statements
-   * @return A statement object used to access the database
+   * Borrows a connection from the pool that is used to process
+   * requests to the DataBase. Must be given back by calling close()
+   * @return a connection object
+   * @throws SQLException if no connection available
    */
-  
-  protected Statement getStatementObject()
+
+  protected PooledConnection getConnectionObject()
+            throws SQLException
   {
-    return theStmt;
+    return thePool.borrow();
   }
 
   /**
-   * Returns a connection object that is used to process
-   * requests to the DataBase
-   * @return a connection object
+   * Returns the pool of connections used to access the DataBase
+   * @return the connection pool
+   */
+
+  public ConnectionPool getConnectionPool()
+  {
+    return thePool;
+  }
+
+  /**
+   * Returns the index of the words in the product descriptions,
+   *  reading every description from the DataBase the first time
+   * @return the description index
+   * @throws SQLException if problem reading the descriptions
    */
 
-  protected Connection getConnectionObject()
+  protected DescriptionIndex getDescriptionIndex()
+            throws SQLException
   {
-    return theCon;
+    synchronized ( StockR.class )
+    {
+      if ( theIndex == null )
+      {
+        DescriptionIndex index = new DescriptionIndex();
+        try ( PooledConnection con = getConnectionObject();
+              Statement stmt = con.createStatement() )
+        {
+          stmt.setFetchSize( 1000 );
+          try ( ResultSet rs = stmt.executeQuery( ALL_NAMES_SQL ) )
+          {
+            while ( rs.next() )
+              index.put( rs.getString( "productNo" ).trim(),
+                         rs.getString( "description" ) );
+          }
+        }
+        DEBUG.trace( "DB StockR: indexed %d descriptions", index.size() );
+        theIndex = index;
+      }
+      return theIndex;
+    }
   }
 
+  // SQL used, prepared once per pooled connection
+  private static final String EXISTS_SQL =
+    "select price from ProductTable " +
+    "  where  ProductTable.productNo = ?";
+  private static final String DETAILS_SQL =
+    "select description, price, stockLevel " +
+    "  from ProductTable, StockTable " +
+    "  where  ProductTable.productNo = ? " +
+    "  and    StockTable.productNo   = ProductTable.productNo";
+  private static final String MANY_DETAILS_SQL =
+    "select ProductTable.productNo, description, price, stockLevel " +
+    "  from ProductTable, StockTable " +
+    "  where  ProductTable.productNo in (%s) " +
+    "  and    StockTable.productNo = ProductTable.productNo";
+  // Sizes of in-list prepared, so only a few statements are cached
+  private static final int[] IN_LIST_SIZES = { 1, 4, 16, 64 };
+  private static final String ALL_NAMES_SQL =
+    "select productNo, description from ProductTable";
+  private static final String IMAGE_SQL =
+    "select picture from ProductTable " +
+    "  where  ProductTable.productNo = ?";
+
   /**
    * Checks if the product exits in the stock list
    * @param pNum The product number
    * @return true if exists otherwise false
    */
-  public synchronized boolean exists( String pNum )
+  public boolean exists( String pNum )
          throws StockException
   {
     
-    try
+    try ( PooledConnection con = getConnectionObject() )
     {
-      ResultSet rs   = getStatementObject().executeQuery(
-        "select price from ProductTable " +
-        "  where  ProductTable.productNo = '" + pNum + "'"
-      );
-      boolean res = rs.next();
+      PreparedStatement ps = con.prepare( EXISTS_SQL );
+      ps.setString( 1, pNum );
+      boolean res;
+      try ( ResultSet rs = ps.executeQuery() )
+      {
+        res = rs.next();
+      }
       DEBUG.trace( "DB StockR: exists(%s) -> %s", 
                     pNum, ( res ? "T" : "F" ) );
       return res;
@@ -111,16 +176,15 @@ public class StockR implements StockReader
   
   
   /**
-   * Checks if the product exits in the stock list via name/description
+   * Checks if the product exits in the stock list via name/description.
+   *  Answered from the description index, so no query is made.
    * @param desc The search criteria entered by the consumer
    * @return true if exists otherwise false
    */
-  public synchronized boolean existsName(String desc) throws StockException{
+  public boolean existsName(String desc) throws StockException{
 	 try {
-		 ResultSet rs = getStatementObject().executeQuery(
-				 "select distinct description from ProductTable " + " where ProductTable.description like '%" + desc + "%'");
-		 boolean res = rs.next();
-		 DEBUG.trace("DB StockR: existsName(%s) -> %s", (res ? "T" : "F" ) );
+		 boolean res = ! getDescriptionIndex().search( desc, 1 ).isEmpty();
+		 DEBUG.trace("DB StockR: existsName(%s) -> %s", desc, (res ? "T" : "F" ) );
 		 return res;
 	 } catch (SQLException e) {
 		 throw new StockException("SQL existsName: " + e.getMessage());
@@ -133,75 +197,170 @@ public class StockR implements StockReader
    * @param pNum The product number
    * @return Details in an instance of a Product
    */
-  public synchronized Product getDetails( String pNum )
+  public Product getDetails( String pNum )
          throws StockException
   {
-    try
+    return findDetails( pNum ).orElse( new Product( "0", "", 0.00, 0 ) );
+  }
+
+  /**
+   * Returns details about the product if it is in the stock list,
+   *  using a single query
+   * @param pNum The product number
+   * @return Details in an instance of a Product, empty if no such product
+   */
+  public Optional<Product> findDetails( String pNum )
+         throws StockException
+  {
+    try ( PooledConnection con = getConnectionObject() )
     {
-      Product   dt = new Product( "0", "", 0.00, 0 );
-      ResultSet rs = getStatementObject().executeQuery(
-        "select description, price, stockLevel " +
-        "  from ProductTable, StockTable " +
-        "  where  ProductTable.productNo = '" + pNum + "' " +
-        "  and    StockTable.productNo   = '" + pNum + "'"
-      );
-      if ( rs.next() )
+      PreparedStatement ps = con.prepare( DETAILS_SQL );
+      ps.setString( 1, pNum );
+      try ( ResultSet rs = ps.executeQuery() )
       {
-        dt.setProductNum( pNum );
-        dt.setDescription(rs.getString( "description" ) );
-        dt.setPrice( rs.getDouble( "price" ) );
-        dt.setQuantity( rs.getInt( "stockLevel" ) );
+        if ( ! rs.next() ) return Optional.empty();
+        return Optional.of( new Product( pNum,
+                                         rs.getString( "description" ),
+                                         rs.getDouble( "price" ),
+                                         rs.getInt( "stockLevel" ) ) );
       }
-      rs.close();
-      return dt;
     } catch ( SQLException e )
     {
-      throw new StockException( "SQL getDetails: " + e.getMessage() );
+      throw new StockException( "SQL findDetails: " + e.getMessage() );
     }
   }
   
+  /**
+   * Returns details about several products in the stock list
+   *  using one query for up to 64 products.
+   * @param pNums The product numbers
+   * @return Map from product number to details,
+   *         product numbers not in the stock list are left out
+   */
+  public Map<String,Product> getDetails( Collection<String> pNums )
+         throws StockException
+  {
+    Map<String,Product> res = new HashMap<>();
+    String[] todo = new LinkedHashSet<>( pNums ).toArray( new String[0] );
+    if ( todo.length == 0 ) return res;
+    try ( PooledConnection con = getConnectionObject() )
+    {
+      int maxSize = IN_LIST_SIZES[ IN_LIST_SIZES.length-1 ];
+      for ( int from = 0; from < todo.length; from += maxSize )
+      {
+        int n    = Math.min( maxSize, todo.length - from );
+        int size = inListSize( n );
+        PreparedStatement ps = con.prepare( manyDetailsSQL( size ) );
+        for ( int i = 0; i < size; i++ )        // Pad with the last
+          ps.setString( i+1, todo[ from + Math.min( i, n-1 ) ] );
+        try ( ResultSet rs = ps.executeQuery() )
+        {
+          while ( rs.next() )
+          {
+            String pNum = rs.getString( "productNo" ).trim();
+            res.put( pNum, new Product( pNum,
+                                        rs.getString( "description" ),
+                                        rs.getDouble( "price" ),
+                                        rs.getInt( "stockLevel" ) ) );
+          }
+        }
+      }
+      DEBUG.trace( "DB StockR: getDetails(%d) -> %d", todo.length, res.size() );
+      return res;
+    } catch ( SQLException e )
+    {
+      throw new StockException( "SQL getDetails: " + e.getMessage() );
+    }
+  }
+
+  /**
+   * Smallest in-list size prepared that holds n product numbers
+   */
+  private static int inListSize( int n )
+  {
+    for ( int size : IN_LIST_SIZES )
+      if ( size >= n ) return size;
+    return IN_LIST_SIZES[ IN_LIST_SIZES.length-1 ];
+  }
+
+  private static String manyDetailsSQL( int size )
+  {
+    StringBuilder marks = new StringBuilder( "?" );
+    for ( int i = 1; i < size; i++ ) marks.append( ",?" );
+    return String.format( MANY_DETAILS_SQL, marks );
+  }
+
   /**
    * Returns an arraylist containing all products in the database that match the search criteria/
    *  Assumed to exist in database.
    * @param desc is the description or name of the product entered by the consumer
    * @return an arraylist containing the products type Product
    */
-  public synchronized ArrayList<Product> getDetailsName( String desc )
-	         throws StockException
-	  {
-	  ArrayList<Product> results = new ArrayList<Product>();
-	    try
-	    {
-	      Statement sm = theCon.createStatement();
-	      ResultSet rs = getStatementObject().executeQuery(
-	        "select distinct productNo" +
-	        "  from ProductTable " +
-	        "  where  lower(ProductTable.description) like lower('%" + desc + "%')");
-	      while ( rs.next() )
-	      {
-	    	Product   dt = new Product( "0", "", 0.00, 0 );
-	        String pNum = rs.getString("productNo");
-	        DEBUG.trace(pNum);
-	        ResultSet ry = sm.executeQuery(
-	        		"select description, price, stockLevel " +
-	        		"  from ProductTable, StockTable " +
-	        		"  where  ProductTable.productNo = '" + pNum + "' " +
-	        		"  and    StockTable.productNo   = '" + pNum + "'");
-	        if (ry.next()) {
-	        	dt.setProductNum(pNum);
-	        	dt.setQuantity( ry.getInt( "stockLevel" ) );
-	        	dt.setDescription(ry.getString("description"));
-	        	dt.setPrice( ry.getDouble("price"));
-	        }
-	        results.add(dt);
-	        
-	      }
-	      return results;
-	    } catch ( SQLException e )
-	    {
-	      throw new StockException( "SQL getDetailsName: " + e.getMessage() );
-	    }
-	  }
+  public ArrayList<Product> getDetailsName( String desc )
+         throws StockException
+  {
+    return getDetailsName( desc, 0 );
+  }
+
+  /**
+   * Returns an arraylist containing at most limit products
+   *  whose description matches the search criteria.
+   * @param desc  is the description or name of the product entered by the consumer
+   * @param limit maximum number of products returned, 0 for no limit
+   * @return an arraylist containing the products type Product
+   * @throws StockException if issue
+   */
+  public ArrayList<Product> getDetailsName( String desc, int limit )
+         throws StockException
+  {
+    ArrayList<Product> results = new ArrayList<Product>();
+    forEachDetailsName( desc, limit, results::add );
+    return results;
+  }
+
+  /**
+   * Passes each product whose description matches the search criteria
+   *  to action, so a very large result set is never held in memory
+   *  at once.
+   * The matching product numbers are found in the description index
+   *  (see DescriptionIndex for how words are matched), then the
+   *  details are read 64 products per query.
+   * @param desc   is the description or name of the product entered by the consumer
+   * @param limit  maximum number of products processed, 0 for no limit
+   * @param action Called with each matching product
+   * @return The number of products processed
+   * @throws StockException if issue
+   */
+  public int forEachDetailsName( String desc, int limit,
+                                 Consumer<Product> action )
+         throws StockException
+  {
+    List<String> pNums;
+    try
+    {
+      pNums = getDescriptionIndex().search( desc, Math.max( 0, limit ) );
+    } catch ( SQLException e )
+    {
+      throw new StockException( "SQL getDetailsName: " + e.getMessage() );
+    }
+    int count = 0;
+    int chunk = IN_LIST_SIZES[ IN_LIST_SIZES.length-1 ];
+    for ( int from = 0; from < pNums.size(); from += chunk )
+    {
+      List<String> some = pNums.subList( from,
+                                         Math.min( from + chunk, pNums.size() ) );
+      Map<String,Product> details = getDetails( some );
+      for ( String pNum : some )                  // In product order
+      {
+        Product pr = details.get( pNum );
+        if ( pr == null ) continue;               // Removed since indexed
+        action.accept( pr );
+        count++;
+      }
+    }
+    DEBUG.trace( "DB StockR: getDetailsName(%s) -> %d", desc, count );
+    return count;
+  }
 
 
   /**
@@ -210,29 +369,54 @@ public class StockR implements StockReader
    *  Assumed to exist in database.
    * @return ImageIcon representing the image
    */
-  public synchronized ImageIcon getImage( String pNum )
+  public ImageIcon getImage( String pNum )
+         throws StockException
+  {
+    String filename = pictureFile( pNum );
+    //DEBUG.trace( "DB StockR: getImage -> %s", filename );
+    return new ImageIcon( filename );
+  }
+
+  /**
+   * Returns the image of the product as JPEG bytes, only sending
+   *  the bytes if the caller does not have this version, see ImageStore
+   * @param pNum      The product number
+   * @param thumbnail true for a thumbnail of the image
+   * @param etag      ETag of the version the caller has, or null
+   * @return The image, or just its ETag if not changed
+   */
+  public ProductImage getImageData( String pNum, boolean thumbnail,
+                                    String etag )
          throws StockException
+  {
+    ImageStore.Stored image = ImageStore.get( pictureFile( pNum ), thumbnail );
+    if ( image.getETag().equals( etag ) )
+      return new ProductImage( pNum, etag, null );
+    return new ProductImage( pNum, image.getETag(), image.getBytes() );
+  }
+
+  /**
+   * The file holding the picture of a product
+   */
+  private String pictureFile( String pNum )
+          throws StockException
   {
     String filename = "default.jpg";  
-    try
+    try ( PooledConnection con = getConnectionObject() )
     {
-      ResultSet rs   = getStatementObject().executeQuery(
-        "select picture from ProductTable " +
-        "  where  ProductTable.productNo = '" + pNum + "'"
-      );
-      
-      boolean res = rs.next();
-      if ( res )
-        filename = rs.getString( "picture" );
-      rs.close();
+      PreparedStatement ps = con.prepare( IMAGE_SQL );
+      ps.setString( 1, pNum );
+      try ( ResultSet rs = ps.executeQuery() )
+      {
+        if ( rs.next() )
+          filename = rs.getString( "picture" );
+      }
     } catch ( SQLException e )
     {
       DEBUG.error( "getImage()\n%s\n", e.getMessage() );
       throw new StockException( "SQL getImage: " + e.getMessage() );
     }
-    
-    //DEBUG.trace( "DB StockR: getImage -> %s", filename );
-    return new ImageIcon( filename );
+    return filename;
   }
 
 }
@@ -9,14 +9,22 @@ package dbAccess;
 
 import catalogue.Product;
 import debug.DEBUG;
+import middle.StockChangeListener;
 import middle.StockException;
 import middle.StockReadWriter;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
-// There can only be 1 ResultSet opened per statement
-// so no simultaneous use of the statement object
-// hence the synchronized methods
+// Each request borrows its own connection from the pool
+// (see StockR) so no statement object is shared between requests
 // 
 
 /**
@@ -24,6 +32,30 @@ import java.sql.SQLException;
   */
 public class StockRW extends StockR implements StockReadWriter 
 {
+  // SQL used, prepared once per pooled connection
+  private static final String BUY_SQL =
+    "update StockTable set stockLevel = stockLevel - ? " +
+    "       where productNo = ? and stockLevel >= ?";
+  private static final String ADD_SQL =
+    "update StockTable set stockLevel = stockLevel + ? " +
+    "       where productNo = ?";
+  private static final String EXISTS_SQL =
+    "select price from ProductTable where productNo = ?";
+  private static final String INSERT_PRODUCT_SQL =
+    "insert into ProductTable values ( ?, ?, ?, ? )";
+  private static final String INSERT_STOCK_SQL =
+    "insert into StockTable values ( ?, ? )";
+  private static final String UPDATE_PRODUCT_SQL =
+    "update ProductTable set description = ?, price = ? " +
+    "       where productNo = ?";
+  private static final String UPDATE_STOCK_SQL =
+    "update StockTable set stockLevel = ? where productNo = ?";
+
+  // Told of every change made through any StockRW,
+  //  as all instances change the same database
+  private static final List<StockChangeListener> theListeners =
+                       new CopyOnWriteArrayList<>();
+
   /*
    * Connects to database
    */
@@ -32,50 +64,172 @@ public class StockRW extends StockR implements StockReadWriter
     super();        // Connection done in StockR's constructor
   }
   
+  /**
+   * Register an object to be told when a product is changed
+   *  by any StockRW, for example a cache of product details
+   * @param listener Told of each product changed
+   */
+  public static void addChangeListener( StockChangeListener listener )
+  {
+    theListeners.add( listener );
+  }
+
+  /**
+   * No longer tell listener when a product is changed
+   * @param listener Previously registered listener
+   */
+  public static void removeChangeListener( StockChangeListener listener )
+  {
+    theListeners.remove( listener );
+  }
+
+  /**
+   * Tell every registered listener that the product has changed.
+   * A listener that fails does not stop the others being told, or
+   *  the change that has been made being reported as failed.
+   * @param pNum Product number
+   */
+  protected static void fireStockChanged( String pNum )
+  {
+    for ( StockChangeListener listener : theListeners )
+    {
+      try
+      {
+        listener.stockChanged( pNum );
+      } catch ( RuntimeException e )          // Change is still made
+      {
+        DEBUG.trace( "DB StockRW: listener %s failed %s", listener, e );
+      }
+    }
+  }
+
   /**
    * Customer buys stock, quantity decreased if sucessful.
    * @param pNum Product number
    * @param amount Amount of stock bought
    * @return true if succeeds else false
    */
-  public synchronized boolean buyStock( String pNum, int amount )
+  public boolean buyStock( String pNum, int amount )
          throws StockException
   {
     DEBUG.trace("DB StockRW: buyStock(%s,%d)", pNum, amount);
     int updates = 0;
-    try
+    try ( PooledConnection con = getConnectionObject() )
     {
-      getStatementObject().executeUpdate(
-        "update StockTable set stockLevel = stockLevel-" + amount +
-        "       where productNo = '" + pNum + "' and " +
-        "             stockLevel >= " + amount + ""
-      );
-      updates = 1; // getStatementObject().getUpdateCount();
+      PreparedStatement ps = con.prepare( BUY_SQL );
+      ps.setInt( 1, amount );
+      ps.setString( 2, pNum );
+      ps.setInt( 3, amount );
+      updates = ps.executeUpdate();           // 0 if not enough stock
     } catch ( SQLException e )
     {
       throw new StockException( "SQL buyStock: " + e.getMessage() );
     }
-    DEBUG.trace( "buyStock() updates -> %n", updates );
+    DEBUG.trace( "buyStock() updates -> %d", updates );
+    if ( updates > 0 ) fireStockChanged( pNum );
     return updates > 0;   // sucess ?
   }
 
+  /**
+   * Customer buys several products at once.
+   * The stock level of every line is decremented by one batch of
+   *  updates, committed as a single transaction. A line is only
+   *  bought if its update changed a row; if the driver does not
+   *  report that for a batch, the updates are made one at a time.
+   * @param lines Product number to quantity bought
+   * @param allOrNothing true, nothing is bought unless every line can be
+   * @return Product number to true if there was enough stock for the line.
+   *         If allOrNothing and any line is false nothing was bought
+   */
+  public Map<String,Boolean> buyStock( Map<String,Integer> lines,
+                                       boolean allOrNothing )
+         throws StockException
+  {
+    DEBUG.trace("DB StockRW: buyStock(%d lines)", lines.size() );
+    Map<String,Boolean> res = new LinkedHashMap<>();
+    if ( lines.isEmpty() ) return res;
+    List<String> pNums = new ArrayList<>( lines.keySet() );
+    boolean bought;
+    // If anything fails the pool rolls back the transaction
+    //  when the connection is given back
+    try ( PooledConnection con = getConnectionObject() )
+    {
+      Connection theCon = con.getConnection();
+      theCon.setAutoCommit( false );
+      PreparedStatement ps = con.prepare( BUY_SQL );
+      for ( String pNum : pNums )
+      {
+        int amount = lines.get( pNum );
+        ps.setInt( 1, amount );
+        ps.setString( 2, pNum );
+        ps.setInt( 3, amount );
+        ps.addBatch();
+      }
+      int[] updates = ps.executeBatch();
+      if ( ! counted( updates ) )               // Driver gave no counts
+      {
+        theCon.rollback();                      //  so one at a time
+        for ( int i = 0; i < pNums.size(); i++ )
+        {
+          int amount = lines.get( pNums.get(i) );
+          ps.setInt( 1, amount );
+          ps.setString( 2, pNums.get(i) );
+          ps.setInt( 3, amount );
+          updates[i] = ps.executeUpdate();
+        }
+      }
+      boolean all = true;
+      for ( int i = 0; i < pNums.size(); i++ )
+      {
+        boolean ok = updates[i] > 0;            // Only if a row updated
+        res.put( pNums.get(i), ok );
+        all &= ok;
+      }
+      bought = all || ! allOrNothing;
+      if ( bought )
+        theCon.commit();
+      else
+        theCon.rollback();
+      theCon.setAutoCommit( true );
+    } catch ( SQLException e )
+    {
+      throw new StockException( "SQL buyStock: " + e.getMessage() );
+    }
+    if ( bought )
+      for ( String pNum : pNums )
+        if ( res.get( pNum ) ) fireStockChanged( pNum );
+    return res;
+  }
+
+  /**
+   * Did the driver report the number of rows each update of a batch
+   *  changed, so a line not bought can be told from one bought
+   */
+  private static boolean counted( int[] updates )
+  {
+    for ( int n : updates )
+      if ( n < 0 ) return false;               // SUCCESS_NO_INFO
+    return true;
+  }
+
   /**
    * Adds stock (Re-stocks) to the store.
    *  Assumed to exist in database.
    * @param pNum Product number
    * @param amount Amount of stock to add
    */
-  public synchronized void addStock( String pNum, int amount )
+  public void addStock( String pNum, int amount )
          throws StockException
   {
-    try
+    try ( PooledConnection con = getConnectionObject() )
     {
-      getStatementObject().executeUpdate(
-        "update StockTable set stockLevel = stockLevel + " + amount +
-        "         where productNo = '" + pNum + "'"
-      );
+      PreparedStatement ps = con.prepare( ADD_SQL );
+      ps.setInt( 1, amount );
+      ps.setString( 2, pNum );
+      ps.executeUpdate();
       //getConnectionObject().commit();
       DEBUG.trace( "DB StockRW: addStock(%s,%d)" , pNum, amount );
+      fireStockChanged( pNum );
     } catch ( SQLException e )
     {
       throw new StockException( "SQL addStock: " + e.getMessage() );
@@ -89,41 +243,51 @@ public class StockRW extends StockR implements StockReadWriter
    * Information modified: Description, Price
    * @param detail Product details to change stocklist to
    */
-  public synchronized void modifyStock( Product detail )
+  public void modifyStock( Product detail )
          throws StockException
   {
     DEBUG.trace( "DB StockRW: modifyStock(%s)", 
                  detail.getProductNum() );
-    try
+    // Uses the one connection throughout, rather than calling exists(),
+    //  so never holds one pooled connection while waiting for another
+    String pNum = detail.getProductNum();
+    try ( PooledConnection con = getConnectionObject() )
     {
-      if ( ! exists( detail.getProductNum() ) )
+      PreparedStatement ps = con.prepare( EXISTS_SQL );
+      ps.setString( 1, pNum );
+      boolean exists;
+      try ( ResultSet rs = ps.executeQuery() )
+      {
+        exists = rs.next();
+      }
+      if ( ! exists )
       {
-    	getStatementObject().executeUpdate( 
-         "insert into ProductTable values ('" +
-            detail.getProductNum() + "', " + 
-             "'" + detail.getDescription() + "', " + 
-             "'images/Pic" + detail.getProductNum() + ".jpg', " + 
-             "'" + detail.getPrice() + "' " + ")"
-            );
-    	getStatementObject().executeUpdate( 
-           "insert into StockTable values ('" + 
-           detail.getProductNum() + "', " + 
-           "'" + detail.getQuantity() + "' " + ")"
-           ); 
+        ps = con.prepare( INSERT_PRODUCT_SQL );
+        ps.setString( 1, pNum );
+        ps.setString( 2, detail.getDescription() );
+        ps.setString( 3, "images/Pic" + pNum + ".jpg" );
+        ps.setDouble( 4, detail.getPrice() );
+        ps.executeUpdate();
+
+        ps = con.prepare( INSERT_STOCK_SQL );
+        ps.setString( 1, pNum );
+        ps.setInt( 2, detail.getQuantity() );
+        ps.executeUpdate();
       } else {
-    	getStatementObject().executeUpdate(
-          "update ProductTable " +
-          "  set description = '" + detail.getDescription() + "' , " +
-          "      price       = " + detail.getPrice() +
-          "  where productNo = '" + detail.getProductNum() + "' "
-         );
-       
-    	getStatementObject().executeUpdate(
-          "update StockTable set stockLevel = " + detail.getQuantity() +
-          "  where productNo = '" + detail.getProductNum() + "'"
-        );
+        ps = con.prepare( UPDATE_PRODUCT_SQL );
+        ps.setString( 1, detail.getDescription() );
+        ps.setDouble( 2, detail.getPrice() );
+        ps.setString( 3, pNum );
+        ps.executeUpdate();
+
+        ps = con.prepare( UPDATE_STOCK_SQL );
+        ps.setInt( 1, detail.getQuantity() );
+        ps.setString( 2, pNum );
+        ps.executeUpdate();
       }
       //getConnectionObject().commit();
+      getDescriptionIndex().put( pNum, detail.getDescription() );
+      fireStockChanged( pNum );
       
     } catch ( SQLException e )
     {
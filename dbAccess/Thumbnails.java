@@ -0,0 +1,96 @@
+package dbAccess;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Small versions of the product images, made once when the
+ *  database is set up (see clients.Setup) rather than each time
+ *  an image is shown.
+ * <P>
+ * A thumbnail fits in a square of catshop.image.thumb pixels
+ *  (default 80, the size of the picture in the customer client, so
+ *  it is shown without being scaled again). It is kept as a JPEG in
+ *  the thumbs directory next to its image, so images/pic0001.jpg has
+ *  the thumbnail images/thumbs/pic0001.jpg.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+public class Thumbnails
+{
+  /** Largest width and height of a thumbnail in pixels */
+  public static final int SIZE =
+                      Math.max( 1, Integer.getInteger( "catshop.image.thumb", 80 ) );
+
+  /**
+   * The file holding the thumbnail of an image
+   * @param image The image file
+   * @return The thumbnail file, which may not exist
+   */
+  public static File fileFor( File image )
+  {
+    return new File( new File( image.getAbsoluteFile().getParentFile(), "thumbs" ),
+                     image.getName() );
+  }
+
+  /**
+   * Make the thumbnail of every image in a directory that does not
+   *  have an up to date one
+   * @param dir The directory of images
+   * @return The number of thumbnails made
+   * @throws IOException if a thumbnail can not be written
+   */
+  public static int makeAll( File dir ) throws IOException
+  {
+    File[] images = dir.listFiles( ( d, name ) ->
+                      name.toLowerCase().matches( ".*\\.(jpg|jpeg|png|gif)" ) );
+    if ( images == null ) return 0;              // No such directory
+    int made = 0;
+    for ( File image : images )
+    {
+      File thumb = fileFor( image );
+      if ( thumb.isFile() && thumb.lastModified() >= image.lastModified() )
+        continue;                                // Up to date
+      Files.createDirectories( thumb.getParentFile().toPath() );
+      Files.write( thumb.toPath(),
+                   thumbnail( Files.readAllBytes( image.toPath() ) ) );
+      made++;
+    }
+    return made;
+  }
+
+  /**
+   * A thumbnail of an image, the image itself if it is already
+   *  small enough or can not be decoded
+   * @param bytes The image
+   * @return The thumbnail as JPEG
+   * @throws IOException if the image can not be read
+   */
+  public static byte[] thumbnail( byte[] bytes ) throws IOException
+  {
+    BufferedImage image = ImageIO.read( new ByteArrayInputStream( bytes ) );
+    if ( image == null ) return bytes;           // Not an image
+    double scale = Math.min( (double) SIZE / image.getWidth(),
+                             (double) SIZE / image.getHeight() );
+    if ( scale >= 1.0 ) return bytes;
+    int width  = Math.max( 1, (int) Math.round( image.getWidth()  * scale ) );
+    int height = Math.max( 1, (int) Math.round( image.getHeight() * scale ) );
+    BufferedImage small =
+      new BufferedImage( width, height, BufferedImage.TYPE_INT_RGB );
+    Graphics2D g = small.createGraphics();
+    g.setRenderingHint( RenderingHints.KEY_INTERPOLATION,
+                        RenderingHints.VALUE_INTERPOLATION_BILINEAR );
+    g.drawImage( image, 0, 0, width, height, null );
+    g.dispose();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageIO.write( small, "jpg", out );
+    return out.toByteArray();
+  }
+}
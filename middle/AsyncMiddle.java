@@ -0,0 +1,110 @@
+package middle;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs calls to the middle tier on a pool of threads, so that the
+ *  caller is not held up, see AsyncStockReader and AsyncOrderProcessing.
+ * <P>
+ * The pool is shared by every client in the JVM. It has at most
+ *  catshop.async.threads threads (default 8), and at most
+ *  catshop.async.queue calls (default 1000) wait for a thread.
+ *  A call made when the pool is full fails straight away rather
+ *  than hold up the caller.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public class AsyncMiddle
+{
+  private static final int THREADS =
+          Math.max( 1, Integer.getInteger( "catshop.async.threads", 8 ) );
+  private static final int QUEUE   =
+          Math.max( 1, Integer.getInteger( "catshop.async.queue", 1000 ) );
+
+  private static ThreadPoolExecutor thePool = null;
+
+  /**
+   * A call made on a thread of the pool
+   */
+  interface Call<T>
+  {
+    T call() throws Exception;
+  }
+
+  /**
+   * The pool of threads shared by the clients in the JVM
+   * @return The pool
+   */
+  public static synchronized Executor getExecutor()
+  {
+    if ( thePool == null )
+    {
+      AtomicInteger made = new AtomicInteger( 0 );
+      thePool = new ThreadPoolExecutor(
+        THREADS, THREADS, 30, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<>( QUEUE ),
+        r -> {
+          Thread t = new Thread( r, "catshop-async-" + made.incrementAndGet() );
+          t.setDaemon( true );                   // Not keep JVM alive
+          return t;
+        },
+        ( r, pool ) -> {
+          throw new RejectedExecutionException(
+                      "Busy: " + QUEUE + " calls waiting" );
+        } );
+      thePool.allowCoreThreadTimeOut( true );
+    }
+    return thePool;
+  }
+
+  /**
+   * Make a call on a thread of the executor
+   * @param executor Runs the call
+   * @param call     The call
+   * @return Completed with the result of the call, or the
+   *         exception it threw (not wrapped)
+   */
+  static <T> CompletableFuture<T> call( Executor executor, Call<T> call )
+  {
+    CompletableFuture<T> res = new CompletableFuture<>();
+    try
+    {
+      executor.execute( () -> {
+        try
+        {
+          res.complete( call.call() );
+        } catch ( Throwable e )
+        {
+          res.completeExceptionally( e );
+        }
+      } );
+    } catch ( RejectedExecutionException e )     // Pool full
+    {
+      res.completeExceptionally( e );
+    }
+    return res;
+  }
+
+  /**
+   * The exception thrown by a call, as a CompletableFuture depending
+   *  on the call wraps it in a CompletionException
+   * @param e The exception a future completed with
+   * @return The exception thrown by the call
+   */
+  public static Throwable cause( Throwable e )
+  {
+    while ( ( e instanceof CompletionException ||
+              e instanceof ExecutionException ) && e.getCause() != null )
+      e = e.getCause();
+    return e;
+  }
+}
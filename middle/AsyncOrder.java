@@ -0,0 +1,113 @@
+package middle;
+
+import catalogue.Basket;
+import catalogue.PickWave;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Access to the order processing system without waiting, by making
+ *  the calls of an OrderProcessing on a pool of threads, see AsyncMiddle.
+ * A call of takeOrderToPick or takeWaveToPick holds a thread of the
+ *  pool while it waits for an order.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public class AsyncOrder implements AsyncOrderProcessing
+{
+  private final OrderProcessing theOrder;
+  private final Executor        theExecutor;
+
+  /**
+   * @param order    Order processing system to make the calls on
+   * @param executor Runs the calls
+   */
+  public AsyncOrder( OrderProcessing order, Executor executor )
+  {
+    theOrder    = order;
+    theExecutor = executor;
+  }
+
+  public CompletableFuture<Void> newOrder( Basket bought )
+  {
+    return AsyncMiddle.call( theExecutor, () -> {
+      theOrder.newOrder( bought ); return null;
+    } );
+  }
+
+  public CompletableFuture<Integer> uniqueNumber()
+  {
+    return AsyncMiddle.call( theExecutor, () -> theOrder.uniqueNumber() );
+  }
+
+  public CompletableFuture<OrderNumberLease> leaseNumbers( int count )
+  {
+    return AsyncMiddle.call( theExecutor, () -> theOrder.leaseNumbers( count ) );
+  }
+
+  public CompletableFuture<Basket> getOrderToPick()
+  {
+    return AsyncMiddle.call( theExecutor, () -> theOrder.getOrderToPick() );
+  }
+
+  public CompletableFuture<Basket> takeOrderToPick( Duration timeout )
+  {
+    return AsyncMiddle.call( theExecutor, () -> theOrder.takeOrderToPick( timeout ) );
+  }
+
+  public CompletableFuture<PickWave> takeWaveToPick( int maxOrders,
+                                                     Duration timeout )
+  {
+    return AsyncMiddle.call( theExecutor,
+                             () -> theOrder.takeWaveToPick( maxOrders, timeout ) );
+  }
+
+  public CompletableFuture<Boolean> informOrderPicked( int orderNum )
+  {
+    return AsyncMiddle.call( theExecutor, () -> theOrder.informOrderPicked( orderNum ) );
+  }
+
+  public CompletableFuture<Integer> informOrdersPicked( List<Integer> orderNums )
+  {
+    return AsyncMiddle.call( theExecutor, () -> theOrder.informOrdersPicked( orderNums ) );
+  }
+
+  public CompletableFuture<Boolean> informOrderCollected( int orderNum )
+  {
+    return AsyncMiddle.call( theExecutor, () -> theOrder.informOrderCollected( orderNum ) );
+  }
+
+  public CompletableFuture<Map<String,List<Integer>>> getOrderState()
+  {
+    return AsyncMiddle.call( theExecutor, () -> theOrder.getOrderState() );
+  }
+
+  public CompletableFuture<OrderChanges> getOrderChanges( long since )
+  {
+    return AsyncMiddle.call( theExecutor, () -> theOrder.getOrderChanges( since ) );
+  }
+
+  public CompletableFuture<List<QueueWait>> getQueueWaits()
+  {
+    return AsyncMiddle.call( theExecutor, () -> theOrder.getQueueWaits() );
+  }
+
+  public CompletableFuture<Void> addOrderListener( OrderListener l )
+  {
+    return AsyncMiddle.call( theExecutor, () -> {
+      theOrder.addOrderListener( l ); return null;
+    } );
+  }
+
+  public CompletableFuture<Void> removeOrderListener( OrderListener l )
+  {
+    return AsyncMiddle.call( theExecutor, () -> {
+      theOrder.removeOrderListener( l ); return null;
+    } );
+  }
+}
@@ -0,0 +1,52 @@
+package middle;
+
+import catalogue.Basket;
+import catalogue.PickWave;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+  * Defines the interface for accessing the order processing system,
+  *  without waiting for the answer. Each method is as the method of
+  *  OrderProcessing of the same name, but returns straight away.
+  *  The future returned is completed with the answer, or with the
+  *  OrderException thrown.
+  * @author  Mike Smith University of Brighton
+  * @version 1.0
+  */
+
+public interface AsyncOrderProcessing
+{
+                                                   // Used by
+  public CompletableFuture<Void> newOrder(Basket bought); // Cashier
+
+  public CompletableFuture<Integer> uniqueNumber(); // Cashier
+
+  public CompletableFuture<OrderNumberLease> leaseNumbers(int count); // Cashier
+
+  public CompletableFuture<Basket> getOrderToPick(); // Picker
+
+  public CompletableFuture<Basket> takeOrderToPick(Duration timeout); // Picker
+
+  public CompletableFuture<PickWave> takeWaveToPick(int maxOrders, // Picker
+                                                    Duration timeout);
+
+  public CompletableFuture<Boolean> informOrderPicked(int orderNum); // Picker
+
+  public CompletableFuture<Integer> informOrdersPicked(List<Integer> orderNums); // Picker
+
+  public CompletableFuture<Boolean> informOrderCollected(int orderNum); // Collection
+
+  public CompletableFuture<Map<String,List<Integer>>> getOrderState(); // Display
+
+  public CompletableFuture<OrderChanges> getOrderChanges(long since); // Display
+
+  public CompletableFuture<List<QueueWait>> getQueueWaits(); // Manager
+
+  public CompletableFuture<Void> addOrderListener(OrderListener l); // Display
+
+  public CompletableFuture<Void> removeOrderListener(OrderListener l); // Display
+}
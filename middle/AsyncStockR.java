@@ -0,0 +1,78 @@
+package middle;
+
+import catalogue.Product;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import javax.swing.*;
+
+/**
+ * Read access to the stock list without waiting, by making the
+ *  calls of a StockReader on a pool of threads, see AsyncMiddle.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public class AsyncStockR implements AsyncStockReader
+{
+  private final StockReader theStock;
+  protected final Executor  theExecutor;
+
+  /**
+   * @param stock    Stock list to make the calls on
+   * @param executor Runs the calls
+   */
+  public AsyncStockR( StockReader stock, Executor executor )
+  {
+    theStock    = stock;
+    theExecutor = executor;
+  }
+
+  public CompletableFuture<Boolean> exists( String pNum )
+  {
+    return AsyncMiddle.call( theExecutor, () -> theStock.exists( pNum ) );
+  }
+
+  public CompletableFuture<Boolean> existsName( String pNum )
+  {
+    return AsyncMiddle.call( theExecutor, () -> theStock.existsName( pNum ) );
+  }
+
+  public CompletableFuture<Product> getDetails( String pNum )
+  {
+    return AsyncMiddle.call( theExecutor, () -> theStock.getDetails( pNum ) );
+  }
+
+  public CompletableFuture<Optional<Product>> findDetails( String pNum )
+  {
+    return AsyncMiddle.call( theExecutor, () -> theStock.findDetails( pNum ) );
+  }
+
+  public CompletableFuture<Map<String,Product>> getDetails( Collection<String> pNums )
+  {
+    return AsyncMiddle.call( theExecutor, () -> theStock.getDetails( pNums ) );
+  }
+
+  public CompletableFuture<ArrayList<Product>> getDetailsName( String desc )
+  {
+    return AsyncMiddle.call( theExecutor, () -> theStock.getDetailsName( desc ) );
+  }
+
+  public CompletableFuture<ImageIcon> getImage( String pNum )
+  {
+    return AsyncMiddle.call( theExecutor, () -> theStock.getImage( pNum ) );
+  }
+
+  public CompletableFuture<ProductImage> getImageData( String pNum,
+                                                       boolean thumbnail,
+                                                       String etag )
+  {
+    return AsyncMiddle.call( theExecutor,
+                             () -> theStock.getImageData( pNum, thumbnail, etag ) );
+  }
+}
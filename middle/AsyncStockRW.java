@@ -0,0 +1,56 @@
+package middle;
+
+import catalogue.Product;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Read/write access to the stock list without waiting, by making the
+ *  calls of a StockReadWriter on a pool of threads, see AsyncMiddle.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public class AsyncStockRW extends AsyncStockR
+                          implements AsyncStockReadWriter
+{
+  private final StockReadWriter theStock;
+
+  /**
+   * @param stock    Stock list to make the calls on
+   * @param executor Runs the calls
+   */
+  public AsyncStockRW( StockReadWriter stock, Executor executor )
+  {
+    super( stock, executor );
+    theStock = stock;
+  }
+
+  public CompletableFuture<Boolean> buyStock( String pNum, int amount )
+  {
+    return AsyncMiddle.call( theExecutor, () -> theStock.buyStock( pNum, amount ) );
+  }
+
+  public CompletableFuture<Map<String,Boolean>> buyStock( Map<String,Integer> lines,
+                                                          boolean allOrNothing )
+  {
+    return AsyncMiddle.call( theExecutor,
+                             () -> theStock.buyStock( lines, allOrNothing ) );
+  }
+
+  public CompletableFuture<Void> addStock( String pNum, int amount )
+  {
+    return AsyncMiddle.call( theExecutor, () -> {
+      theStock.addStock( pNum, amount ); return null;
+    } );
+  }
+
+  public CompletableFuture<Void> modifyStock( Product detail )
+  {
+    return AsyncMiddle.call( theExecutor, () -> {
+      theStock.modifyStock( detail ); return null;
+    } );
+  }
+}
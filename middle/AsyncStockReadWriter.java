@@ -0,0 +1,50 @@
+package middle;
+
+import catalogue.Product;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+  * Interface for read/write access to the stock list, without waiting
+  *  for the answer. Each method is as the method of StockReadWriter of
+  *  the same name, but returns straight away. The future returned is
+  *  completed with the answer, or with the StockException thrown.
+  * @author  Mike Smith University of Brighton
+  * @version 1.0
+  */
+
+public interface AsyncStockReadWriter extends AsyncStockReader
+{
+ /**
+   * Customer buys stock
+   * @param pNum Product number
+   * @param amount Quantity of product
+   * @return true if there was enough stock
+   */
+  CompletableFuture<Boolean> buyStock(String pNum, int amount);
+
+ /**
+   * Customer buys several products at once, in a single transaction
+   * @param lines Product number to quantity bought
+   * @param allOrNothing true, nothing is bought unless every line can be
+   * @return Product number to true if there was enough stock for the line
+   */
+  CompletableFuture<Map<String,Boolean>> buyStock(Map<String,Integer> lines,
+                                                  boolean allOrNothing);
+
+  /**
+   * Adds stock (Restocks) to store.
+   * @param pNum Product number
+   * @param amount Quantity of product
+   * @return Completed when the stock has been added
+   */
+  CompletableFuture<Void> addStock(String pNum, int amount);
+
+  /**
+   * Modifies Stock details for a given product number.
+   * @param detail Replace with this version of product
+   * @return Completed when the product has been changed
+   */
+  CompletableFuture<Void> modifyStock(Product detail);
+}
@@ -0,0 +1,85 @@
+package middle;
+
+import catalogue.Product;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import javax.swing.*;
+
+/**
+  * Interface for read access to the stock list, without waiting
+  *  for the answer. Each method is as the method of StockReader of
+  *  the same name, but returns straight away. The future returned is
+  *  completed with the answer, or with the StockException thrown.
+  * @author  Mike Smith University of Brighton
+  * @version 1.0
+  */
+
+public interface AsyncStockReader
+{
+  /**
+   * Checks if the product exits in the stock list
+   * @param pNum Product number
+   * @return true if exists otherwise false
+   */
+  CompletableFuture<Boolean> exists(String pNum);
+
+  /**
+   * Checks if the product exits in the stock list
+   * @param pNum Product name
+   * @return true if exists otherwise false
+   */
+  CompletableFuture<Boolean> existsName(String pNum);
+
+  /**
+   * Returns details about the product in the stock list
+   * @param pNum Product number
+   * @return StockNumber, Description, Price, Quantity
+   */
+  CompletableFuture<Product> getDetails(String pNum);
+
+  /**
+   * Returns details about the product if it is in the stock list
+   * @param pNum Product number
+   * @return StockNumber, Description, Price, Quantity
+   *         or empty if no such product
+   */
+  CompletableFuture<Optional<Product>> findDetails(String pNum);
+
+  /**
+   * Returns details about several products in the stock list at once
+   * @param pNums Product numbers
+   * @return Map from product number to details,
+   *         product numbers not in the stock list are left out
+   */
+  CompletableFuture<Map<String,Product>> getDetails(Collection<String> pNums);
+
+  /**
+   * Returns details about the products whose description matches
+   * @param desc Description
+   * @return ArrayList with products that match search criteria
+   */
+  CompletableFuture<ArrayList<Product>> getDetailsName(String desc);
+
+  /**
+   * Returns an image of the product in the stock list
+   * @param pNum Product number
+   * @return Image
+   */
+  CompletableFuture<ImageIcon> getImage(String pNum);
+
+  /**
+   * Returns the image of the product as JPEG bytes,
+   *  see StockReader.getImageData
+   * @param pNum      Product number
+   * @param thumbnail true for a small version of the image
+   * @param etag      ETag of the version the caller has, or null
+   * @return The image, or just its ETag if not changed
+   */
+  CompletableFuture<ProductImage> getImageData(String pNum, boolean thumbnail,
+                                               String etag);
+}
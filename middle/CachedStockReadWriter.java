@@ -0,0 +1,91 @@
+package middle;
+
+import catalogue.Product;
+
+import java.util.Map;
+
+/**
+ * Read through cache of product details in front of any StockReadWriter.
+ * Reads are answered as for CachedStockReader, changes are passed
+ * straight on to the stock list and the product removed from the cache.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public class CachedStockReadWriter extends CachedStockReader
+                                   implements StockReadWriter
+{
+  private final StockReadWriter theStock;     // Real stock list
+
+  /**
+   * Cache in front of stock using the default size and TTL
+   * @param stock The stock list to be cached
+   */
+  public CachedStockReadWriter( StockReadWriter stock )
+  {
+    super( stock );
+    theStock = stock;
+  }
+
+  /**
+   * Cache in front of stock
+   * @param stock   The stock list to be cached
+   * @param maxSize Maximum number of products held
+   * @param ttl     ms an entry is trusted before re-read
+   */
+  public CachedStockReadWriter( StockReadWriter stock, int maxSize, long ttl )
+  {
+    super( stock, maxSize, ttl );
+    theStock = stock;
+  }
+
+  public boolean buyStock( String pNum, int amount )
+         throws StockException
+  {
+    try
+    {
+      return theStock.buyStock( pNum, amount );
+    } finally
+    {
+      stockChanged( pNum );
+    }
+  }
+
+  public Map<String,Boolean> buyStock( Map<String,Integer> lines,
+                                       boolean allOrNothing )
+         throws StockException
+  {
+    try
+    {
+      return theStock.buyStock( lines, allOrNothing );
+    } finally
+    {
+      for ( String pNum : lines.keySet() )
+        stockChanged( pNum );
+    }
+  }
+
+  public void addStock( String pNum, int amount )
+         throws StockException
+  {
+    try
+    {
+      theStock.addStock( pNum, amount );
+    } finally
+    {
+      stockChanged( pNum );
+    }
+  }
+
+  public void modifyStock( Product detail )
+         throws StockException
+  {
+    try
+    {
+      theStock.modifyStock( detail );
+    } finally
+    {
+      stockChanged( detail.getProductNum() );
+    }
+  }
+}
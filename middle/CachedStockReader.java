@@ -0,0 +1,380 @@
+package middle;
+
+import catalogue.Product;
+import debug.DEBUG;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read through cache of product details in front of any StockReader.
+ * Details of recently used products are kept in memory, so checking
+ * the same product again does not go to the database.
+ * <P>
+ * At most a fixed number of products are held, the least recently used
+ * being evicted first. An entry is only trusted for a short time (TTL),
+ * as the stock level may be changed by other users of the database.
+ * An entry is removed straight away when told the product has been
+ * changed (see StockChangeListener). Details read from the stock list
+ * are not added if that product was changed while they were being
+ * read, so a change to one product does not stop others being cached.
+ * <P>
+ * The defaults are set by the system properties
+ * <PRE>
+ * catshop.cache.size  Maximum number of products held  (default 1000)
+ * catshop.cache.ttl   Seconds an entry is trusted      (default 10)
+ * </PRE>
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public class CachedStockReader implements StockReader, StockChangeListener
+{
+  /**
+   * A cached product, null if the product is not in the stock list
+   */
+  private static class Entry
+  {
+    private final Product product;
+    private final long    fetched;     // When read from stock list
+
+    Entry( Product aProduct, long when )
+    {
+      product = aProduct;
+      fetched = when;
+    }
+  }
+
+  private final StockReader theStock;     // Real stock list
+  private final int         theMaxSize;   // Max entries held
+  private final long        theTTL;       // ms an entry is trusted
+
+  private final LinkedHashMap<String,Entry> theCache;  // LRU order
+  private long theClock   = 0;             // Ticks on every change
+  private long theCleared = 0;             // Tick of the last clear
+  // Products changed, in the order changed, with the tick of the change.
+  //  Only held while a read started before the change is in progress
+  private final LinkedHashMap<String,Long> theChanged = new LinkedHashMap<>();
+  // Tick each read in progress started at, to how many started then
+  private final TreeMap<Long,Integer> theReads = new TreeMap<>();
+
+  private final AtomicLong theHits          = new AtomicLong(0);
+  private final AtomicLong theMisses        = new AtomicLong(0);
+  private final AtomicLong theEvictions     = new AtomicLong(0);
+  private final AtomicLong theInvalidations = new AtomicLong(0);
+
+  /**
+   * Cache in front of stock using the default size and TTL
+   * @param stock The stock list to be cached
+   */
+  public CachedStockReader( StockReader stock )
+  {
+    this( stock,
+          Integer.getInteger( "catshop.cache.size", 1000 ),
+          Integer.getInteger( "catshop.cache.ttl", 10 ) * 1000L );
+  }
+
+  /**
+   * Cache in front of stock
+   * @param stock   The stock list to be cached
+   * @param maxSize Maximum number of products held
+   * @param ttl     ms an entry is trusted before re-read
+   */
+  public CachedStockReader( StockReader stock, int maxSize, long ttl )
+  {
+    theStock   = stock;
+    theMaxSize = Math.max( 1, maxSize );
+    theTTL     = ttl;
+    theCache   = new LinkedHashMap<String,Entry>( 16, 0.75f, true )
+    {
+      private static final long serialVersionUID = 1;
+      @Override
+      protected boolean removeEldestEntry( Map.Entry<String,Entry> eldest )
+      {
+        if ( size() <= theMaxSize ) return false;
+        theEvictions.incrementAndGet();
+        return true;
+      }
+    };
+  }
+
+  /**
+   * Checks if the product exits in the stock list
+   * @param pNum Product number
+   * @return true if exists otherwise false
+   */
+  public boolean exists( String pNum ) throws StockException
+  {
+    return lookup( pNum ) != null;
+  }
+
+  public boolean existsName( String desc ) throws StockException
+  {
+    return theStock.existsName( desc );
+  }
+
+  /**
+   * Returns details about the product in the stock list
+   * @param pNum Product number
+   * @return A copy of the details held, so may be changed by the caller
+   */
+  public Product getDetails( String pNum ) throws StockException
+  {
+    Product pr = lookup( pNum );
+    return pr == null ? new Product( "0", "", 0.00, 0 ) : copy( pr );
+  }
+
+  /**
+   * Returns details about the product if it is in the stock list
+   * @param pNum Product number
+   * @return A copy of the details held, empty if no such product
+   */
+  public Optional<Product> findDetails( String pNum ) throws StockException
+  {
+    Product pr = lookup( pNum );
+    return pr == null ? Optional.empty() : Optional.of( copy( pr ) );
+  }
+
+  /**
+   * Returns details about several products, only those
+   *  not held in the cache are read from the stock list
+   * @param pNums Product numbers
+   * @return Map from product number to a copy of the details
+   */
+  public Map<String,Product> getDetails( Collection<String> pNums )
+         throws StockException
+  {
+    Map<String,Product> res = new HashMap<>();
+    ArrayList<String> missing = new ArrayList<>();
+    long now = System.currentTimeMillis();
+    long start;
+    synchronized ( theCache )
+    {
+      for ( String pNum : pNums )
+      {
+        Entry e = fresh( pNum, now );
+        if ( e == null )
+        {
+          missing.add( pNum );
+        } else if ( e.product != null ) {
+          res.put( pNum, copy( e.product ) );
+        }
+      }
+      if ( missing.isEmpty() ) return res;
+      start = reading();
+    }
+    try
+    {
+      Map<String,Product> read = theStock.getDetails( missing );
+      for ( String pNum : missing )
+      {
+        Product pr = read.get( pNum );
+        store( pNum, pr, now, start );
+        if ( pr != null ) res.put( pNum, copy( pr ) );
+      }
+    } finally
+    {
+      read( start );
+    }
+    return res;
+  }
+
+  /**
+   * Products matching the description are always read from
+   *  the stock list, but are then added to the cache
+   */
+  public ArrayList<Product> getDetailsName( String desc )
+         throws StockException
+  {
+    long now = System.currentTimeMillis();
+    long start;
+    synchronized ( theCache ) { start = reading(); }
+    try
+    {
+      ArrayList<Product> res = theStock.getDetailsName( desc );
+      for ( Product pr : res )
+        store( pr.getProductNum(), copy( pr ), now, start );
+      return res;
+    } finally
+    {
+      read( start );
+    }
+  }
+
+  public ImageIcon getImage( String pNum ) throws StockException
+  {
+    return theStock.getImage( pNum );
+  }
+
+  public ProductImage getImageData( String pNum, boolean thumbnail,
+                                    String etag ) throws StockException
+  {
+    return theStock.getImageData( pNum, thumbnail, etag );
+  }
+
+  /**
+   * Remove the product from the cache as it has been changed
+   * @param pNum Product number
+   */
+  public void stockChanged( String pNum )
+  {
+    synchronized ( theCache )
+    {
+      theClock++;
+      if ( ! theReads.isEmpty() )               // Being read, maybe
+      {
+        theChanged.remove( pNum );              //  Latest change last
+        theChanged.put( pNum, theClock );
+      }
+      if ( theCache.remove( pNum ) != null )
+        theInvalidations.incrementAndGet();
+    }
+  }
+
+  /**
+   * Remove every product from the cache
+   */
+  public void clear()
+  {
+    synchronized ( theCache )
+    {
+      theCleared = ++theClock;
+      theInvalidations.addAndGet( theCache.size() );
+      theCache.clear();
+    }
+  }
+
+  public long getHitCount()          { return theHits.get(); }
+  public long getMissCount()         { return theMisses.get(); }
+  public long getEvictionCount()     { return theEvictions.get(); }
+  public long getInvalidationCount() { return theInvalidations.get(); }
+
+  /**
+   * Fraction of look ups answered from the cache
+   * @return hits / (hits + misses), 0 if no look ups yet
+   */
+  public double getHitRatio()
+  {
+    long hits  = theHits.get();
+    long total = hits + theMisses.get();
+    return total == 0 ? 0.0 : (double) hits / total;
+  }
+
+  /**
+   * Return a one line summary of the cache metrics
+   * @return Description of the state of the cache
+   */
+  public String getStats()
+  {
+    int size;
+    synchronized ( theCache ) { size = theCache.size(); }
+    return String.format(
+      "Cache size %d/%d hits %d misses %d ratio %.3f " +
+      "evictions %d invalidations %d",
+      size, theMaxSize, getHitCount(), getMissCount(), getHitRatio(),
+      getEvictionCount(), getInvalidationCount() );
+  }
+
+  /**
+   * Return details of the product, reading them from the stock list
+   *  if not held or out of date.
+   * @param pNum Product number
+   * @return The details held (not to be changed), null if no such product
+   */
+  private Product lookup( String pNum ) throws StockException
+  {
+    long now = System.currentTimeMillis();
+    long start;
+    synchronized ( theCache )
+    {
+      Entry e = fresh( pNum, now );
+      if ( e != null ) return e.product;
+      start = reading();
+    }
+    Product pr;
+    try
+    {
+      pr = theStock.findDetails( pNum ).orElse( null );
+      store( pNum, pr, now, start );
+    } finally
+    {
+      read( start );
+    }
+    DEBUG.trace( "CachedStockReader: %s", getStats() );
+    return pr;
+  }
+
+  /**
+   * Return the entry for the product if it is still to be trusted,
+   *  counting the look up as a hit or a miss.
+   * Must be called holding the lock on theCache
+   */
+  private Entry fresh( String pNum, long now )
+  {
+    Entry e = theCache.get( pNum );
+    if ( e != null && now - e.fetched <= theTTL )
+    {
+      theHits.incrementAndGet();
+      return e;
+    }
+    theMisses.incrementAndGet();
+    return null;
+  }
+
+  /**
+   * Start reading from the stock list.
+   * Must be called holding the lock on theCache
+   * @return The tick the read started at, to pass to store and read
+   */
+  private long reading()
+  {
+    theReads.merge( theClock, 1, Integer::sum );
+    return theClock;
+  }
+
+  /**
+   * A read from the stock list has finished. Forget the changes
+   *  made before every read still in progress started
+   * @param start The tick the read started at
+   */
+  private void read( long start )
+  {
+    synchronized ( theCache )
+    {
+      theReads.merge( start, -1, ( n, m ) -> n + m == 0 ? null : n + m );
+      long oldest = theReads.isEmpty() ? theClock : theReads.firstKey();
+      Iterator<Long> changed = theChanged.values().iterator();
+      while ( changed.hasNext() && changed.next() <= oldest )
+        changed.remove();
+    }
+  }
+
+  /**
+   * Add details read from the stock list to the cache, unless the
+   *  product was changed (or the cache cleared) after the read
+   *  started, as they may then be out of date.
+   */
+  private void store( String pNum, Product pr, long when, long start )
+  {
+    synchronized ( theCache )
+    {
+      Long changed = theChanged.get( pNum );
+      if ( theCleared <= start && ( changed == null || changed <= start ) )
+        theCache.put( pNum, new Entry( pr, when ) );
+    }
+  }
+
+  private static Product copy( Product pr )
+  {
+    return new Product( pr.getProductNum(), pr.getDescription(),
+                        pr.getPrice(), pr.getQuantity() );
+  }
+}
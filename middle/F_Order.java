@@ -1,16 +1,17 @@
 package middle;
 
 import catalogue.Basket;
+import catalogue.PickWave;
 import debug.DEBUG;
+import remote.R_OrderListener;
 import remote.RemoteOrder_I;
 
-import java.rmi.Naming;
+import java.rmi.ConnectException;
+import java.rmi.RemoteException;
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
-
-// There can only be 1 ResultSet opened per statement
-// so no simultaneous use of the statement object
-// hence the synchronized methods
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Facade for the order processing handling which is implemented on the middle tier.
@@ -21,30 +22,42 @@ import java.util.Map;
 
 public class F_Order implements OrderProcessing
 {
-  private RemoteOrder_I aR_Order    = null;
-  private String        theOrderURL = null;
+  private final RemoteLink<RemoteOrder_I> theLink;
+
+  // Call back objects for the listeners added
+  private final Map<OrderListener,R_OrderListener> theListeners =
+                new ConcurrentHashMap<>();
 
   public F_Order(String url)
   {
-    theOrderURL = url;
+    theLink = new RemoteLink<>( url, RemoteOrder_I.class, this::listenAgain );
   }
-  
-  private void connect() throws OrderException
+
+  /**
+   * The link to the middle tier, shared by every thread using
+   *  this facade, see RemoteLink
+   * @return The link, with its state and metrics
+   */
+  public RemoteLink<RemoteOrder_I> getLink()
   {
-    try                                            // Setup
-    {                                              //  connection
-      aR_Order =                                   //  Connect to
-       (RemoteOrder_I) Naming.lookup(theOrderURL); // Stub returned
-    }
-    catch ( Exception e )                          // Failure to
-    {                                              //  attach to the
-      aR_Order = null;
-      throw new OrderException( "Com: " + 
-                               e.getMessage()  );  //  object
-      
-    }
+    return theLink;
   }
 
+  /**
+   * Add the listeners to the stub just looked up,
+   *  as the middle tier may have been restarted
+   */
+  private void listenAgain( RemoteOrder_I stub ) throws RemoteException
+  {
+    try
+    {
+      for ( R_OrderListener callBack : theListeners.values() )
+        stub.addOrderListener( callBack );
+    } catch ( OrderException e )
+    {
+      throw new RemoteException( e.getMessage() );
+    }
+  }
 
   public void newOrder( Basket bought )
          throws OrderException
@@ -52,12 +65,13 @@ public class F_Order implements OrderProcessing
     DEBUG.trace("F_Order:newOrder()" );
     try
     {
-      if ( aR_Order == null ) connect();
-      aR_Order.newOrder( bought );
-    } catch ( Exception e )
+      theLink.run( order -> order.newOrder( bought ) );
+    } catch ( ConnectException e )             // Not sent
     {
-      aR_Order = null;
       throw new OrderException( "Net: " + e.getMessage() );
+    } catch ( RemoteException e )              // Maybe added
+    {
+      throw new OrderException( "Net: " + e.getMessage(), true );
     }
   }
 
@@ -67,11 +81,29 @@ public class F_Order implements OrderProcessing
     DEBUG.trace("F_Order:uniqueNumber()" );
     try
     {
-      if ( aR_Order == null ) connect();
-      return aR_Order.uniqueNumber();
-    } catch ( Exception e )
+      return theLink.call( order -> order.uniqueNumber() );
+    } catch ( RemoteException e )
+    {
+      throw new OrderException( "Net: " + e.getMessage() );
+    }
+  }
+
+  /**
+   * Hands out a block of order numbers, so a till need not
+   *  ask for each order number across the network.
+   * @param count How many numbers
+   * @return The lease of the numbers
+   */
+
+  public OrderNumberLease leaseNumbers( int count )
+         throws OrderException
+  {
+    DEBUG.trace("F_Order:leaseNumbers()" );
+    try
+    {
+      return theLink.call( order -> order.leaseNumbers( count ) );
+    } catch ( RemoteException e )
     {
-      aR_Order = null;
       throw new OrderException( "Net: " + e.getMessage() );
     }
   }
@@ -82,17 +114,76 @@ public class F_Order implements OrderProcessing
    * @return An order to pick
    */
 
-  public synchronized Basket getOrderToPick()
+  public Basket getOrderToPick()
          throws OrderException
   {
     DEBUG.trace("F_Order:getOrderTioPick()" );
     try
     {
-      if ( aR_Order == null ) connect();
-      return aR_Order.getOrderToPick();
-    } catch ( Exception e )
+      return theLink.call( order -> order.getOrderToPick() );
+    } catch ( RemoteException e )
+    {
+      throw new OrderException( "Net: " + e.getMessage() );
+    }
+  }
+
+  /**
+   * Returns an order to pick from the warehouse, the middle tier
+   *  waiting for one to be added if there is none, so few calls are
+   *  made while there is nothing to pick.
+   * The middle tier only waits a short time in each call, so an order
+   *  is not handed to a picker lost while waiting; the call is made
+   *  again until the timeout has passed.
+   * Other threads can use the facade while waiting, see RemoteLink.
+   * @param timeout Longest time to wait
+   * @return An order to pick, null if none added in time
+   */
+
+  public Basket takeOrderToPick( Duration timeout )
+         throws OrderException
+  {
+    DEBUG.trace("F_Order:takeOrderToPick()" );
+    long end = System.nanoTime() + WaitTime.nanos( timeout );
+    try
+    {
+      while ( true )
+      {
+        Duration left   = Duration.ofNanos( Math.max( 0, end - System.nanoTime() ) );
+        Basket   basket = theLink.call( order -> order.takeOrderToPick( left ) );
+        if ( basket != null || left.isZero() ) return basket;
+      }
+    } catch ( RemoteException e )
+    {
+      throw new OrderException( "Net: " + e.getMessage() );
+    }
+  }
+
+  /**
+   * Returns a wave of orders to pick together from the warehouse,
+   *  the middle tier waiting for an order to be added if there is none.
+   * The middle tier only waits a short time in each call, as for
+   *  takeOrderToPick.
+   * Other threads can use the facade while waiting, see RemoteLink.
+   * @param maxOrders Most orders in the wave
+   * @param timeout   Longest time to wait for an order
+   * @return A wave of orders to pick, null if none added in time
+   */
+
+  public PickWave takeWaveToPick( int maxOrders, Duration timeout )
+         throws OrderException
+  {
+    DEBUG.trace("F_Order:takeWaveToPick()" );
+    long end = System.nanoTime() + WaitTime.nanos( timeout );
+    try
+    {
+      while ( true )
+      {
+        Duration left = Duration.ofNanos( Math.max( 0, end - System.nanoTime() ) );
+        PickWave wave = theLink.call( order -> order.takeWaveToPick( maxOrders, left ) );
+        if ( wave != null || left.isZero() ) return wave;
+      }
+    } catch ( RemoteException e )
     {
-      aR_Order = null;
       throw new OrderException( "Net: " + e.getMessage() );
     }
   }
@@ -103,17 +194,33 @@ public class F_Order implements OrderProcessing
    * the shop floor.
    */
 
-  public synchronized boolean informOrderPicked( int orderNum )
+  public boolean informOrderPicked( int orderNum )
          throws OrderException
   {
     DEBUG.trace("F_Order:informOrderPicked()" );
     try
     {
-      if ( aR_Order == null ) connect();
-      return aR_Order.informOrderPicked(orderNum);
-    } catch ( Exception e )
+      return theLink.call( order -> order.informOrderPicked(orderNum) );
+    } catch ( RemoteException e )
+    {
+      throw new OrderException( "Net: " + e.getMessage() );
+    }
+  }
+
+  /**
+   * Informs the order processing system that the orders of a wave
+   * have been picked, in one call.
+   */
+
+  public int informOrdersPicked( List<Integer> orderNums )
+         throws OrderException
+  {
+    DEBUG.trace("F_Order:informOrdersPicked()" );
+    try
+    {
+      return theLink.call( order -> order.informOrdersPicked( orderNums ) );
+    } catch ( RemoteException e )
     {
-      aR_Order = null;
       throw new OrderException( "Net: " + e.getMessage() );
     }
   }
@@ -123,17 +230,15 @@ public class F_Order implements OrderProcessing
    * collected by the customer
    */
 
-  public synchronized boolean informOrderCollected( int orderNum )
+  public boolean informOrderCollected( int orderNum )
          throws OrderException
   {
     DEBUG.trace("F_Order:informOrderCollected()" );
     try
     {
-      if ( aR_Order == null ) connect();
-      return aR_Order.informOrderCollected(orderNum);
-    } catch ( Exception e )
+      return theLink.call( order -> order.informOrderCollected(orderNum) );
+    } catch ( RemoteException e )
     {
-      aR_Order = null;
       throw new OrderException( "Net: " + e.getMessage() );
     }
   }
@@ -142,18 +247,97 @@ public class F_Order implements OrderProcessing
    * Returns information about all orders in the order processing system
    */
 
-  public synchronized Map<String, List<Integer> > getOrderState()
+  public Map<String, List<Integer> > getOrderState()
          throws OrderException
   {
     DEBUG.trace("F_Order:getOrderState()" );
     try
     {
-      if ( aR_Order == null ) connect();
-      return aR_Order.getOrderState();
-    } catch ( Exception e )
+      return theLink.call( order -> order.getOrderState() );
+    } catch ( RemoteException e )
+    {
+      throw new OrderException( "Net: " + e.getMessage() );
+    }
+  }
+
+  /**
+   * Returns how long the orders of each priority have waited
+   *  to be picked
+   */
+
+  public List<QueueWait> getQueueWaits()
+         throws OrderException
+  {
+    DEBUG.trace("F_Order:getQueueWaits()" );
+    try
+    {
+      return theLink.call( order -> order.getQueueWaits() );
+    } catch ( RemoteException e )
     {
-      aR_Order = null;
       throw new OrderException( "Net: " + e.getMessage() );
     }
   }
+
+  /**
+   * Returns the changes to the orders since a version,
+   *  so only the changes are sent over the network
+   */
+
+  public OrderChanges getOrderChanges( long since )
+         throws OrderException
+  {
+    DEBUG.trace("F_Order:getOrderChanges()" );
+    try
+    {
+      return theLink.call( order -> order.getOrderChanges( since ) );
+    } catch ( RemoteException e )
+    {
+      throw new OrderException( "Net: " + e.getMessage() );
+    }
+  }
+
+  /**
+   * Tell the listener whenever the orders change, by a call back
+   *  from the middle tier to an object in this client
+   */
+
+  public void addOrderListener( OrderListener l )
+         throws OrderException
+  {
+    DEBUG.trace("F_Order:addOrderListener()" );
+    try
+    {
+      R_OrderListener callBack = theListeners.get( l );
+      if ( callBack == null )
+      {
+        R_OrderListener made = new R_OrderListener( l );
+        callBack = theListeners.putIfAbsent( l, made );
+        if ( callBack == null ) callBack = made;   // Not added by another
+        else made.close();
+      }
+      R_OrderListener added = callBack;
+      theLink.run( order -> order.addOrderListener( added ) );
+    } catch ( RemoteException e )
+    {
+      throw new OrderException( "Net: " + e.getMessage() );
+    }
+  }
+
+  public void removeOrderListener( OrderListener l )
+         throws OrderException
+  {
+    DEBUG.trace("F_Order:removeOrderListener()" );
+    R_OrderListener callBack = theListeners.remove( l );
+    if ( callBack == null ) return;
+    try
+    {
+      theLink.run( order -> order.removeOrderListener( callBack ) );
+    } catch ( RemoteException e )
+    {
+      throw new OrderException( "Net: " + e.getMessage() );
+    } finally
+    {
+      callBack.close();
+    }
+  }
 }
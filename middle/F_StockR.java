@@ -11,12 +11,16 @@ package middle;
 
 import catalogue.Product;
 import debug.DEBUG;
+import remote.R_StockListener;
 import remote.RemoteStockR_I;
 
 import javax.swing.*;
-import java.rmi.Naming;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Setup connection to the middle tier
@@ -24,62 +28,84 @@ import java.util.ArrayList;
 
 public class F_StockR implements StockReader
 {
-  private RemoteStockR_I aR_StockR   = null;
-  private String         theStockURL = null;
+  private final RemoteLink<? extends RemoteStockR_I> theLink;
+
+  // Images held by this client, shared by all its facades
+  private static final ImageCache theImages = new ImageCache();
+
+  // Call back objects for the listeners added
+  private final Map<StockChangeListener,R_StockListener> theListeners =
+                new ConcurrentHashMap<>();
 
   public F_StockR( String url )
+  {
+    this( url, RemoteStockR_I.class );
+  }
+
+  /**
+   * Facade for a remote object that is at least a RemoteStockR_I
+   * @param url  URL of the remote object
+   * @param type Interface of the remote object
+   */
+  protected <T extends RemoteStockR_I> F_StockR( String url, Class<T> type )
   {
     DEBUG.trace("F_StockR: %s", url );
-    theStockURL = url;
+    theLink = new RemoteLink<>( url, type, this::listenAgain );
   }
-  
-  private void connect() throws StockException
+
+  /**
+   * The link to the middle tier, shared by every thread using
+   *  this facade, see RemoteLink
+   * @return The link, with its state and metrics
+   */
+  public RemoteLink<? extends RemoteStockR_I> getLink()
   {
-    try                                             // Setup
-    {                                               //  connection
-      aR_StockR =                                   //  Connect to
-        (RemoteStockR_I) Naming.lookup(theStockURL);// Stub returned
-    }
-    catch ( Exception e )                           // Failure to
-    {                                               //  attach to the
-      aR_StockR = null;
-      throw new StockException( "Com: " + 
-                                e.getMessage()  );  //  object
-      
-    }
+    return theLink;
   }
 
+  /**
+   * Add the listeners to the stub just looked up,
+   *  as the middle tier may have been restarted
+   */
+  private void listenAgain( RemoteStockR_I stub ) throws RemoteException
+  {
+    try
+    {
+      for ( R_StockListener callBack : theListeners.values() )
+        stub.addStockListener( callBack );
+    } catch ( StockException e )
+    {
+      throw new RemoteException( e.getMessage() );
+    }
+  }
+  
   /**
    * Checks if the product exits in the stock list
    * @return true if exists otherwise false
    */
 
-  public synchronized boolean exists( String number )
+  public boolean exists( String number )
          throws StockException
   {
     DEBUG.trace("F_StockR:exists()" );
     try
     {
-      if ( aR_StockR == null ) connect();
-      return aR_StockR.exists( number );
+      return theLink.call( stock -> stock.exists( number ) );
     } catch ( RemoteException e )
     {
-      aR_StockR = null;
       throw new StockException( "Net: " + e.getMessage() );
     }
   }
   
-  public synchronized boolean existsName( String desc )
+  public boolean existsName( String desc )
 	         throws StockException
 	  {
 	    DEBUG.trace("F_StockR:exists()" );
 	    try
 	    {
-	      if ( aR_StockR == null ) connect();
-	      return aR_StockR.existsName( desc );
+	      return theLink.call( stock -> stock.existsName( desc ) );
 	    } catch ( RemoteException e )
 	    {
-	      aR_StockR = null;
 	      throw new StockException( "Net: " + e.getMessage() );
 	    }
 	  }
@@ -89,50 +115,151 @@ public class F_StockR implements StockReader
    * @return StockNumber, Description, Price, Quantity
    */
 
-  public synchronized Product getDetails( String number )
+  public Product getDetails( String number )
          throws StockException
   {
     DEBUG.trace("F_StockR:getDetails()" );
     try
     {
-      if ( aR_StockR == null ) connect();
-      return aR_StockR.getDetails( number );
+      return theLink.call( stock -> stock.getDetails( number ) );
+    } catch ( RemoteException e )
+    {
+      throw new StockException( "Net: " + e.getMessage() );
+    }
+  }
+
+  /**
+   * Returns details about the product if it is in the stock list
+   *  in one call to the middle tier
+   * @return StockNumber, Description, Price, Quantity or empty
+   */
+
+  public Optional<Product> findDetails( String number )
+         throws StockException
+  {
+    DEBUG.trace("F_StockR:findDetails()" );
+    try
+    {
+      return Optional.ofNullable( theLink.call( stock -> stock.findDetails( number ) ) );
+    } catch ( RemoteException e )
+    {
+      throw new StockException( "Net: " + e.getMessage() );
+    }
+  }
+
+  /**
+   * Returns details about several products in the stock list
+   *  in one call to the middle tier
+   * @return Map from product number to details
+   */
+
+  public Map<String,Product> getDetails( Collection<String> numbers )
+         throws StockException
+  {
+    DEBUG.trace("F_StockR:getDetails(%d)", numbers.size() );
+    try
+    {
+      return theLink.call( stock -> stock.getDetails( new ArrayList<>( numbers ) ) );
     } catch ( RemoteException e )
     {
-      aR_StockR = null;
       throw new StockException( "Net: " + e.getMessage() );
     }
   }
   
-  public synchronized ArrayList<Product> getDetailsName( String desc )
+  public ArrayList<Product> getDetailsName( String desc )
 	         throws StockException
 	  {
 	    DEBUG.trace("F_StockR:getDetailsName()" );
 	    try
 	    {
-	      if ( aR_StockR == null ) connect();
-	      return aR_StockR.getDetailsName( desc );
+	      return theLink.call( stock -> stock.getDetailsName( desc ) );
 	    } catch ( RemoteException e )
 	    {
-	      aR_StockR = null;
 	      throw new StockException( "Net: " + e.getMessage() );
 	    }
 	  }
   
   
-  public synchronized ImageIcon getImage( String number )
+  /**
+   * Returns an image of the product, using the copy held by the
+   *  client if it is current, see ImageCache
+   * @return Image
+   */
+
+  public ImageIcon getImage( String number )
          throws StockException
   {
     DEBUG.trace("F_StockR:getImage()" );
+    byte[] bytes = theImages.get( number, false,
+                     etag -> getImageData( number, false, etag ) );
+    return new ImageIcon( bytes );
+  }
+
+  /**
+   * Returns the image of the product as JPEG bytes,
+   *  without the bytes if the caller has this version
+   * @return The image, or just its ETag if not changed
+   */
+
+  public ProductImage getImageData( String number,
+                                    boolean thumbnail,
+                                    String etag )
+         throws StockException
+  {
+    DEBUG.trace("F_StockR:getImageData()" );
     try
     {
-      if ( aR_StockR == null ) connect();
-      return aR_StockR.getImage( number );
+      return theLink.call( stock -> stock.getImageData( number, thumbnail, etag ) );
+    } catch ( RemoteException e )
+    {
+      throw new StockException( "Net: " + e.getMessage() );
     }
-    catch ( RemoteException e )
+  }
+
+  /**
+   * Tell the listener whenever a product in the stock list changes,
+   *  by a call back from the middle tier to an object in this client.
+   * The listener is added again each time the facade reconnects,
+   *  but is not told of changes made while it was not connected.
+   */
+
+  public void addStockChangeListener( StockChangeListener l )
+         throws StockException
+  {
+    DEBUG.trace("F_StockR:addStockChangeListener()" );
+    try
+    {
+      R_StockListener callBack = theListeners.get( l );
+      if ( callBack == null )
+      {
+        R_StockListener made = new R_StockListener( l );
+        callBack = theListeners.putIfAbsent( l, made );
+        if ( callBack == null ) callBack = made;   // Not added by another
+        else made.close();
+      }
+      R_StockListener added = callBack;
+      theLink.run( stock -> stock.addStockListener( added ) );
+    } catch ( RemoteException e )
+    {
+      throw new StockException( "Net: " + e.getMessage() );
+    }
+  }
+
+  public void removeStockChangeListener( StockChangeListener l )
+         throws StockException
+  {
+    DEBUG.trace("F_StockR:removeStockChangeListener()" );
+    R_StockListener callBack = theListeners.remove( l );
+    if ( callBack == null ) return;
+    try
+    {
+      theLink.run( stock -> stock.removeStockListener( callBack ) );
+    } catch ( RemoteException e )
     {
-      aR_StockR = null;
       throw new StockException( "Net: " + e.getMessage() );
+    } finally
+    {
+      callBack.close();
     }
   }
 
@@ -13,8 +13,9 @@ import catalogue.Product;
 import debug.DEBUG;
 import remote.RemoteStockRW_I;
 
-import java.rmi.Naming;
 import java.rmi.RemoteException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Setup connection to the middle tier
@@ -23,29 +24,18 @@ import java.rmi.RemoteException;
 public class F_StockRW extends F_StockR 
                        implements StockReadWriter
 {
-  private RemoteStockRW_I aR_StockRW  = null;
-  private String          theStockURL = null;
-
   public F_StockRW( String url )
   {
-    super( url );                                   // Not used
-    theStockURL = url;
+    super( url, RemoteStockRW_I.class );
   }
-  
-  private void connect() throws StockException
+
+  /**
+   * The link to the middle tier, which looks up a RemoteStockRW_I
+   */
+  @SuppressWarnings("unchecked")
+  private RemoteLink<RemoteStockRW_I> link()
   {
-    try                                             // Setup
-    {                                               //  connection
-      aR_StockRW =                                  //  Connect to
-       (RemoteStockRW_I) Naming.lookup(theStockURL);// Stub returned
-    }
-    catch ( Exception e )                           // Failure to
-    {                                               //  attach to the
-      aR_StockRW = null;
-      throw new StockException( "Com: " + 
-                               e.getMessage()  );   //  object
-      
-    }
+    return (RemoteLink<RemoteStockRW_I>) getLink();
   }
 
   /**
@@ -61,11 +51,31 @@ public class F_StockRW extends F_StockR
     DEBUG.trace("F_StockRW:buyStock()" );
     try
     {
-      if ( aR_StockRW == null ) connect();
-      return aR_StockRW.buyStock( number, amount );
+      return link().call( stock -> stock.buyStock( number, amount ) );
+    } catch ( RemoteException e )
+    {
+      throw new StockException( "Net: " + e.getMessage() );
+    }
+  }
+
+  /**
+   * Buys several products in one transaction on the middle tier
+   * @param lines product number to amount required
+   * @param allOrNothing true, nothing bought unless every line can be
+   * @return product number to true if enough stock for that line
+   * @throws StockException if remote exception
+   */
+
+  public Map<String,Boolean> buyStock( Map<String,Integer> lines,
+                                       boolean allOrNothing )
+         throws StockException
+  {
+    DEBUG.trace("F_StockRW:buyStock(%d lines)", lines.size() );
+    try
+    {
+      return link().call( stock -> stock.buyStock( new LinkedHashMap<>( lines ), allOrNothing ) );
     } catch ( RemoteException e )
     {
-      aR_StockRW = null;
       throw new StockException( "Net: " + e.getMessage() );
     }
   }
@@ -83,11 +93,9 @@ public class F_StockRW extends F_StockR
     DEBUG.trace("F_StockRW:addStock()" );
     try
     {
-      if ( aR_StockRW == null ) connect();
-      aR_StockRW.addStock( number, amount );
+      link().run( stock -> stock.addStock( number, amount ) );
     } catch ( RemoteException e )
     {
-      aR_StockRW = null;
       throw new StockException( "Net: " + e.getMessage() );
     }
   }
@@ -105,11 +113,9 @@ public class F_StockRW extends F_StockR
     DEBUG.trace("F_StockRW:modifyStock()" );
     try
     {
-      if ( aR_StockRW == null ) connect();
-      aR_StockRW.modifyStock( detail );
+      link().run( stock -> stock.modifyStock( detail ) );
     } catch ( RemoteException e )
     {
-      aR_StockRW = null;
       throw new StockException( "Net: " + e.getMessage() );
     }
   }
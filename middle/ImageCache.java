@@ -0,0 +1,209 @@
+package middle;
+
+import debug.DEBUG;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Copies of the product images held by a client, in memory and on
+ *  disk, so an image is only sent by the middle tier when it has
+ *  changed (see ProductImage).
+ * <P>
+ * A copy is used without asking the middle tier for catshop.image.ttl
+ *  seconds (default 60) after it was fetched or checked. After that the
+ *  middle tier is asked for the image with the ETag of the copy, and
+ *  only sends the image again if it has changed.
+ * The most recently used images, up to catshop.image.memory KB
+ *  (default 8192), are held in memory. Every image fetched is also
+ *  written to the directory catshop.image.cache (default catshop.images
+ *  in the temporary directory), so survives the client being
+ *  restarted. Set it to "" to only hold images in memory.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+class ImageCache
+{
+  private static final long TTL =
+          Math.max( 0, Integer.getInteger( "catshop.image.ttl", 60 ) ) * 1000L;
+  private static final long MAX_BYTES =
+          Math.max( 0, Integer.getInteger( "catshop.image.memory", 8192 ) ) * 1024L;
+  private static final String DIR = System.getProperty( "catshop.image.cache",
+          new File( System.getProperty( "java.io.tmpdir" ), "catshop.images" ).getPath() );
+
+  /**
+   * Fetches an image from the middle tier
+   */
+  interface Fetcher
+  {
+    ProductImage fetch( String etag ) throws StockException;
+  }
+
+  /**
+   * A copy of an image
+   */
+  private static class Entry
+  {
+    private final String etag;
+    private final byte[] bytes;
+    private final long   checked;      // When last known current
+
+    Entry( String anETag, byte[] someBytes, long when )
+    {
+      etag    = anETag;
+      bytes   = someBytes;
+      checked = when;
+    }
+  }
+
+  // Product number (+ ".thumb") -> copy, least recently used first
+  private final LinkedHashMap<String,Entry> theImages =
+                new LinkedHashMap<>( 16, 0.75f, true );
+  private long theBytes = 0;                     // Held in theImages
+  private final File theDir;                     // null if memory only
+
+  ImageCache()
+  {
+    File dir = DIR.isEmpty() ? null : new File( DIR );
+    if ( dir != null && ! dir.isDirectory() && ! dir.mkdirs() )
+    {
+      DEBUG.trace( "ImageCache: can not use %s, images held in memory", DIR );
+      dir = null;
+    }
+    theDir = dir;
+  }
+
+  /**
+   * The image of a product, fetched only if there is no current copy
+   * @param pNum      Product number
+   * @param thumbnail true for a thumbnail of the image
+   * @param fetcher   Fetches the image if needed
+   * @return The image as JPEG
+   * @throws StockException if the image had to be fetched and could not be
+   */
+  byte[] get( String pNum, boolean thumbnail, Fetcher fetcher )
+         throws StockException
+  {
+    String key  = thumbnail ? pNum + ".thumb" : pNum;
+    Entry  held = held( key );
+    long   now  = System.currentTimeMillis();
+    if ( held != null && now - held.checked < TTL ) return held.bytes;
+
+    ProductImage image = fetcher.fetch( held == null ? null : held.etag );
+    if ( held != null && ! image.isModified() )  // Still current
+    {
+      DEBUG.trace( "ImageCache: %s not changed", key );
+      hold( key, new Entry( held.etag, held.bytes, now ) );
+      return held.bytes;
+    }
+    DEBUG.trace( "ImageCache: fetched %s %d bytes", key,
+                 image.getBytes() == null ? 0 : image.getBytes().length );
+    byte[] bytes = image.getBytes() == null ? new byte[0] : image.getBytes();
+    Entry  got   = new Entry( image.getETag(), bytes, now );
+    hold( key, got );
+    save( key, got );
+    return bytes;
+  }
+
+  /**
+   * The copy in memory, or on disk if not in memory
+   */
+  private Entry held( String key )
+  {
+    synchronized ( theImages )
+    {
+      Entry held = theImages.get( key );
+      if ( held != null ) return held;
+    }
+    Entry loaded = load( key );
+    if ( loaded != null ) hold( key, loaded );
+    return loaded;
+  }
+
+  /**
+   * Hold a copy in memory, dropping the least recently used
+   *  copies if over the limit
+   */
+  private void hold( String key, Entry entry )
+  {
+    synchronized ( theImages )
+    {
+      Entry old = theImages.put( key, entry );
+      if ( old != null ) theBytes -= old.bytes.length;
+      theBytes += entry.bytes.length;
+      Iterator<Map.Entry<String,Entry>> it =
+        theImages.entrySet().iterator();
+      while ( theBytes > MAX_BYTES && it.hasNext() )
+      {
+        theBytes -= it.next().getValue().bytes.length;
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * File holding the copy of an image
+   */
+  private File file( String key )
+  {
+    return new File( theDir, key.replaceAll( "[^A-Za-z0-9.]", "_" ) + ".img" );
+  }
+
+  /**
+   * Read a copy from disk, to be checked before it is used
+   * @return The copy, null if none
+   */
+  private Entry load( String key )
+  {
+    if ( theDir == null ) return null;
+    File file = file( key );
+    if ( ! file.isFile() ) return null;
+    try ( DataInputStream in =
+            new DataInputStream( Files.newInputStream( file.toPath() ) ) )
+    {
+      String etag  = in.readUTF();
+      byte[] bytes = new byte[ in.readInt() ];
+      in.readFully( bytes );
+      return new Entry( etag, bytes, 0 );        // Check before use
+    } catch ( IOException e )
+    {
+      DEBUG.trace( "ImageCache: can not read %s: %s", file, e.getMessage() );
+      return null;
+    }
+  }
+
+  /**
+   * Write a copy to disk, replacing any older copy in one step
+   */
+  private void save( String key, Entry entry )
+  {
+    if ( theDir == null ) return;
+    File file = file( key );
+    try
+    {
+      ByteArrayOutputStream buf = new ByteArrayOutputStream();
+      DataOutputStream      out = new DataOutputStream( buf );
+      out.writeUTF( entry.etag );
+      out.writeInt( entry.bytes.length );
+      out.write( entry.bytes );
+      out.flush();
+      File tmp = File.createTempFile( "img", ".tmp", theDir );
+      Files.write( tmp.toPath(), buf.toByteArray() );
+      Files.move( tmp.toPath(), file.toPath(),
+                  StandardCopyOption.REPLACE_EXISTING,
+                  StandardCopyOption.ATOMIC_MOVE );
+    } catch ( IOException e )
+    {
+      DEBUG.trace( "ImageCache: can not write %s: %s", file, e.getMessage() );
+    }
+  }
+}
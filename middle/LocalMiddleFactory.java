@@ -7,21 +7,27 @@ package middle;
 
 import dbAccess.StockR;
 import dbAccess.StockRW;
-import orders.Order;
+import orders.OrderFactory;
 
 
 /**
   * Provide access to middle tier components.
   * Now only one instance of each middle tier object is created
+  * Stock is read through a cache of product details
+  *  (see CachedStockReader) kept up to date by StockRW
+  * The order processing system used is chosen by OrderFactory
   */
 
 // Pattern: Abstract Factory
 
 public class LocalMiddleFactory implements MiddleFactory
 {
-  private static StockR  aStockR  = null;
-  private static StockRW aStockRW = null;
-  private static Order   aOrder   = null;
+  private static CachedStockReader     aStockR  = null;
+  private static CachedStockReadWriter aStockRW = null;
+  private static OrderProcessing       aOrder   = null;
+  private static AsyncStockReader      aAsyncStockR  = null;
+  private static AsyncStockReadWriter  aAsyncStockRW = null;
+  private static AsyncOrderProcessing  aAsyncOrder   = null;
   
   /**
    * Return an object to access the database for read only access.
@@ -31,7 +37,10 @@ public class LocalMiddleFactory implements MiddleFactory
   public StockReader makeStockReader() throws StockException
   {
     if ( aStockR == null )
-      aStockR = new StockR();
+    {
+      aStockR = new CachedStockReader( new StockR() );
+      StockRW.addChangeListener( aStockR );
+    }
     return aStockR;
   }
 
@@ -43,7 +52,10 @@ public class LocalMiddleFactory implements MiddleFactory
   public StockReadWriter makeStockReadWriter() throws StockException
   {
     if ( aStockRW == null )
-      aStockRW = new StockRW();
+    {
+      aStockRW = new CachedStockReadWriter( new StockRW() );
+      StockRW.addChangeListener( aStockRW );
+    }
     return aStockRW;
   }
   
@@ -55,8 +67,50 @@ public class LocalMiddleFactory implements MiddleFactory
   public OrderProcessing makeOrderProcessing() throws OrderException
   {
     if ( aOrder == null )
-      aOrder = new Order();
+      aOrder = (new OrderFactory()).getNewOrder();
     return aOrder;
   }
+
+  /**
+   * Return an object to access the database for read only access,
+   *  making the calls on the shared pool of threads (see AsyncMiddle).
+   * All users share this same object.
+   */
+
+  public AsyncStockReader makeAsyncStockReader() throws StockException
+  {
+    if ( aAsyncStockR == null )
+      aAsyncStockR = new AsyncStockR( makeStockReader(),
+                                      AsyncMiddle.getExecutor() );
+    return aAsyncStockR;
+  }
+
+  /**
+   * Return an object to access the database for read/write access,
+   *  making the calls on the shared pool of threads (see AsyncMiddle).
+   * All users share this same object.
+   */
+
+  public AsyncStockReadWriter makeAsyncStockReadWriter() throws StockException
+  {
+    if ( aAsyncStockRW == null )
+      aAsyncStockRW = new AsyncStockRW( makeStockReadWriter(),
+                                        AsyncMiddle.getExecutor() );
+    return aAsyncStockRW;
+  }
+
+  /**
+   * Return an object to access the order processing system,
+   *  making the calls on the shared pool of threads (see AsyncMiddle).
+   * All users share this same object.
+   */
+
+  public AsyncOrderProcessing makeAsyncOrderProcessing() throws OrderException
+  {
+    if ( aAsyncOrder == null )
+      aAsyncOrder = new AsyncOrder( makeOrderProcessing(),
+                                    AsyncMiddle.getExecutor() );
+    return aAsyncOrder;
+  }
 }
 
@@ -37,5 +37,29 @@ public interface MiddleFactory
    */
   public OrderProcessing makeOrderProcessing() throws OrderException;
 
+  /**
+   * Return an object to access the database for read only access,
+   *  without waiting for the answers
+   * @return instance of AsyncStockReader
+   * @throws StockException if issue
+   */
+  public AsyncStockReader makeAsyncStockReader() throws StockException;
+
+  /**
+   * Return an object to access the database for read/write access,
+   *  without waiting for the answers
+   * @return instance of AsyncStockReadWriter
+   * @throws StockException if issue
+   */
+  public AsyncStockReadWriter makeAsyncStockReadWriter() throws StockException;
+
+  /**
+   * Return an object to access the order processing system,
+   *  without waiting for the answers
+   * @return instance of AsyncOrderProcessing
+   * @throws OrderException if issue
+   */
+  public AsyncOrderProcessing makeAsyncOrderProcessing() throws OrderException;
+
 }
 
@@ -0,0 +1,115 @@
+package middle;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The changes made to the orders in the order processing system
+ *  since a version of the state of the system, as returned by
+ *  OrderProcessing.getOrderChanges().
+ * <P>
+ * Every change to an order moves the system on to a new version.
+ *  If the version asked about is too old to have its changes still
+ *  recorded, the whole state of the system is sent instead.
+ * The client keeps its own copy of the state (see applyTo) and the
+ *  version it is up to, and asks for the changes since that version.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public class OrderChanges implements Serializable
+{
+  private static final long serialVersionUID = 1;
+
+  /** The states of an order, as keys of getOrderState() */
+  public static final String[] KEYS =
+    { "Waiting", "BeingPicked", "ToBeCollected" };
+
+  private final long version;           // Version now up to
+  private final boolean full;           // Whole state not changes
+  // Order number -> new state ("Waiting", "BeingPicked",
+  //  "ToBeCollected") or null if collected, in the order changed
+  private final LinkedHashMap<Integer,String> changes;
+
+  /**
+   * Changes to the orders
+   * @param aVersion Version the changes bring the state up to
+   * @param aFull    true if changes hold every order in the system
+   * @param someChanges Order number to new state, null if gone
+   */
+  public OrderChanges( long aVersion, boolean aFull,
+                       LinkedHashMap<Integer,String> someChanges )
+  {
+    version = aVersion;
+    full    = aFull;
+    changes = someChanges;
+  }
+
+  /**
+   * The whole state of the system
+   * @param aVersion Version of the state
+   * @param state    As returned by getOrderState()
+   * @return All the orders in the system as changes
+   */
+  public static OrderChanges full( long aVersion,
+                                   Map<String,List<Integer>> state )
+  {
+    LinkedHashMap<Integer,String> all = new LinkedHashMap<>();
+    for ( String key : KEYS )
+    {
+      List<Integer> orderNums = state.get( key );
+      if ( orderNums != null )
+        for ( Integer orderNum : orderNums ) all.put( orderNum, key );
+    }
+    return new OrderChanges( aVersion, true, all );
+  }
+
+  public long    getVersion()  { return version; }
+  public boolean isFull()      { return full; }
+  public boolean hasChanges()  { return full || ! changes.isEmpty(); }
+
+  /**
+   * The changes themselves
+   * @return Order number to new state, null if collected
+   */
+  public Map<Integer,String> getChanges()
+  {
+    return Collections.unmodifiableMap( changes );
+  }
+
+  /**
+   * Bring a copy of the state of the orders up to date
+   * @param orders Order number to state, in the order each order
+   *               entered its state, changed by the call
+   */
+  public void applyTo( LinkedHashMap<Integer,String> orders )
+  {
+    if ( full ) orders.clear();
+    for ( Map.Entry<Integer,String> e : changes.entrySet() )
+    {
+      orders.remove( e.getKey() );               // Now last in its state
+      if ( e.getValue() != null ) orders.put( e.getKey(), e.getValue() );
+    }
+  }
+
+  /**
+   * Return a copy of the state of the orders in the same form
+   *  as getOrderState()
+   * @param orders Order number to state, as kept by applyTo
+   * @return a Map with the keys: "Waiting", "BeingPicked", "ToBeCollected"
+   */
+  public static Map<String,List<Integer>> asOrderState(
+                                 Map<Integer,String> orders )
+  {
+    Map<String,List<Integer>> res = new HashMap<>();
+    for ( String key : KEYS ) res.put( key, new ArrayList<>() );
+    for ( Map.Entry<Integer,String> e : orders.entrySet() )
+      res.get( e.getValue() ).add( e.getKey() );
+    return res;
+  }
+}
@@ -9,8 +9,31 @@ package middle;
 public class OrderException extends Exception
 {
   private static final long serialVersionUID = 2;
+  private final boolean theMaybeDone;     // Change may have been made
+
   public OrderException( String s )
+  {
+    this( s, false );
+  }
+
+  /**
+   * @param s         Description of the error
+   * @param maybeDone true if the change may still have been made, as
+   *                  the call was sent but its answer was lost
+   */
+  public OrderException( String s, boolean maybeDone )
   {
     super(s);
+    theMaybeDone = maybeDone;
+  }
+
+  /**
+   * Was the call sent, so the change may have been made even though
+   *  this exception was thrown
+   * @return true if the change may have been made
+   */
+  public boolean isMaybeDone()
+  {
+    return theMaybeDone;
   }
 }
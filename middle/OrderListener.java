@@ -0,0 +1,20 @@
+package middle;
+
+/**
+  * Interface for objects told when the orders in the order
+  * processing system have changed, see OrderProcessing.addOrderListener.
+  * @author  Mike Smith University of Brighton
+  * @version 1.0
+  */
+
+public interface OrderListener
+{
+ /**
+   * Called after one or more orders have changed state.
+   * A burst of changes is reported by a single call, so the
+   *  listener should ask for all the changes since the version
+   *  it is up to (see OrderProcessing.getOrderChanges).
+   * @param version The version the order processing system is now up to
+   */
+  void ordersChanged(long version);
+}
@@ -0,0 +1,65 @@
+package middle;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+
+/**
+ * A block of order numbers handed to a till by
+ *  OrderProcessing.leaseNumbers(), so the till can number its
+ *  orders without asking the order processing system each time.
+ * <P>
+ * The numbers must be used within the life of the lease. Once it has
+ *  run out any numbers not used are taken back by the order processing
+ *  system and may be handed out again, so next() returns 0 and
+ *  a new lease must be asked for.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public class OrderNumberLease implements Serializable
+{
+  private static final long serialVersionUID = 1;
+
+  private final int[]  theNumbers;               // Numbers leased
+  private final long   theLife;                  // Life in ms
+  private int          theUsed = 0;              // Numbers used
+  private transient long theExpires;             // Local time ms
+
+  /**
+   * A lease of order numbers
+   * @param numbers The order numbers
+   * @param life    How long the numbers can be used for in ms
+   */
+  public OrderNumberLease( int[] numbers, long life )
+  {
+    theNumbers = numbers;
+    theLife    = life;
+    theExpires = System.currentTimeMillis() + life;
+  }
+
+  /**
+   * Start the life of the lease again when received, as the clock
+   *  of the sender may not agree with this one.
+   * The lease was granted before it was received, so this is
+   *  only later by the time taken to send it.
+   */
+  private void readObject( ObjectInputStream in )
+          throws IOException, ClassNotFoundException
+  {
+    in.defaultReadObject();
+    theExpires = System.currentTimeMillis() + theLife;
+  }
+
+  /**
+   * Return the next order number of the lease
+   * @return An order number, 0 if all used or the lease has run out
+   */
+  public synchronized int next()
+  {
+    if ( theUsed >= theNumbers.length ||
+         System.currentTimeMillis() >= theExpires )
+      return 0;
+    return theNumbers[ theUsed++ ];
+  }
+}
@@ -1,7 +1,9 @@
 package middle;
 
 import catalogue.Basket;
+import catalogue.PickWave;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
 
@@ -19,11 +21,24 @@ public interface OrderProcessing
 
   public int  uniqueNumber()                       // Cashier
          throws OrderException;
+
+  public OrderNumberLease leaseNumbers(int count)  // Cashier
+         throws OrderException;
    
   public Basket getOrderToPick()                   // Picker
          throws OrderException;
+
+  public Basket takeOrderToPick(Duration timeout)  // Picker
+         throws OrderException;
  
-  public boolean informOrderPicked(int orderNum)   // Picker 
+  public PickWave takeWaveToPick(int maxOrders,    // Picker
+                                 Duration timeout)
+         throws OrderException;
+
+  public boolean informOrderPicked(int orderNum)   // Picker
+         throws OrderException;
+
+  public int informOrdersPicked(List<Integer> orderNums) // Picker
          throws OrderException;
          
   public boolean informOrderCollected(int orderNum) // Collection
@@ -31,4 +46,16 @@ public interface OrderProcessing
          
   public Map<String,List<Integer>> getOrderState() // Display
          throws OrderException;
+
+  public OrderChanges getOrderChanges(long since)  // Display
+         throws OrderException;
+
+  public List<QueueWait> getQueueWaits()           // Manager
+         throws OrderException;
+
+  public void addOrderListener(OrderListener l)    // Display
+         throws OrderException;
+
+  public void removeOrderListener(OrderListener l) // Display
+         throws OrderException;
 }
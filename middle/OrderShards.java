@@ -0,0 +1,53 @@
+package middle;
+
+import debug.DEBUG;
+
+/**
+ * How order numbers are split across middle tier servers (shards),
+ *  used both by ShardedOrder and by the servers handing out numbers.
+ * <P>
+ * Shard i of n (counting from 0) holds the orders whose number
+ *  is i+1, i+1+n, i+1+2n ...
+ *  A server is told which shard it is by the system property
+ *  catshop.shard, for example 1/3 (see Server).
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public class OrderShards
+{
+  private OrderShards() {}
+
+  /**
+   * The shard holding an order
+   * @param orderNum The order number
+   * @param shards   Number of shards
+   * @return The shard, from 0
+   */
+  public static int shardOf( int orderNum, int shards )
+  {
+    return Math.floorMod( orderNum - 1, shards );
+  }
+
+  /**
+   * Which shard this server is, from catshop.shard ("i/n")
+   * @return {shard, number of shards}, {0, 1} if not sharded
+   */
+  public static int[] getConfig()
+  {
+    String config = System.getProperty( "catshop.shard", "0/1" );
+    try
+    {
+      String[] parts = config.split( "/" );
+      int shard  = Integer.parseInt( parts[0].trim() );
+      int shards = Integer.parseInt( parts[1].trim() );
+      if ( shards >= 1 && shard >= 0 && shard < shards )
+        return new int[] { shard, shards };
+    } catch ( RuntimeException e )
+    {
+      // Report below
+    }
+    DEBUG.traceA( "catshop.shard [%s] not shard/shards, not sharded", config );
+    return new int[] { 0, 1 };
+  }
+}
@@ -0,0 +1,53 @@
+package middle;
+
+import java.io.Serializable;
+
+/**
+ * The image of a product as JPEG bytes, as returned by
+ *  StockReader.getImageData().
+ * <P>
+ * Each version of an image has an ETag, which changes whenever the
+ *  image does. A caller holding a copy of the image passes its ETag
+ *  when asking for the image, and if the image has not changed gets
+ *  back just the ETag, without the bytes.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public class ProductImage implements Serializable
+{
+  private static final long serialVersionUID = 1;
+
+  private final String productNum;      // Product pictured
+  private final String etag;            // Version of the image
+  private final byte[] bytes;           // JPEG, null if not changed
+
+  /**
+   * An image of a product
+   * @param aProductNum Product number
+   * @param anETag      Version of the image
+   * @param someBytes   The image as JPEG, null if the caller
+   *                    already has this version
+   */
+  public ProductImage( String aProductNum, String anETag, byte[] someBytes )
+  {
+    productNum = aProductNum;
+    etag       = anETag;
+    bytes      = someBytes;
+  }
+
+  public String getProductNum() { return productNum; }
+  public String getETag()       { return etag; }
+
+  /**
+   * The image as JPEG
+   * @return The bytes, null if not sent as the caller has this version
+   */
+  public byte[] getBytes()      { return bytes; }
+
+  /**
+   * Have the bytes of the image been sent
+   * @return false if the caller already has this version
+   */
+  public boolean isModified()   { return bytes != null; }
+}
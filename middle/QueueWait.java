@@ -0,0 +1,57 @@
+package middle;
+
+import java.io.Serializable;
+
+/**
+ * How long orders of one priority have waited to be picked,
+ *  as returned by OrderProcessing.getQueueWaits().
+ * The wait is from the order being placed until it is given
+ *  to a picker. Times are in ms.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public class QueueWait implements Serializable
+{
+  private static final long serialVersionUID = 1;
+
+  private final String priority;        // Priority of the orders
+  private final long   count;           // Orders given to pickers
+  private final long   p50, p90, p99;   // Percentiles of the wait
+  private final long   max;             // Longest wait
+  private final long   sla;             // Wait the orders should meet
+  private final long   met;             // Orders that met it
+
+  public QueueWait( String aPriority, long aCount, long aP50, long aP90,
+                    long aP99, long aMax, long aSla, long aMet )
+  {
+    priority = aPriority;
+    count    = aCount;
+    p50 = aP50; p90 = aP90; p99 = aP99;
+    max      = aMax;
+    sla      = aSla;
+    met      = aMet;
+  }
+
+  public String getPriority() { return priority; }
+  public long   getCount()    { return count; }
+  public long   getP50()      { return p50; }
+  public long   getP90()      { return p90; }
+  public long   getP99()      { return p99; }
+  public long   getMax()      { return max; }
+  public long   getSla()      { return sla; }
+  public long   getMet()      { return met; }
+
+  /**
+   * A one line summary of the waits
+   * @return Description of the waits
+   */
+  @Override
+  public String toString()
+  {
+    return String.format( "%-8s orders %d wait ms p50 %d p90 %d p99 %d " +
+                          "max %d, %.1f%% within %d",
+                          priority, count, p50, p90, p99, max,
+                          count == 0 ? 100.0 : met * 100.0 / count, sla );
+  }
+}
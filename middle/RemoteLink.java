@@ -0,0 +1,238 @@
+package middle;
+
+import debug.DEBUG;
+
+import java.rmi.ConnectException;
+import java.rmi.Naming;
+import java.rmi.RemoteException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The connection of a facade to a remote object on the middle tier,
+ *  shared by every thread using the facade.
+ * <P>
+ * Calls are made at the same time on the one stub, so a slow call does
+ *  not hold up the other threads of a client. Only looking up the stub
+ *  is done by one thread at a time.
+ * <P>
+ * When a call or look up fails, the stub is dropped and the link is
+ *  open (a circuit breaker): calls fail straight away, without going
+ *  to the network, until a back off time has passed. The next call then
+ *  looks up the stub again (half open), closing the link if it works.
+ *  The back off starts at catshop.net.backoff ms (default 100) and
+ *  doubles with each failure in a row up to catshop.net.backoff.max ms
+ *  (default 30000). Each back off is cut by a random amount of up to
+ *  half, so clients cut off at the same time do not all look up the
+ *  stub again at the same time.
+ * A call failed by an open link, or by a failed look up, throws a
+ *  ConnectException, as it has not been sent.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public class RemoteLink<T>
+{
+  private static final long BACKOFF     = TimeUnit.MILLISECONDS.toNanos(
+          Math.max( 1, Integer.getInteger( "catshop.net.backoff", 100 ) ) );
+  private static final long BACKOFF_MAX = TimeUnit.MILLISECONDS.toNanos(
+          Math.max( 1, Integer.getInteger( "catshop.net.backoff.max", 30000 ) ) );
+
+  /** State of the link */
+  public enum State { Closed, Open, HalfOpen }
+
+  /**
+   * A call made on the stub
+   */
+  interface Call<T,R,X extends Exception>
+  {
+    R call( T stub ) throws RemoteException, X;
+  }
+
+  /**
+   * A call made on the stub that returns nothing
+   */
+  interface Task<T,X extends Exception>
+  {
+    void run( T stub ) throws RemoteException, X;
+  }
+
+  /**
+   * Done each time the stub is looked up, before it is used
+   */
+  interface Connected<T>
+  {
+    void connected( T stub ) throws RemoteException;
+  }
+
+  private final String       theURL;
+  private final Class<T>     theType;
+  private final Connected<T> theConnected;
+
+  private final AtomicReference<T> theStub = new AtomicReference<>();
+  private final Object   theLookup   = new Object();  // One look up at once
+  private volatile State theState    = State.Closed;
+  private volatile long  theRetryAt  = 0;             // When open till
+  private volatile int   theFailures = 0;             // In a row
+
+  private final AtomicLong theCalls      = new AtomicLong( 0 );
+  private final AtomicLong theFailed     = new AtomicLong( 0 );
+  private final AtomicLong theRejected   = new AtomicLong( 0 );
+  private final AtomicLong theLookups    = new AtomicLong( 0 );
+  private final AtomicLong theOpened     = new AtomicLong( 0 );
+
+  /**
+   * Link to a remote object
+   * @param url       URL of the remote object
+   * @param type      Interface of the remote object
+   * @param connected Done each time the stub is looked up, may be null
+   */
+  RemoteLink( String url, Class<T> type, Connected<T> connected )
+  {
+    theURL       = url;
+    theType      = type;
+    theConnected = connected;
+  }
+
+  /**
+   * Make a call on the stub, looking it up if needed
+   * @param call The call
+   * @return The result of the call
+   * @throws RemoteException if the call failed, or the link is open
+   */
+  <R,X extends Exception> R call( Call<T,R,X> call )
+         throws RemoteException, X
+  {
+    T stub = stub();
+    theCalls.incrementAndGet();
+    try
+    {
+      R res = call.call( stub );
+      if ( theFailures != 0 ) theFailures = 0;   // Working again
+      return res;
+    } catch ( RemoteException e )
+    {
+      failed( stub, e );
+      throw e;
+    }
+  }
+
+  /**
+   * Make a call that returns nothing on the stub, see call
+   * @param task The call
+   * @throws RemoteException if the call failed, or the link is open
+   */
+  <X extends Exception> void run( Task<T,X> task )
+         throws RemoteException, X
+  {
+    call( stub -> { task.run( stub ); return null; } );
+  }
+
+  /**
+   * The stub, looking it up if there is none
+   * @return The stub
+   * @throws ConnectException if the link is open or the look up
+   *         failed, so no call has been made
+   */
+  T stub() throws RemoteException
+  {
+    T stub = theStub.get();
+    if ( stub != null ) return stub;
+    synchronized ( theLookup )
+    {
+      stub = theStub.get();
+      if ( stub != null ) return stub;           // Looked up by another
+      long wait = theRetryAt - System.nanoTime();
+      if ( theState == State.Open && wait > 0 )
+      {
+        theRejected.incrementAndGet();
+        throw new ConnectException( "Com: " + theURL + " unavailable, retry in " +
+                                    TimeUnit.NANOSECONDS.toMillis( wait ) + "ms" );
+      }
+      theState = State.HalfOpen;
+      theLookups.incrementAndGet();
+      try
+      {
+        stub = theType.cast( Naming.lookup( theURL ) );
+        if ( theConnected != null ) theConnected.connected( stub );
+      } catch ( Exception e )
+      {
+        open( e );
+        throw e instanceof ConnectException
+              ? (ConnectException) e
+              : new ConnectException( "Com: " + e.getMessage(), e );
+      }
+      theStub.set( stub );
+      theState = State.Closed;
+      return stub;
+    }
+  }
+
+  /**
+   * A call on the stub failed, so drop it and open the link,
+   *  unless another thread has already done so
+   */
+  private void failed( T stub, Exception e )
+  {
+    if ( theStub.compareAndSet( stub, null ) )
+    {
+      synchronized ( theLookup )
+      {
+        open( e );
+      }
+    }
+  }
+
+  /**
+   * Open the link, for longer the more failures there have been in a row.
+   * Must be called holding the lock on theLookup
+   */
+  private void open( Exception e )
+  {
+    theFailed.incrementAndGet();
+    theOpened.incrementAndGet();
+    int  failures = ++theFailures;
+    long backoff  = BACKOFF << Math.min( failures - 1, 30 );
+    if ( backoff <= 0 || backoff > BACKOFF_MAX ) backoff = BACKOFF_MAX;
+    backoff -= (long) ( backoff * ThreadLocalRandom.current().nextDouble( 0.5 ) );
+    theRetryAt = System.nanoTime() + backoff;
+    theState   = State.Open;
+    DEBUG.trace( "RemoteLink: %s open for %dms after %d failures: %s",
+                 theURL, TimeUnit.NANOSECONDS.toMillis( backoff ),
+                 failures, e.getMessage() );
+  }
+
+  /**
+   * The state of the link
+   * @return Closed if working, Open if failing calls straight away,
+   *         HalfOpen if about to or trying the remote object again
+   */
+  public State getState()
+  {
+    State state = theState;
+    if ( state == State.Open && theRetryAt - System.nanoTime() <= 0 )
+      return State.HalfOpen;
+    return state;
+  }
+
+  public int  getFailuresInARow() { return theFailures; }
+  public long getCallCount()      { return theCalls.get(); }
+  public long getFailedCount()    { return theFailed.get(); }
+  public long getRejectedCount()  { return theRejected.get(); }
+  public long getLookupCount()    { return theLookups.get(); }
+  public long getOpenedCount()    { return theOpened.get(); }
+
+  /**
+   * Return a one line summary of the link metrics
+   * @return Description of the state of the link
+   */
+  public String getStats()
+  {
+    return String.format(
+      "%s %s calls %d failed %d rejected %d lookups %d opened %d",
+      theURL, getState(), getCallCount(), getFailedCount(),
+      getRejectedCount(), getLookupCount(), getOpenedCount() );
+  }
+}
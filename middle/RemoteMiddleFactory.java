@@ -4,8 +4,21 @@
  */
 package middle;
 
+import debug.DEBUG;
+
+import java.util.ArrayList;
+import java.util.List;
+
 /**
   * Provide access to middle tier components.
+  * <P>
+  * If the system property catshop.nearcache is true, product details
+  *  are read through a cache in the client (see CachedStockReader),
+  *  kept up to date by the middle tier telling the client of each
+  *  product changed. It holds at most catshop.nearcache.size products
+  *  (default 1000), each trusted for catshop.nearcache.ttl seconds
+  *  (default 300) in case a change is missed while not connected.
+  *  The round trips saved are reported when the client exits.
   */
 
 public class RemoteMiddleFactory implements MiddleFactory
@@ -13,6 +26,12 @@ public class RemoteMiddleFactory implements MiddleFactory
   private String theStockR_URL   = "";
   private String theStockRW_URL  = "";
   private String theOrder_URL    = "";
+
+  private static final boolean NEAR_CACHE = Boolean.getBoolean( "catshop.nearcache" );
+  private static final int     NEAR_SIZE  =
+                               Integer.getInteger( "catshop.nearcache.size", 1000 );
+  private static final long    NEAR_TTL   =
+                               Integer.getInteger( "catshop.nearcache.ttl", 300 ) * 1000L;
   
   public void setStockRInfo( String url )
   {
@@ -36,7 +55,12 @@ public class RemoteMiddleFactory implements MiddleFactory
   
   public StockReader makeStockReader() throws StockException
   {
-    return new F_StockR( theStockR_URL );
+    F_StockR stock = new F_StockR( theStockR_URL );
+    if ( ! NEAR_CACHE ) return stock;
+    CachedStockReader near =
+      new CachedStockReader( stock, NEAR_SIZE, NEAR_TTL );
+    listen( stock, near, theStockR_URL );
+    return near;
   }
 
   /**
@@ -45,16 +69,77 @@ public class RemoteMiddleFactory implements MiddleFactory
    */
   public StockReadWriter makeStockReadWriter() throws StockException
   {
-    return new F_StockRW( theStockRW_URL );
+    F_StockRW stock = new F_StockRW( theStockRW_URL );
+    if ( ! NEAR_CACHE ) return stock;
+    CachedStockReadWriter near =
+      new CachedStockReadWriter( stock, NEAR_SIZE, NEAR_TTL );
+    listen( stock, near, theStockRW_URL );
+    return near;
+  }
+
+  /**
+   * Keep a near cache up to date with the changes made on the
+   *  middle tier, and report how well it did on exit
+   */
+  private static void listen( F_StockR stock, CachedStockReader near,
+                              String url )
+  {
+    try
+    {
+      stock.addStockChangeListener( near );
+    } catch ( StockException e )                 // Added on connect
+    {
+      DEBUG.trace( "Near cache %s: %s", url, e.getMessage() );
+    }
+    Runtime.getRuntime().addShutdownHook( new Thread( () ->
+      DEBUG.traceA( "Near cache %s: round trips saved %d, %s",
+                    url, near.getHitCount(), near.getStats() ) ) );
   }
   
   /**
    * Return an object to access the order processing system.
-   * Access is via RMI
+   * Access is via RMI.
+   * If the order URL is a comma separated list, the orders are split
+   *  across the servers listed, one for each shard in shard order,
+   *  see ShardedOrder
    */
   public OrderProcessing makeOrderProcessing() throws OrderException
   {
-    return new F_Order( theOrder_URL );
+    String[] urls = theOrder_URL.split( "," );
+    if ( urls.length == 1 ) return new F_Order( theOrder_URL );
+    List<OrderProcessing> shards = new ArrayList<>();
+    for ( String url : urls ) shards.add( new F_Order( url.trim() ) );
+    return new ShardedOrder( shards );
+  }
+
+  /**
+   * Return an object to access the database for read only access,
+   *  making the calls on the shared pool of threads (see AsyncMiddle).
+   * Access is via RMI
+   */
+  public AsyncStockReader makeAsyncStockReader() throws StockException
+  {
+    return new AsyncStockR( makeStockReader(), AsyncMiddle.getExecutor() );
+  }
+
+  /**
+   * Return an object to access the database for read/write access,
+   *  making the calls on the shared pool of threads (see AsyncMiddle).
+   * Access is via RMI
+   */
+  public AsyncStockReadWriter makeAsyncStockReadWriter() throws StockException
+  {
+    return new AsyncStockRW( makeStockReadWriter(), AsyncMiddle.getExecutor() );
+  }
+
+  /**
+   * Return an object to access the order processing system,
+   *  making the calls on the shared pool of threads (see AsyncMiddle).
+   * Access is via RMI
+   */
+  public AsyncOrderProcessing makeAsyncOrderProcessing() throws OrderException
+  {
+    return new AsyncOrder( makeOrderProcessing(), AsyncMiddle.getExecutor() );
   }
 }
 
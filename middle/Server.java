@@ -11,29 +11,45 @@ import java.rmi.registry.LocateRegistry;
 
 /**
  * The server for the middle tier.
+ * <P>
+ * The RMI registry is started on port catshop.port (default 1099).
+ * When the orders are split across several servers (catshop.shard,
+ *  see ShardedOrder) only the server of shard 0 serves the stock,
+ *  as only one process can use the database.
  * @author  Mike Smith University of Brighton
  * @version 2.0
  */
 
 class Server
 {
+  private static final int PORT = Integer.getInteger( "catshop.port", 1099 );
+
   public static void main( String args[] )
   {
     String stockR = args.length < 1      // URL of stock R
-                   ? Names.STOCK_R       //  default  location
+                   ? onPort( Names.STOCK_R ) //  default  location
                    : args[0];            //  supplied location
 
     String stockRW = args.length < 2     // URL of stock RW
-                    ? Names.STOCK_RW     //  default  location
+                    ? onPort( Names.STOCK_RW ) // default location
                     : args[1];           //  supplied location
                       
     String order    = args.length < 3    // URL of order manip
-                    ? Names.ORDER        //  default  location
+                    ? onPort( Names.ORDER )  // default location
                     : args[2];           //  supplied location
 
     (new Server()).bind( stockR, stockRW, order );
   }
 
+  /**
+   * The default URL of an object, on the port of the registry
+   */
+  private static String onPort( String url )
+  {
+    return PORT == 1099 ? url
+                        : url.replace( "//localhost/", "//localhost:" + PORT + "/" );
+  }
+
   private void bind( String urlStockR, String urlStockRW,
                      String urlOrder )
   {
@@ -43,7 +59,7 @@ class Server
     System.out.println( "Server: " );   // Introduction
     try
     {
-      LocateRegistry.createRegistry(1099);
+      LocateRegistry.createRegistry( PORT );
       String IPAddress = InetAddress.getLocalHost().getHostAddress();
       System.out.println("Server IP address " + IPAddress );
     } catch (Exception e)
@@ -54,15 +70,18 @@ class Server
 
     try
     {
-      theStockR = new R_StockR(urlStockR);            // Stock R
-      Naming.rebind( urlStockR, theStockR );          //  bind to url
-      System.out.println( "StockR  bound to: " +      //  Inform world
-                           urlStockR );               //
+      if ( OrderShards.getConfig()[0] == 0 )          // Stock on shard 0
+      {
+        theStockR = new R_StockR(urlStockR);          // Stock R
+        Naming.rebind( urlStockR, theStockR );        //  bind to url
+        System.out.println( "StockR  bound to: " +    //  Inform world
+                             urlStockR );             //
 
-      theStockRW = new R_StockRW(urlStockRW);         // Stock RW
-      Naming.rebind( urlStockRW, theStockRW );        //  bind to url
-      System.out.println( "StockRW bound to: " +      //  Inform world
-                           urlStockRW );              // 
+        theStockRW = new R_StockRW(urlStockRW);       // Stock RW
+        Naming.rebind( urlStockRW, theStockRW );      //  bind to url
+        System.out.println( "StockRW bound to: " +    //  Inform world
+                             urlStockRW );            // 
+      }
 
       theOrder = new R_Order(urlOrder);               // Order
       Naming.rebind( urlOrder, theOrder );            //  bind to url
@@ -0,0 +1,328 @@
+package middle;
+
+import catalogue.Basket;
+import catalogue.PickWave;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Order processing split across several middle tier servers (shards),
+ *  each holding the orders for some of the order numbers.
+ * <P>
+ * Shard i of n (counting from 0) holds the orders whose number
+ *  is i+1, i+1+n, i+1+2n ... and only hands out those numbers, so
+ *  the shard of any order is known from its number alone, see
+ *  OrderShards.
+ * <P>
+ * Calls about one order go to the shard holding it. New order numbers
+ *  and orders to pick are taken from each shard in turn. The state of
+ *  the whole system is asked for from every shard at once, and the
+ *  answers merged.
+ * A wave of orders to pick only holds orders from one shard.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public class ShardedOrder implements OrderProcessing
+{
+  // Longest time spent waiting on one shard for an order to pick,
+  //  before looking at the others again
+  private static final Duration SLICE =
+          Duration.ofMillis( Integer.getInteger( "catshop.shard.slice", 200 ) );
+
+  // Threads used to ask every shard at once, shared by all
+  private static final ExecutorService theThreads =
+    Executors.newCachedThreadPool( r -> {
+      Thread t = new Thread( r, "ShardedOrder" );
+      t.setDaemon( true );
+      return t;
+    } );
+
+  private final List<OrderProcessing> theShards;
+  private final AtomicInteger theTurn = new AtomicInteger( 0 );
+
+  // Version last returned by getOrderChanges, and the version of
+  //  each shard it is made up of
+  private long   theVersion  = System.currentTimeMillis() * 1000;
+  private long[] theVersions = null;
+
+  /**
+   * A call made to one shard
+   */
+  private interface ShardCall<T>
+  {
+    T call( int shard, OrderProcessing orders ) throws OrderException;
+  }
+
+  /**
+   * Order processing across shards
+   * @param shards The shards, in shard number order
+   */
+  public ShardedOrder( List<OrderProcessing> shards )
+  {
+    theShards = new ArrayList<>( shards );
+  }
+
+  private OrderProcessing owner( int orderNum )
+  {
+    return theShards.get( OrderShards.shardOf( orderNum, theShards.size() ) );
+  }
+
+  private int nextTurn()
+  {
+    return Math.floorMod( theTurn.getAndIncrement(), theShards.size() );
+  }
+
+  public void newOrder( Basket bought )
+         throws OrderException
+  {
+    owner( bought.getOrderNum() ).newOrder( bought );
+  }
+
+  public int uniqueNumber()
+         throws OrderException
+  {
+    return theShards.get( nextTurn() ).uniqueNumber();
+  }
+
+  public OrderNumberLease leaseNumbers( int count )
+         throws OrderException
+  {
+    return theShards.get( nextTurn() ).leaseNumbers( count );
+  }
+
+  /**
+   * Returns an order to pick, looking at each shard in turn
+   * @return An order to pick or null if no shard has one
+   */
+  public Basket getOrderToPick()
+         throws OrderException
+  {
+    int first = nextTurn();
+    for ( int i = 0; i < theShards.size(); i++ )
+    {
+      Basket basket =
+        theShards.get( ( first + i ) % theShards.size() ).getOrderToPick();
+      if ( basket != null ) return basket;
+    }
+    return null;
+  }
+
+  /**
+   * Returns an order to pick, waiting for one if no shard has one.
+   * Waits on one shard at a time for at most catshop.shard.slice ms
+   *  (default 200), so an order on another shard waits at most that
+   *  long once every shard has been asked.
+   * @param timeout Longest time to wait
+   * @return An order to pick or null if none added in time
+   */
+  public Basket takeOrderToPick( Duration timeout )
+         throws OrderException
+  {
+    long deadline = System.nanoTime() + WaitTime.nanos( timeout );
+    while ( true )
+    {
+      Basket basket = getOrderToPick();
+      if ( basket != null ) return basket;
+      long left = deadline - System.nanoTime();
+      if ( left <= 0 ) return null;
+      Duration wait = SLICE.toNanos() < left ? SLICE : Duration.ofNanos( left );
+      basket = theShards.get( nextTurn() ).takeOrderToPick( wait );
+      if ( basket != null ) return basket;
+    }
+  }
+
+  /**
+   * Returns a wave of orders to pick from one shard, waiting for an
+   *  order if no shard has one, see takeOrderToPick
+   * @param maxOrders Most orders in the wave
+   * @param timeout   Longest time to wait
+   * @return A wave of orders to pick or null if none added in time
+   */
+  public PickWave takeWaveToPick( int maxOrders, Duration timeout )
+         throws OrderException
+  {
+    long deadline = System.nanoTime() + WaitTime.nanos( timeout );
+    while ( true )
+    {
+      int first = nextTurn();
+      for ( int i = 0; i < theShards.size(); i++ )
+      {
+        PickWave wave = theShards.get( ( first + i ) % theShards.size() )
+                                 .takeWaveToPick( maxOrders, Duration.ZERO );
+        if ( wave != null ) return wave;
+      }
+      long left = deadline - System.nanoTime();
+      if ( left <= 0 ) return null;
+      Duration wait = SLICE.toNanos() < left ? SLICE : Duration.ofNanos( left );
+      PickWave wave = theShards.get( nextTurn() ).takeWaveToPick( maxOrders, wait );
+      if ( wave != null ) return wave;
+    }
+  }
+
+  public boolean informOrderPicked( int orderNum )
+         throws OrderException
+  {
+    return owner( orderNum ).informOrderPicked( orderNum );
+  }
+
+  /**
+   * Informs each shard holding an order of a wave that it has
+   *  been picked, in one call to each shard
+   * @param  orderNums The orders that have been picked
+   * @return The number of the orders that were being picked
+   */
+  public int informOrdersPicked( List<Integer> orderNums )
+         throws OrderException
+  {
+    Map<Integer,List<Integer>> byShard = new HashMap<>();
+    for ( int orderNum : orderNums )
+      byShard.computeIfAbsent( OrderShards.shardOf( orderNum, theShards.size() ),
+                               k -> new ArrayList<>() ).add( orderNum );
+    int moved = 0;
+    for ( Map.Entry<Integer,List<Integer>> e : byShard.entrySet() )
+      moved += theShards.get( e.getKey() ).informOrdersPicked( e.getValue() );
+    return moved;
+  }
+
+  public boolean informOrderCollected( int orderNum )
+         throws OrderException
+  {
+    return owner( orderNum ).informOrderCollected( orderNum );
+  }
+
+  /**
+   * Returns the orders held by every shard, asking them all at once
+   * @return a Map with the keys: "Waiting", "BeingPicked", "ToBeCollected"
+   */
+  public Map<String, List<Integer> > getOrderState()
+         throws OrderException
+  {
+    Map<String,List<Integer>> res = new HashMap<>();
+    for ( String key : OrderChanges.KEYS ) res.put( key, new ArrayList<>() );
+    for ( Map<String,List<Integer>> state :
+            scatter( ( i, shard ) -> shard.getOrderState() ) )
+      for ( String key : OrderChanges.KEYS )
+        if ( state.get( key ) != null ) res.get( key ).addAll( state.get( key ) );
+    return res;
+  }
+
+  /**
+   * Returns the changes made to the orders on every shard since a
+   *  version, see OrderChanges.
+   * The version returned stands for the version of every shard, so
+   *  is only known to this object. Any other version gets the whole
+   *  state of the system.
+   * @param since The version the caller is up to
+   * @return The changes, or the whole state
+   */
+  public synchronized OrderChanges getOrderChanges( long since )
+         throws OrderException
+  {
+    boolean full = theVersions == null || since != theVersion;
+    List<OrderChanges> parts = changes( full );
+    if ( ! full )
+    {
+      for ( OrderChanges part : parts )
+        if ( part.isFull() ) { full = true; break; }   // Shard restarted
+      if ( full ) parts = changes( true );
+    }
+    LinkedHashMap<Integer,String> merged  = new LinkedHashMap<>();
+    long[]                        version = new long[ parts.size() ];
+    boolean                       changed = full;
+    for ( int i = 0; i < parts.size(); i++ )     // Shards hold different
+    {                                            //  orders
+      version[i] = parts.get( i ).getVersion();
+      changed   |= parts.get( i ).hasChanges();
+      merged.putAll( parts.get( i ).getChanges() );
+    }
+    theVersions = version;
+    if ( changed ) theVersion++;
+    return new OrderChanges( theVersion, full, merged );
+  }
+
+  /**
+   * Ask every shard for its changes since the version last returned
+   */
+  private List<OrderChanges> changes( boolean full ) throws OrderException
+  {
+    long[] versions = theVersions;
+    return scatter( ( i, shard ) ->
+             shard.getOrderChanges( full ? -1 : versions[i] ) );
+  }
+
+  /**
+   * How long orders have waited to be picked on each shard.
+   * Percentiles can not be merged, so each shard is reported
+   *  separately, its priorities named shard:priority.
+   * @return The waits, one for each priority of each shard
+   */
+  public List<QueueWait> getQueueWaits()
+         throws OrderException
+  {
+    List<QueueWait> res = new ArrayList<>();
+    List<List<QueueWait>> all = scatter( ( i, shard ) -> shard.getQueueWaits() );
+    for ( int i = 0; i < all.size(); i++ )
+      for ( QueueWait w : all.get( i ) )
+        res.add( new QueueWait( i + ":" + w.getPriority(), w.getCount(),
+                                w.getP50(), w.getP90(), w.getP99(),
+                                w.getMax(), w.getSla(), w.getMet() ) );
+    return res;
+  }
+
+  public void addOrderListener( OrderListener l )
+         throws OrderException
+  {
+    for ( OrderProcessing shard : theShards ) shard.addOrderListener( l );
+  }
+
+  public void removeOrderListener( OrderListener l )
+         throws OrderException
+  {
+    for ( OrderProcessing shard : theShards ) shard.removeOrderListener( l );
+  }
+
+  /**
+   * Make a call to every shard at once, and wait for all the answers
+   * @param call The call
+   * @return The answer from each shard, in shard order
+   * @throws OrderException if the call to any shard failed
+   */
+  private <T> List<T> scatter( ShardCall<T> call ) throws OrderException
+  {
+    if ( theShards.size() == 1 )
+      return Collections.singletonList( call.call( 0, theShards.get( 0 ) ) );
+    List<Future<T>> futures = new ArrayList<>();
+    for ( int i = 0; i < theShards.size(); i++ )
+    {
+      final int shard = i;
+      futures.add( theThreads.submit( () -> call.call( shard, theShards.get( shard ) ) ) );
+    }
+    List<T> res = new ArrayList<>();
+    try
+    {
+      for ( Future<T> future : futures ) res.add( future.get() );
+    } catch ( ExecutionException e )
+    {
+      if ( e.getCause() instanceof OrderException )
+        throw (OrderException) e.getCause();
+      throw new OrderException( "Shard: " + e.getCause() );
+    } catch ( InterruptedException e )
+    {
+      Thread.currentThread().interrupt();
+      throw new OrderException( "Shard: interrupted" );
+    }
+    return res;
+  }
+}
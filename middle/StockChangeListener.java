@@ -0,0 +1,18 @@
+package middle;
+
+/**
+  * Interface for objects told when the details of a product
+  * in the stock list have been changed.
+  * @author  Mike Smith University of Brighton
+  * @version 1.0
+  */
+
+public interface StockChangeListener
+{
+ /**
+   * Called after the stock level, description or price
+   *  of a product has been changed
+   * @param pNum Product number
+   */
+  void stockChanged(String pNum);
+}
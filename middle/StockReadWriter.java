@@ -2,6 +2,8 @@ package middle;
 
 import catalogue.Product;
 
+import java.util.Map;
+
 /**
   * Interface for read/write access to the stock list.
   * @author  Mike Smith University of Brighton
@@ -20,6 +22,18 @@ public interface StockReadWriter extends StockReader
    */
   boolean buyStock(String pNum, int amount) throws StockException;
 
+ /**
+   * Customer buys several products at once,
+   * all the stock levels being decremented in a single transaction.
+   * @param lines Product number to quantity bought
+   * @param allOrNothing true, nothing is bought unless every line can be
+   * @return Product number to true if there was enough stock for the line.
+   *         If allOrNothing and any line is false nothing was bought
+   * @throws middle.StockException if issue
+   */
+  Map<String,Boolean> buyStock(Map<String,Integer> lines, boolean allOrNothing)
+         throws StockException;
+
   /**
    * Adds stock (Restocks) to store.
    * @param pNum Product number
@@ -3,6 +3,9 @@ package middle;
 import catalogue.Product;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
 
 import javax.swing.*;
 
@@ -38,6 +41,25 @@ public interface StockReader
    */
   
   Product getDetails(String pNum) throws StockException;
+
+  /**
+   * Returns details about the product if it is in the stock list,
+   *  replacing a call of exists() followed by getDetails()
+   * @param pNum Product number
+   * @return StockNumber, Description, Price, Quantity
+   *         or empty if no such product
+   * @throws StockException if issue
+   */
+  Optional<Product> findDetails(String pNum) throws StockException;
+
+  /**
+   * Returns details about several products in the stock list at once
+   * @param pNums Product numbers
+   * @return Map from product number to details,
+   *         product numbers not in the stock list are left out
+   * @throws StockException if issue
+   */
+  Map<String,Product> getDetails(Collection<String> pNums) throws StockException;
   
   
   /**
@@ -57,4 +79,17 @@ public interface StockReader
    */
   
   ImageIcon getImage(String pNum) throws StockException;
+
+  /**
+   * Returns the image of the product as JPEG bytes.
+   * The bytes are only sent if the image has changed since the
+   *  version the caller has, see ProductImage
+   * @param pNum      Product number
+   * @param thumbnail true for a small version of the image
+   * @param etag      ETag of the version the caller has, or null
+   * @return The image, or just its ETag if not changed
+   * @throws StockException if issue
+   */
+  ProductImage getImageData(String pNum, boolean thumbnail, String etag)
+         throws StockException;
 }
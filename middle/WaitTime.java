@@ -0,0 +1,30 @@
+package middle;
+
+import java.time.Duration;
+
+/**
+ * The time to wait for a timeout given as a Duration, used by the
+ *  order processing systems waiting for an order to pick.
+ * A timeout is cut to at most a day, so a very long one does not
+ *  overflow when turned into ns or added to System.nanoTime().
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public class WaitTime
+{
+  private static final Duration MAX = Duration.ofDays( 1 );
+
+  private WaitTime() {}
+
+  /**
+   * Time to wait in ns, at most a day
+   * @param timeout Longest time to wait
+   * @return ns to wait, 0 if the timeout is negative
+   */
+  public static long nanos( Duration timeout )
+  {
+    if ( timeout.isNegative() ) return 0;
+    return timeout.compareTo( MAX ) > 0 ? MAX.toNanos() : timeout.toNanos();
+  }
+}
@@ -0,0 +1,389 @@
+package orders;
+
+import catalogue.Basket;
+import catalogue.PickWave;
+import debug.DEBUG;
+import middle.OrderChanges;
+import middle.OrderException;
+import middle.OrderListener;
+import middle.OrderNumberLease;
+import middle.OrderProcessing;
+import middle.QueueWait;
+import middle.WaitTime;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+  * <BR>-----------------------------------------
+  * <BR>ALTERNATIVE IMPLEMENTATION OF class Order
+  * <BR>-----------------------------------------
+  * <P>
+  * The order processing system, for when many clients use it at once.
+  * No method locks the whole order processing system, so tills,
+  *  pickers and displays do not wait for each other.
+  * <P>
+  * Each order is held in a folder whose state is changed by a
+  *  compare and set, so only one client can move an order on from
+  *  a state. The compare and set is made holding the lock of the log
+  *  of changes, only for as long as it takes to record the change, so
+  *  the changes are recorded in the order they were made.
+  *  Orders waiting to be picked are also held in a
+  *  concurrent ordered set, so the most urgent is found in
+  *  O(log n) time, see PickQueue.
+  * The state of the system returned by getOrderState is built without
+  *  stopping other clients, so an order being moved on at the time may
+  *  be shown in either state.
+  * @author  Mike Smith University of Brighton
+  * @version 1.0
+  */
+
+public class ConcurrentOrder implements OrderProcessing
+{
+  private enum State {Waiting, BeingPicked, ToBeCollected, Collected };
+
+  /**
+   * Wraps a Basket and its state into a folder
+   */
+  private static class Folder
+  {
+    private final AtomicReference<State> stateIs =
+                  new AtomicReference<>( State.Waiting );
+    private final Basket basket;
+    private final PickQueue.Ticket ticket;
+
+    public Folder( Basket anOrder )
+    {
+      basket = anOrder;
+      ticket = new PickQueue.Ticket( anOrder );
+    }
+
+    public State getState()                 { return stateIs.get(); }
+
+    public Basket getBasket()               { return basket; }
+
+    /**
+     * Change the state, only if still in state from
+     * @return true if changed
+     */
+    public boolean moveOn( State from, State to )
+    {
+      return stateIs.compareAndSet( from, to );
+    }
+  }
+
+  // Order numbers, starting at order 1
+  private static final OrderNumbers theNumbers = new OrderNumbers( 1 );
+
+  // Every active order, in order number order
+  private final ConcurrentSkipListMap<Integer,Folder> folders =
+                new ConcurrentSkipListMap<>();
+  // Orders waiting to be picked, most urgent first
+  private final ConcurrentSkipListSet<Folder> waiting =
+                new ConcurrentSkipListSet<>(
+                  ( a, b ) -> PickQueue.URGENCY.compare( a.ticket, b.ticket ) );
+  // One permit for each order in waiting, taken before polling it
+  private final Semaphore waitingCount = new Semaphore( 0 );
+  // Recent changes, for displays. Held locked while an order is moved
+  //  on and the change recorded, see moveOn
+  private final OrderChangeLog theChanges = new OrderChangeLog();
+  private final PickQueue thePickQueue = new PickQueue();
+
+  /**
+   * Generates a unique order number
+   * @return A unique order number
+   */
+  public int uniqueNumber()
+         throws OrderException
+  {
+    return theNumbers.next();
+  }
+
+  /**
+   * Hands out a block of order numbers for a till to use,
+   *  see OrderNumberLease
+   * @param count How many numbers
+   * @return The lease of the numbers
+   */
+  public OrderNumberLease leaseNumbers( int count )
+         throws OrderException
+  {
+    return new OrderNumberLease( theNumbers.lease( count ),
+                                 OrderNumbers.LEASE );
+  }
+
+  /**
+   * Add a new order to the order processing system
+   * @param bought A new order that is to be processed
+   */
+  public void newOrder( Basket bought )
+         throws OrderException
+  {
+    DEBUG.trace( "DEBUG: New order #%d", bought.getOrderNum() );
+    Folder folder = new Folder( bought );
+    if ( folders.putIfAbsent( bought.getOrderNum(), folder ) != null )
+      throw new OrderException( "Order " + bought.getOrderNum() +
+                                " already in the system" );
+    theNumbers.inUse( bought.getOrderNum() );
+    theChanges.record( bought.getOrderNum(), "Waiting" ); // Before pickable
+    waiting.add( folder );
+    waitingCount.release();
+  }
+
+  /**
+   * Returns an order to pick from the warehouse.
+   * @return An order to pick or null if no order
+   */
+  public Basket getOrderToPick()
+         throws OrderException
+  {
+    DEBUG.trace( "DEBUG: Get order to pick" );
+    return waitingCount.tryAcquire() ? pick() : null;
+  }
+
+  /**
+   * Returns an order to pick from the warehouse, waiting for
+   *  one to be added if there is none.
+   * @param timeout Longest time to wait
+   * @return An order to pick or null if none added in time
+   */
+  public Basket takeOrderToPick( Duration timeout )
+         throws OrderException
+  {
+    try
+    {
+      return waitingCount.tryAcquire( WaitTime.nanos( timeout ),
+                                      TimeUnit.NANOSECONDS ) ? pick() : null;
+    } catch ( InterruptedException e )
+    {
+      Thread.currentThread().interrupt();
+      throw new OrderException( "Interrupted waiting for an order" );
+    }
+  }
+
+  /**
+   * Take the most urgent waiting order, having been given a permit
+   *  for it.
+   * Skips any order taken for a wave but not yet removed from waiting.
+   */
+  private Basket pick()
+  {
+    Folder folder;
+    do
+    {
+      folder = waiting.pollFirst();              // Permit so never null
+    } while ( ! moveOn( folder, State.Waiting, State.BeingPicked ) );
+    thePickQueue.picked( folder.ticket );
+    return folder.getBasket();
+  }
+
+  /**
+   * Returns a wave of orders to pick together from the warehouse,
+   *  waiting for an order to be added if there is none,
+   *  see PickWave and WavePlanner.
+   * A permit is taken for each order in the wave before it is chosen,
+   *  so pickers taking single orders at the same time always find one.
+   * @param maxOrders Most orders in the wave
+   * @param timeout   Longest time to wait for an order
+   * @return A wave of orders to pick or null if none added in time
+   */
+  public PickWave takeWaveToPick( int maxOrders, Duration timeout )
+         throws OrderException
+  {
+    DEBUG.trace( "DEBUG: Get wave of up to %d orders to pick", maxOrders );
+    int max = Math.max( 1, maxOrders );
+    int held;                                    // Permits taken
+    try
+    {
+      if ( ! waitingCount.tryAcquire( WaitTime.nanos( timeout ),
+                                      TimeUnit.NANOSECONDS ) )
+        return null;
+      held = 1;
+      long release = System.nanoTime() + WavePlanner.AGE;
+      while ( held < max )
+      {
+        long left = release - System.nanoTime();
+        if ( waitingCount.tryAcquire( Math.max( 0, left ), TimeUnit.NANOSECONDS ) )
+          held++;
+        else if ( left <= 0 ) break;
+      }
+    } catch ( InterruptedException e )
+    {
+      Thread.currentThread().interrupt();
+      throw new OrderException( "Interrupted waiting for an order" );
+    }
+
+    List<Basket> wave = new ArrayList<>();
+    while ( wave.isEmpty() )                     // Chosen lost to others
+    {
+      Map<Basket,Folder> candidates = new IdentityHashMap<>();
+      List<Basket>       urgent     = new ArrayList<>();
+      for ( Folder folder : waiting )
+      {
+        if ( urgent.size() >= WavePlanner.WINDOW ) break;
+        if ( folder.getState() != State.Waiting ) continue;
+        candidates.put( folder.getBasket(), folder );
+        urgent.add( folder.getBasket() );
+      }
+      for ( Basket basket : WavePlanner.choose( urgent, held ) )
+      {
+        Folder folder = candidates.get( basket );
+        if ( ! moveOn( folder, State.Waiting, State.BeingPicked ) ) continue;
+        waiting.remove( folder );
+        thePickQueue.picked( folder.ticket );
+        wave.add( basket );
+      }
+    }
+    waitingCount.release( held - wave.size() );  // Not used
+    return new PickWave( wave );
+  }
+
+  /**
+   * Informs the order processing system that the order has been
+   * picked and the products are now being delivered to the
+   * collection desk
+   * @param  orderNum The order that has been picked
+   * @return true Order in system, false no such order
+   */
+  public boolean informOrderPicked( int orderNum )
+         throws OrderException
+  {
+    DEBUG.trace( "DEBUG: Order picked [%d]", orderNum );
+    Folder folder = folders.get( orderNum );
+    return folder != null &&
+           moveOn( folder, State.BeingPicked, State.ToBeCollected );
+  }
+
+  /**
+   * Informs the order processing system that the orders of a wave
+   *  have been picked
+   * @param  orderNums The orders that have been picked
+   * @return The number of the orders that were being picked
+   */
+  public int informOrdersPicked( List<Integer> orderNums )
+         throws OrderException
+  {
+    int moved = 0;
+    for ( int orderNum : orderNums )
+      if ( informOrderPicked( orderNum ) ) moved++;
+    return moved;
+  }
+
+  /**
+   * Informs the order processing system that the order has been
+   * collected by the customer
+   * @return true If order is in the system, otherwise false
+   */
+  public boolean informOrderCollected( int orderNum )
+         throws OrderException
+  {
+    DEBUG.trace( "DEBUG: Order collected [%d]", orderNum );
+    Folder folder = folders.get( orderNum );
+    if ( folder == null ||
+         ! moveOn( folder, State.ToBeCollected, State.Collected ) )
+      return false;
+    folders.remove( orderNum, folder );
+    theNumbers.free( orderNum );
+    return true;
+  }
+
+  /**
+   * Move an order on from a state and record the change as one step,
+   *  so a display replaying the changes sees them in the order made
+   * @return true if moved on, false if no longer in state from
+   */
+  private boolean moveOn( Folder folder, State from, State to )
+  {
+    return theChanges.recordIf( folder.getBasket().getOrderNum(),
+                                to == State.Collected ? null : to.name(),
+                                () -> folder.moveOn( from, to ) );
+  }
+
+  /**
+   * Returns information about all the orders (there order number)
+   * in the order processing system, see Order.getOrderState()
+   * @return a Map with the keys: "Waiting", "BeingPicked", "ToBeCollected"
+   */
+  public Map<String, List<Integer> > getOrderState()
+         throws OrderException
+  {
+    List<Integer> waitingNums       = new ArrayList<>();
+    List<Integer> beingPickedNums   = new ArrayList<>();
+    List<Integer> toBeCollectedNums = new ArrayList<>();
+    for ( Folder folder : folders.values() )
+    {
+      int orderNum = folder.getBasket().getOrderNum();
+      switch ( folder.getState() )
+      {
+        case Waiting       : waitingNums.add( orderNum );       break;
+        case BeingPicked   : beingPickedNums.add( orderNum );   break;
+        case ToBeCollected : toBeCollectedNums.add( orderNum ); break;
+        default            :                                    break;
+      }
+    }
+    Map < String, List<Integer> > res = new HashMap<>();
+    res.put( "Waiting",       waitingNums );
+    res.put( "BeingPicked",   beingPickedNums );
+    res.put( "ToBeCollected", toBeCollectedNums );
+    return res;
+  }
+
+  /**
+   * Returns the changes made to the orders since a version of the
+   *  state of the order processing system, see OrderChanges.
+   * Does not build the lists of orders unless the version is too old.
+   * The whole state is read without stopping other clients, so may
+   *  already hold changes made after its version. These are sent
+   *  again next time, which does no harm.
+   * @param since The version the caller is up to
+   * @return The changes, or the whole state if the version is too old
+   */
+  public OrderChanges getOrderChanges( long since )
+         throws OrderException
+  {
+    OrderChanges res = theChanges.since( since );
+    if ( res != null ) return res;
+    long version = theChanges.getVersion();     // Before reading state
+    return OrderChanges.full( version, getOrderState() );
+  }
+
+  /**
+   * How long the orders of each priority have waited to be picked,
+   *  see PickQueue
+   * @return The waits, one for each priority
+   */
+  public List<QueueWait> getQueueWaits()
+         throws OrderException
+  {
+    return thePickQueue.getQueueWaits();
+  }
+
+  /**
+   * Tell the listener whenever the orders change
+   * @param l The listener
+   */
+  public void addOrderListener( OrderListener l )
+         throws OrderException
+  {
+    theChanges.addListener( l );
+  }
+
+  /**
+   * Stop telling the listener when the orders change
+   * @param l The listener added
+   */
+  public void removeOrderListener( OrderListener l )
+         throws OrderException
+  {
+    theChanges.removeListener( l );
+  }
+}
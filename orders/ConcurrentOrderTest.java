@@ -0,0 +1,236 @@
+package orders;
+
+import catalogue.Basket;
+import catalogue.PickWave;
+import catalogue.Product;
+import middle.OrderChanges;
+import middle.OrderException;
+import middle.OrderProcessing;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Stress test of ConcurrentOrder, with many tills, pickers and a
+ *  display using it at once.
+ * <P>
+ * Tills add orders while pickers take them, some waiting for an order
+ *  (takeOrderToPick), some asking without waiting (getOrderToPick) and
+ *  some taking waves (takeWaveToPick). A collector collects the orders
+ *  picked and a display keeps a copy of the state of the orders from
+ *  the changes (getOrderChanges), as the display client does.
+ * Checks every order is picked exactly once, none is lost, every order
+ *  is collected, and the copy kept by the display is the same as the
+ *  state of the order processing system.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+public class ConcurrentOrderTest
+{
+  private static final int TILLS   = 4;          // Adding orders
+  private static final int ORDERS  = 500;        //  each
+  private static final int TOTAL   = TILLS * ORDERS;
+  private static final Duration WAIT = Duration.ofMillis( 20 );
+
+  private final ConcurrentOrder theOrders = new ConcurrentOrder();
+
+  private final Set<Integer> thePlaced    = ConcurrentHashMap.newKeySet();
+  private final Set<Integer> thePicked    = ConcurrentHashMap.newKeySet();
+  private final Set<Integer> theCollected = ConcurrentHashMap.newKeySet();
+  private final Set<Integer> theHeld      = ConcurrentHashMap.newKeySet();
+  private final List<Integer> theTwice    =
+                Collections.synchronizedList( new ArrayList<>() );
+  private final BlockingQueue<Integer> theToCollect = new LinkedBlockingQueue<>();
+  private final AtomicInteger theLeft     = new AtomicInteger( TOTAL );
+
+  @Test
+  @Timeout( 120 )
+  public void manyTillsAndPickers() throws Exception
+  {
+    ExecutorService pool    = Executors.newCachedThreadPool();
+    List<Future<?>> workers = new ArrayList<>();
+    AtomicBoolean   stop    = new AtomicBoolean( false );
+    CountDownLatch  start   = new CountDownLatch( 1 );
+
+    for ( int t = 0; t < TILLS; t++ )
+      workers.add( pool.submit( () -> { start.await(); till(); return null; } ) );
+    workers.add( pool.submit( () -> { start.await(); picker( p -> p.takeOrderToPick( WAIT ) ); return null; } ) );
+    workers.add( pool.submit( () -> { start.await(); picker( p -> p.takeOrderToPick( WAIT ) ); return null; } ) );
+    workers.add( pool.submit( () -> { start.await(); picker( p -> p.getOrderToPick() ); return null; } ) );
+    workers.add( pool.submit( () -> { start.await(); wavePicker(); return null; } ) );
+    workers.add( pool.submit( () -> { start.await(); wavePicker(); return null; } ) );
+    Future<?> collector = pool.submit( () -> { start.await(); collector(); return null; } );
+
+    LinkedHashMap<Integer,String> copy = new LinkedHashMap<>();
+    long[] version = { 0 };
+    Future<?> display = pool.submit( () -> {
+      start.await();
+      while ( ! stop.get() ) version[0] = replay( copy, version[0] );
+      return null;
+    } );
+
+    start.countDown();
+    for ( Future<?> worker : workers ) worker.get();
+    theToCollect.put( 0 );                       // No more to collect
+    collector.get();
+    stop.set( true );
+    display.get();
+
+    // Some orders left being picked and to be collected
+    assertEquals( TOTAL, thePlaced.size(), "Orders placed" );
+    assertTrue( theTwice.isEmpty(), "Picked more than once " + theTwice );
+    assertEquals( thePlaced, thePicked, "Every order picked" );
+    assertSameState( copy, replay( copy, version[0] ) );
+
+    // Finish the orders left
+    for ( int orderNum : theHeld )
+      assertTrue( theOrders.informOrderPicked( orderNum ), "Held " + orderNum );
+    for ( int orderNum : thePicked )
+      if ( ! theCollected.contains( orderNum ) )
+      {
+        assertTrue( theOrders.informOrderCollected( orderNum ),
+                    "Collect " + orderNum );
+        theCollected.add( orderNum );
+      }
+    assertEquals( thePlaced, theCollected, "Every order collected" );
+    for ( String key : OrderChanges.KEYS )
+      assertTrue( theOrders.getOrderState().get( key ).isEmpty(), key );
+    long now = replay( copy, version[0] );
+    assertTrue( copy.isEmpty(), "Display shows " + copy );
+    assertSameState( copy, now );
+    pool.shutdownNow();
+  }
+
+  /**
+   * Add orders, as a till
+   */
+  private void till() throws OrderException
+  {
+    for ( int i = 0; i < ORDERS; i++ )
+    {
+      Basket basket = new Basket();
+      basket.setOrderNum( theOrders.uniqueNumber() );
+      basket.setPriority( i % 5 == 0 ? Basket.Priority.Express
+                                     : Basket.Priority.Standard );
+      basket.add( new Product( String.format( "%04d", 1 + i % 7 ),
+                               "Product", 1.0, 1 + i % 3 ) );
+      theOrders.newOrder( basket );
+      assertTrue( thePlaced.add( basket.getOrderNum() ) );
+    }
+  }
+
+  /**
+   * Takes one order to pick
+   */
+  private interface Take
+  {
+    Basket take( OrderProcessing orders ) throws OrderException;
+  }
+
+  /**
+   * Pick orders one at a time, until all have been picked
+   */
+  private void picker( Take take ) throws Exception
+  {
+    while ( theLeft.get() > 0 )
+    {
+      Basket basket = take.take( theOrders );
+      if ( basket == null ) continue;
+      theLeft.decrementAndGet();
+      picked( basket.getOrderNum() );
+    }
+  }
+
+  /**
+   * Pick waves of orders, until all have been picked
+   */
+  private void wavePicker() throws Exception
+  {
+    while ( theLeft.get() > 0 )
+    {
+      PickWave wave = theOrders.takeWaveToPick( 4, WAIT );
+      if ( wave == null ) continue;
+      theLeft.addAndGet( - wave.size() );
+      for ( int orderNum : wave.getOrderNums() ) picked( orderNum );
+    }
+  }
+
+  /**
+   * An order has been picked. Every 7th is left being picked
+   */
+  private void picked( int orderNum ) throws Exception
+  {
+    if ( ! thePicked.add( orderNum ) ) theTwice.add( orderNum );
+    if ( orderNum % 7 == 0 )
+    {
+      theHeld.add( orderNum );
+      return;
+    }
+    assertTrue( theOrders.informOrderPicked( orderNum ), "Picked " + orderNum );
+    theToCollect.put( orderNum );
+  }
+
+  /**
+   * Collect the orders picked, until told to stop by order 0.
+   * Every 5th is left to be collected
+   */
+  private void collector() throws Exception
+  {
+    for ( int orderNum = theToCollect.take(); orderNum != 0;
+          orderNum = theToCollect.take() )
+    {
+      if ( orderNum % 5 == 0 ) continue;
+      assertTrue( theOrders.informOrderCollected( orderNum ),
+                  "Collected " + orderNum );
+      theCollected.add( orderNum );
+    }
+  }
+
+  /**
+   * Bring the display's copy of the state of the orders up to date
+   * @return The version the copy is now up to
+   */
+  private long replay( LinkedHashMap<Integer,String> copy, long since )
+          throws OrderException
+  {
+    OrderChanges changes = theOrders.getOrderChanges( since );
+    changes.applyTo( copy );
+    return changes.getVersion();
+  }
+
+  /**
+   * Check the copy is the same as the state of the order processing system
+   */
+  private void assertSameState( LinkedHashMap<Integer,String> copy, long version )
+          throws OrderException
+  {
+    assertEquals( version, theOrders.getOrderChanges( version ).getVersion(),
+                  "Changed while checking" );
+    Map<String,List<Integer>> shown = OrderChanges.asOrderState( copy );
+    Map<String,List<Integer>> state = theOrders.getOrderState();
+    for ( String key : OrderChanges.KEYS )
+      assertEquals( new HashSet<>( state.get( key ) ),
+                    new HashSet<>( shown.get( key ) ), key );
+  }
+}
@@ -0,0 +1,464 @@
+package orders;
+
+import catalogue.Basket;
+import catalogue.PickWave;
+import debug.DEBUG;
+import middle.OrderChanges;
+import middle.OrderException;
+import middle.OrderListener;
+import middle.OrderNumberLease;
+import middle.OrderProcessing;
+import middle.QueueWait;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records every change made to the orders of an order processing system
+ *  in an OrderJournal, so the open orders are not lost and order
+ *  numbers are not used again when the system is restarted.
+ * <P>
+ * On start up the open orders recovered from the journal are put back
+ *  into the order processing system in the state they were left in.
+ * A change is only reported as done once its journal record is on disk.
+ * The lock is only held while a record is added to the journal, not
+ *  while the change is made to the orders in memory or while waiting
+ *  for the disk, so changes by many tills and pickers are made at the
+ *  same time and their records written to disk together.
+ * A new order is recorded before it can be picked, the other changes
+ *  after they are made. An order is only ever moved on to a later
+ *  state, so it does not matter if the records of the changes to an
+ *  order made by two clients at once are added the other way round.
+ * The order numbers are handed out here without locking, see
+ *  OrderNumbers. Before a number is handed out, a block of
+ *  catshop.journal.reserve numbers (default 1000) from it on is
+ *  recorded in the journal, so after a restart numbering carries on
+ *  after the block and no number is handed out twice.
+ * If numbers are used again (catshop.order.max), the numbers not used
+ *  by an open order are free again after a restart, once any lease
+ *  handed out before the restart has run out.
+ * <P>
+ * A snapshot of the open orders is written after every
+ *  catshop.journal.snapshot records (default 100000).
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public class JournalledOrder implements OrderProcessing
+{
+  private final OrderProcessing theOrders;     // Orders in memory
+  private final OrderJournal    theJournal;    // Changes on disk
+
+  // Open orders as recorded in the journal, in the order placed
+  private final LinkedHashMap<Integer,OrderJournal.Entry> theEntries;
+  private final OrderNumbers    theNumbers;    // Hands out numbers
+  // Numbers below this are recorded in the journal as handed out
+  private volatile int theReserved;
+  private volatile long theReservedSeq = 0;    // By this record
+  private long theSinceSnapshot = 0;           // Records since snapshot
+
+  private static final int SNAPSHOT_EVERY =
+                       Integer.getInteger( "catshop.journal.snapshot", 100000 );
+  // Numbers recorded at once, fewer if only MAX numbers are used
+  //  so a restart does not leave them all waiting to be used again
+  private static final int RESERVE = OrderNumbers.MAX > 0
+         ? Math.max( 1, Math.min( Integer.getInteger( "catshop.journal.reserve", 1000 ),
+                                  OrderNumbers.MAX / 10 ) )
+         : Math.max( 1, Integer.getInteger( "catshop.journal.reserve", 1000 ) );
+
+  /**
+   * Recover the orders in the journal directory into orders
+   * @param orders An empty order processing system
+   * @param dir    Directory holding the journal
+   * @throws OrderException if the journal can not be used
+   */
+  public JournalledOrder( OrderProcessing orders, File dir )
+         throws OrderException
+  {
+    theOrders = orders;
+    try
+    {
+      theJournal = new OrderJournal( dir );
+      OrderJournal.Recovered rec = theJournal.recover();
+      theEntries    = rec.getEntries();
+      theNumbers    = new OrderNumbers( rec.getNextNumber() );
+      theReserved   = rec.getNextNumber();
+      restore();
+      theNumbers.freeAllBut( theEntries.keySet() );
+      DEBUG.traceA( "Recovered %d orders from %d journal records in %dms",
+                    theEntries.size(), rec.getEvents(), rec.getMillis() );
+      if ( rec.getEvents() > 0 )                 // Start afresh next time
+        theJournal.snapshot( theEntries.values(), theReserved );
+    } catch ( IOException e )
+    {
+      throw new OrderException( "Journal: " + e.getMessage() );
+    }
+  }
+
+  /**
+   * Put the recovered orders back into the order processing system.
+   * Orders already being picked or picked are added first, so they are
+   *  the orders handed out when getOrderToPick is called for them.
+   * Each keeps the time it was first placed, so it keeps its place in
+   *  the queue and how long it has waited is not lost.
+   */
+  private void restore() throws IOException, OrderException
+  {
+    List<Integer> picked = new ArrayList<>();
+    for ( OrderJournal.Entry entry : theEntries.values() )
+    {
+      if ( entry.getState() == OrderJournal.State.Waiting ) continue;
+      theOrders.newOrder( entry.getBasket() );
+      theOrders.getOrderToPick();
+      if ( entry.getState() == OrderJournal.State.ToBeCollected )
+        picked.add( entry.getOrderNum() );
+    }
+    for ( int orderNum : picked )
+      theOrders.informOrderPicked( orderNum );
+    for ( OrderJournal.Entry entry : theEntries.values() )
+      if ( entry.getState() == OrderJournal.State.Waiting )
+        theOrders.newOrder( entry.getBasket() );
+  }
+
+  /**
+   * Generates a unique order number, not in use
+   *  even if the system has been restarted
+   * @return A unique order number
+   */
+  public int uniqueNumber()
+         throws OrderException
+  {
+    int num = theNumbers.next();
+    reserve( num );
+    return num;
+  }
+
+  /**
+   * Hands out a block of order numbers for a till to use,
+   *  see OrderNumberLease
+   * @param count How many numbers
+   * @return The lease of the numbers
+   */
+  public OrderNumberLease leaseNumbers( int count )
+         throws OrderException
+  {
+    int[] nums = theNumbers.lease( count );
+    int   top  = 0;
+    for ( int num : nums ) top = Math.max( top, num );
+    reserve( top );
+    return new OrderNumberLease( nums, OrderNumbers.LEASE );
+  }
+
+  /**
+   * Make sure a number about to be handed out is recorded in the
+   *  journal, recording the next block of numbers if it is not.
+   * Only locks once for each block, and waits for the disk without
+   *  holding the lock.
+   * @param num The number
+   */
+  private void reserve( int num ) throws OrderException
+  {
+    long seq;
+    if ( num < theReserved )                     // Already recorded
+    {
+      seq = theReservedSeq;                      // Read after theReserved
+    } else {
+      synchronized ( this )
+      {
+        if ( num >= theReserved )
+        {
+          int upTo = num + RESERVE * OrderNumbers.SHARDS; // RESERVE of ours
+          if ( OrderNumbers.MAX > 0 )            // Never past the last
+            upTo = Math.max( num + 1, Math.min( upTo, OrderNumbers.MAX + 1 ) );
+          theReservedSeq = theJournal.number( upTo - 1 );
+          theReserved    = upTo;                 // Before any snapshot
+          counted();
+        }
+        seq = theReservedSeq;
+      }
+    }
+    durable( seq );                              // Maybe not on disk yet
+  }
+
+  /**
+   * Add a new order to the order processing system.
+   * An order number already in the system is refused before anything
+   *  is recorded, so the open order using it is not lost
+   * @param bought A new order that is to be processed
+   */
+  public void newOrder( Basket bought )
+         throws OrderException
+  {
+    int num = bought.getOrderNum();
+    if ( bought.getPlaced() == 0 ) bought.setPlaced( System.currentTimeMillis() );
+    byte[] basket = OrderJournal.encode( bought );
+    OrderJournal.Entry entry =
+      new OrderJournal.Entry( num, basket, OrderJournal.State.Waiting );
+    long   seq;
+    synchronized ( this )                        // Before it can be picked
+    {
+      if ( theEntries.containsKey( num ) )
+        throw new OrderException( "Order " + num + " already in the system" );
+      theEntries.put( num, entry );
+      theNumbers.inUse( num );
+      seq = theJournal.newOrder( num, basket );
+      if ( num >= theReserved )                  // In NEW record
+      {
+        theReservedSeq = seq;
+        theReserved    = num + 1;
+      }
+      counted();
+    }
+    try
+    {
+      theOrders.newOrder( bought );
+    } catch ( OrderException | RuntimeException e )
+    {
+      synchronized ( this )                      // Not added, so forget it
+      {
+        if ( theEntries.remove( num, entry ) )   //  Only if ours
+        {
+          theNumbers.free( num );
+          theJournal.collected( num );
+          counted();
+        }
+      }
+      throw e;
+    }
+    durable( seq );
+  }
+
+  /**
+   * Returns an order to pick from the warehouse.
+   * @return An order to pick or null if no order
+   */
+  public Basket getOrderToPick()
+         throws OrderException
+  {
+    Basket basket = theOrders.getOrderToPick();
+    if ( basket == null ) return null;
+    long seq;
+    synchronized ( this )
+    {
+      newState( basket.getOrderNum(), OrderJournal.State.BeingPicked );
+      seq = theJournal.picking( basket.getOrderNum() );
+      counted();
+    }
+    durable( seq );
+    return basket;
+  }
+
+  /**
+   * Returns an order to pick from the warehouse, waiting for
+   *  one to be added if there is none.
+   * Does not stop other changes being made while waiting.
+   * @param timeout Longest time to wait
+   * @return An order to pick or null if none added in time
+   */
+  public Basket takeOrderToPick( Duration timeout )
+         throws OrderException
+  {
+    Basket basket = theOrders.takeOrderToPick( timeout );
+    if ( basket == null ) return null;
+    long seq;
+    synchronized ( this )
+    {
+      newState( basket.getOrderNum(), OrderJournal.State.BeingPicked );
+      seq = theJournal.picking( basket.getOrderNum() );
+      counted();
+    }
+    durable( seq );
+    return basket;
+  }
+
+  /**
+   * Returns a wave of orders to pick together from the warehouse,
+   *  waiting for an order to be added if there is none.
+   * Does not stop other changes being made while waiting.
+   * Only waits once for the records of the whole wave to be on disk.
+   * @param maxOrders Most orders in the wave
+   * @param timeout   Longest time to wait for an order
+   * @return A wave of orders to pick or null if none added in time
+   */
+  public PickWave takeWaveToPick( int maxOrders, Duration timeout )
+         throws OrderException
+  {
+    PickWave wave = theOrders.takeWaveToPick( maxOrders, timeout );
+    if ( wave == null ) return null;
+    long seq = 0;
+    synchronized ( this )
+    {
+      for ( int orderNum : wave.getOrderNums() )
+      {
+        newState( orderNum, OrderJournal.State.BeingPicked );
+        seq = theJournal.picking( orderNum );
+        counted();
+      }
+    }
+    durable( seq );
+    return wave;
+  }
+
+  /**
+   * Informs the order processing system that the order has been
+   * picked and the products are now being delivered to the
+   * collection desk
+   * @param  orderNum The order that has been picked
+   * @return true Order in system, false no such order
+   */
+  public boolean informOrderPicked( int orderNum )
+         throws OrderException
+  {
+    if ( ! theOrders.informOrderPicked( orderNum ) ) return false;
+    long seq;
+    synchronized ( this )
+    {
+      newState( orderNum, OrderJournal.State.ToBeCollected );
+      seq = theJournal.picked( orderNum );
+      counted();
+    }
+    durable( seq );
+    return true;
+  }
+
+  /**
+   * Informs the order processing system that the orders of a wave
+   *  have been picked.
+   * Only waits once for the records of the whole wave to be on disk.
+   * @param  orderNums The orders that have been picked
+   * @return The number of the orders that were being picked
+   */
+  public int informOrdersPicked( List<Integer> orderNums )
+         throws OrderException
+  {
+    List<Integer> moved = new ArrayList<>();
+    for ( int orderNum : orderNums )
+      if ( theOrders.informOrderPicked( orderNum ) ) moved.add( orderNum );
+    if ( moved.isEmpty() ) return 0;
+    long seq = 0;
+    synchronized ( this )
+    {
+      for ( int orderNum : moved )
+      {
+        newState( orderNum, OrderJournal.State.ToBeCollected );
+        seq = theJournal.picked( orderNum );
+        counted();
+      }
+    }
+    durable( seq );
+    return moved.size();
+  }
+
+  /**
+   * Informs the order processing system that the order has been
+   * collected by the customer
+   * @return true If order is in the system, otherwise false
+   */
+  public boolean informOrderCollected( int orderNum )
+         throws OrderException
+  {
+    if ( ! theOrders.informOrderCollected( orderNum ) ) return false;
+    long seq;
+    synchronized ( this )
+    {
+      theEntries.remove( orderNum );
+      theNumbers.free( orderNum );
+      seq = theJournal.collected( orderNum );
+      counted();
+    }
+    durable( seq );
+    return true;
+  }
+
+  /**
+   * Returns information about all the orders (there order number)
+   * in the order processing system, see Order.getOrderState()
+   * @return a Map with the keys: "Waiting", "BeingPicked", "ToBeCollected"
+   */
+  public Map<String, List<Integer> > getOrderState()
+         throws OrderException
+  {
+    return theOrders.getOrderState();
+  }
+
+  /**
+   * Returns the changes made to the orders since a version,
+   *  see OrderChanges
+   * @param since The version the caller is up to
+   * @return The changes, or the whole state if the version is too old
+   */
+  public OrderChanges getOrderChanges( long since )
+         throws OrderException
+  {
+    return theOrders.getOrderChanges( since );
+  }
+
+  public List<QueueWait> getQueueWaits()
+         throws OrderException
+  {
+    return theOrders.getQueueWaits();
+  }
+
+  public void addOrderListener( OrderListener l )
+         throws OrderException
+  {
+    theOrders.addOrderListener( l );
+  }
+
+  public void removeOrderListener( OrderListener l )
+         throws OrderException
+  {
+    theOrders.removeOrderListener( l );
+  }
+
+  /**
+   * Return a one line summary of the journal metrics
+   * @return Description of the state of the journal
+   */
+  public String getStats()
+  {
+    return theJournal.getStats();
+  }
+
+  /**
+   * Must be called holding the lock on this
+   */
+  private void newState( int orderNum, OrderJournal.State state )
+  {
+    OrderJournal.Entry entry = theEntries.get( orderNum );
+    if ( entry != null ) entry.newState( state );
+  }
+
+  /**
+   * Count a record added to the journal, asking for a snapshot
+   *  when enough have been added.
+   * Must be called holding the lock on this
+   */
+  private void counted()
+  {
+    if ( ++theSinceSnapshot >= SNAPSHOT_EVERY )
+    {
+      theJournal.snapshot( theEntries.values(), theReserved );
+      theSinceSnapshot = 0;
+    }
+  }
+
+  /**
+   * Wait until the journal record is on disk
+   */
+  private void durable( long seq ) throws OrderException
+  {
+    try
+    {
+      theJournal.await( seq );
+    } catch ( IOException e )
+    {
+      throw new OrderException( "Journal: " + e.getMessage() );
+    }
+  }
+}
@@ -1,14 +1,19 @@
 package orders;
 
 import catalogue.Basket;
-import catalogue.Product;
+import catalogue.PickWave;
 import debug.DEBUG;
+import middle.OrderChanges;
 import middle.OrderException;
+import middle.OrderListener;
+import middle.OrderNumberLease;
 import middle.OrderProcessing;
+import middle.QueueWait;
+import middle.WaitTime;
 
-import java.util.stream.Collectors;
-
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The order processing system.<BR>
@@ -18,66 +23,61 @@ import java.util.*;
  * <BR><B>Waiting to be processed<BR>
  * Currently being picked<BR>
  * Waiting to be collected<BR></B>
+ * Moving an order from one stage to the next takes the same time
+ *  however many orders are in the system.
+ * Waiting orders are picked most urgent first, see PickQueue.
  * @author  Mike Smith University of Brighton
- * @version 3.0
+ * @version 3.1
  */
  
 public class Order implements OrderProcessing
 {
   private enum State {Waiting, BeingPicked, ToBeCollected };
-  /**
-   * Wraps a Basket and it state into a folder
-   */
-  private class Folder
-  {
-    private State  stateIs;       // Order state
-    private Basket basket;        // For this basket
-    
-    public Folder( Basket anOrder )
-    {
-      stateIs = State.Waiting;
-      basket  = anOrder;
-    }
 
-    public State getState()                { return this.stateIs; }
+  // Active orders in the Catshop system, one queue for each state.
+  //  Each queue is in the order the orders entered that state
+  //  and is indexed by order number, so an order can be found,
+  //  moved on or removed without looking at the other orders.
+  private final EnumMap<State,LinkedHashMap<Integer,Basket>> queues =
+                new EnumMap<>( State.class );
+  // Order numbers, starting at order 1
+  private static final OrderNumbers theNumbers = new OrderNumbers( 1 );
+  private final OrderChangeLog theChanges = new OrderChangeLog();
+  // Waiting orders most urgent first, and how long orders waited
+  private final TreeSet<PickQueue.Ticket> theUrgent =
+                new TreeSet<>( PickQueue.URGENCY );
+  private final HashMap<Integer,PickQueue.Ticket> theTickets = new HashMap<>();
+  private final PickQueue thePickQueue = new PickQueue();
 
-    public Basket getBasket()              { return this.basket; }
-
-    public void newState( State newState ) { stateIs = newState; }
+  public Order()
+  {
+    for ( State state : State.values() )
+      queues.put( state, new LinkedHashMap<>() );
   }
-  
-  // Active orders in the Catshop system
-  private final ArrayList<Folder>  folders = new ArrayList<>();
-  private static int theNextNumber = 1;          // Start at order 1
 
-  /**  
-   * Used to generate debug information
-   * @param  basket an instance of a basket
-   * @return Description of contents
+  /**
+   * Generates a unique order number, without locking the system.
+   * Numbers are used again if catshop.order.max is set,
+   *  see OrderNumbers
+   * @return A unique order number
    */
-  private String asString( Basket basket )
+  public int uniqueNumber()
+         throws OrderException
   {
-    StringBuilder sb = new StringBuilder(1024);
-    Formatter     fr = new Formatter(sb);
-    fr.format( "#%d (", basket.getOrderNum() );
-    for ( Product pr: basket )
-    {
-       fr.format( "%-15.15s: %3d ", pr.getDescription(), pr.getQuantity() );
-    }
-    fr.format( ")" );
-    fr.close();
-    return sb.toString();
+    return theNumbers.next();
   }
 
   /**
-   * Generates a unique order number
-   *   would be good to recycle numbers after 999
-   * @return A unique order number
+   * Hands out a block of order numbers for a till to use,
+   *  see OrderNumberLease
+   * @param count How many numbers
+   * @return The lease of the numbers
    */
-  public synchronized int uniqueNumber()
+  public OrderNumberLease leaseNumbers( int count )
          throws OrderException
   {
-    return theNextNumber++;
+    return new OrderNumberLease( theNumbers.lease( count ),
+                                 OrderNumbers.LEASE );
   }
 
   /**
@@ -87,33 +87,100 @@ public class Order implements OrderProcessing
   public synchronized void newOrder( Basket bought )
          throws OrderException
   {
-    DEBUG.trace( "DEBUG: New order" );
-    folders.add( new Folder( bought ) );
-    for ( Folder bws : folders )
-    {
-       DEBUG.trace( "Order: " + asString( bws.getBasket() ) );
-    }
+    DEBUG.trace( "DEBUG: New order #%d", bought.getOrderNum() );
+    queues.get( State.Waiting ).put( bought.getOrderNum(), bought );
+    PickQueue.Ticket ticket = new PickQueue.Ticket( bought );
+    PickQueue.Ticket old    = theTickets.put( bought.getOrderNum(), ticket );
+    if ( old != null ) theUrgent.remove( old );  // Same order again
+    theUrgent.add( ticket );
+    theNumbers.inUse( bought.getOrderNum() );
+    theChanges.record( bought.getOrderNum(), "Waiting" );
+    notifyAll();                                 // Wake the pickers
   }
 
   /**
    * Returns an order to pick from the warehouse.
-   * @return An order to pick or null if no order
+   * @return The most urgent order to pick or null if no order
    */
   public synchronized Basket getOrderToPick()
          throws OrderException
   {
     DEBUG.trace( "DEBUG: Get order to pick" );
-    Basket foundWaiting = null;
-    for ( Folder bws : folders )
+    PickQueue.Ticket ticket = theUrgent.pollFirst();
+    return ticket == null ? null : take( ticket );
+  }
+
+  /**
+   * Give a waiting order to a picker
+   * @param ticket The order, no longer in theUrgent
+   * @return The order
+   */
+  private Basket take( PickQueue.Ticket ticket )
+  {
+    int orderNum = ticket.getBasket().getOrderNum();
+    theTickets.remove( orderNum );
+    moveOn( orderNum, State.Waiting, State.BeingPicked );
+    thePickQueue.picked( ticket );
+    return ticket.getBasket();
+  }
+
+  /**
+   * Returns an order to pick from the warehouse, waiting for
+   *  one to be added if there is none.
+   * @param timeout Longest time to wait
+   * @return An order to pick or null if none added in time
+   */
+  public synchronized Basket takeOrderToPick( Duration timeout )
+         throws OrderException
+  {
+    long deadline = System.nanoTime() + WaitTime.nanos( timeout );
+    Basket found;
+    while ( ( found = getOrderToPick() ) == null )
     {
-      if ( bws.getState() == State.Waiting )
+      long left = deadline - System.nanoTime();
+      if ( left <= 0 ) return null;
+      try
       {
-        foundWaiting = bws.getBasket();
-        bws.newState( State.BeingPicked );
-        break;
+        TimeUnit.NANOSECONDS.timedWait( this, left );  // Till newOrder
+      } catch ( InterruptedException e )
+      {
+        Thread.currentThread().interrupt();
+        throw new OrderException( "Interrupted waiting for an order" );
       }
     }
-    return foundWaiting;
+    return found;
+  }
+
+  /**
+   * Returns a wave of orders to pick together from the warehouse,
+   *  waiting for an order to be added if there is none,
+   *  see PickWave and WavePlanner.
+   * @param maxOrders Most orders in the wave
+   * @param timeout   Longest time to wait for an order
+   * @return A wave of orders to pick or null if none added in time
+   */
+  public synchronized PickWave takeWaveToPick( int maxOrders, Duration timeout )
+         throws OrderException
+  {
+    DEBUG.trace( "DEBUG: Get wave of up to %d orders to pick", maxOrders );
+    LinkedHashMap<Integer,Basket> waiting = queues.get( State.Waiting );
+    if ( ! WavePlanner.await( this, waiting::size, maxOrders, timeout ) )
+      return null;
+    List<Basket> urgent = new ArrayList<>();
+    for ( PickQueue.Ticket ticket : theUrgent )
+    {
+      if ( urgent.size() >= WavePlanner.WINDOW ) break;
+      urgent.add( ticket.getBasket() );
+    }
+    List<Basket> wave = WavePlanner.choose( urgent, maxOrders );
+    for ( Basket basket : wave )
+    {
+      PickQueue.Ticket ticket = theTickets.get( basket.getOrderNum() );
+      theUrgent.remove( ticket );
+      take( ticket );
+    }
+    if ( ! waiting.isEmpty() ) notifyAll();      // Left for the others
+    return new PickWave( wave );
   }
 
   /**
@@ -127,16 +194,22 @@ public class Order implements OrderProcessing
          throws OrderException
   {
     DEBUG.trace( "DEBUG: Order picked [%d]", orderNum );
-    for ( int i=0; i < folders.size(); i++)
-    {
-      if ( folders.get(i).getBasket().getOrderNum() == orderNum && 
-           folders.get(i).getState()                == State.BeingPicked )
-      {
-        folders.get(i).newState( State.ToBeCollected );
-        return true;
-      }
-    }
-    return false;
+    return moveOn( orderNum, State.BeingPicked, State.ToBeCollected );
+  }
+
+  /**
+   * Informs the order processing system that the orders of a wave
+   *  have been picked
+   * @param  orderNums The orders that have been picked
+   * @return The number of the orders that were being picked
+   */
+  public synchronized int informOrdersPicked( List<Integer> orderNums )
+         throws OrderException
+  {
+    int moved = 0;
+    for ( int orderNum : orderNums )
+      if ( informOrderPicked( orderNum ) ) moved++;
+    return moved;
   }
 
   /**
@@ -148,16 +221,27 @@ public class Order implements OrderProcessing
          throws OrderException
   {
     DEBUG.trace( "DEBUG: Order collected [%d]", orderNum );
-    for ( int i=0; i < folders.size(); i++)
-    {
-      if ( folders.get(i).getBasket().getOrderNum() == orderNum &&
-           folders.get(i).getState()                == State.ToBeCollected )
-      {
-        folders.remove(i);
-        return true;
-      }
-    }
-    return false;
+    if ( queues.get( State.ToBeCollected ).remove( orderNum ) == null )
+      return false;
+    theNumbers.free( orderNum );
+    theChanges.record( orderNum, null );
+    return true;
+  }
+
+  /**
+   * Move an order from one state to the next
+   * @param orderNum The order
+   * @param from     State the order must be in
+   * @param to       New state of the order
+   * @return true if the order was in state from, otherwise false
+   */
+  private boolean moveOn( int orderNum, State from, State to )
+  {
+    Basket basket = queues.get( from ).remove( orderNum );
+    if ( basket == null ) return false;
+    queues.get( to ).put( orderNum, basket );
+    theChanges.record( orderNum, to.name() );
+    return true;
   }
 
   /**
@@ -187,21 +271,50 @@ public class Order implements OrderProcessing
   }
 
   /**
-   * Return the list of order numbers in selected state
-   * @param inState The state to find order numbers in
-   * @return A list of order numbers
+   * Returns the changes made to the orders since a version of the
+   *  state of the order processing system, see OrderChanges.
+   * Does not build the lists of orders unless the version is too old.
+   * @param since The version the caller is up to
+   * @return The changes, or the whole state if the version is too old
    */
-  private List<Integer> orderNumsOldWay( State inState )
+  public synchronized OrderChanges getOrderChanges( long since )
+         throws OrderException
   {
-    List <Integer> res = new ArrayList<>();
-    for ( Folder folder : folders )
-    {
-      if ( folder.getState() == inState )
-      {
-       res.add( folder.getBasket().getOrderNum() );
-      }
-    }
-    return res;
+    OrderChanges res = theChanges.since( since );
+    return res != null ? res
+                       : OrderChanges.full( theChanges.getVersion(),
+                                            getOrderState() );
+  }
+
+  /**
+   * How long the orders of each priority have waited to be picked,
+   *  see PickQueue
+   * @return The waits, one for each priority
+   */
+  public List<QueueWait> getQueueWaits()
+         throws OrderException
+  {
+    return thePickQueue.getQueueWaits();
+  }
+
+  /**
+   * Tell the listener whenever the orders change
+   * @param l The listener
+   */
+  public void addOrderListener( OrderListener l )
+         throws OrderException
+  {
+    theChanges.addListener( l );
+  }
+
+  /**
+   * Stop telling the listener when the orders change
+   * @param l The listener added
+   */
+  public void removeOrderListener( OrderListener l )
+         throws OrderException
+  {
+    theChanges.removeListener( l );
   }
 
   /**
@@ -211,9 +324,6 @@ public class Order implements OrderProcessing
    */
   private List<Integer> orderNums( State inState )
   {
-    return folders.stream()
-            .filter( folder -> folder.getState() == inState ) 
-            .map( folder -> folder.getBasket().getOrderNum() )
-            .collect( Collectors.toList() );
+    return new ArrayList<>( queues.get( inState ).keySet() );
   }
 }
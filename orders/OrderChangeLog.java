@@ -0,0 +1,120 @@
+package orders;
+
+import middle.OrderChanges;
+import middle.OrderListener;
+
+import java.util.LinkedHashMap;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Records the most recent changes made to the orders in an order
+ *  processing system, so a display can ask for just the changes
+ *  since it last looked (see OrderChanges).
+ * <P>
+ * Each change moves the system on one version. The version starts
+ *  from the time the log was created (ms * 1000), so it keeps going up
+ *  when the system is restarted and a display never mistakes the
+ *  versions of the restarted system for those it has already seen.
+ * The last catshop.order.changes changes (default 10000) are kept.
+ * Listeners added are told of each change (see OrderNotifier).
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+class OrderChangeLog
+{
+  private static final int SIZE =
+                       Math.max( 1, Integer.getInteger( "catshop.order.changes", 10000 ) );
+
+  // Circular buffer, change for version v held at v % SIZE
+  private final int[]    theOrderNums = new int[ SIZE ];
+  private final String[] theStates    = new String[ SIZE ];
+  private long theVersion = System.currentTimeMillis() * 1000;
+  private int  theCount   = 0;                 // Changes held
+  private final OrderNotifier theNotifier = new OrderNotifier();
+
+  /**
+   * Record a change to an order
+   * @param orderNum The order
+   * @param state    New state, one of OrderChanges.KEYS,
+   *                 null if the order has left the system
+   */
+  public void record( int orderNum, String state )
+  {
+    recordIf( orderNum, state, () -> true );
+  }
+
+  /**
+   * Make a change to an order and record it as one step, so changes
+   *  to an order are recorded in the order they were made
+   * @param orderNum The order
+   * @param state    New state, one of OrderChanges.KEYS,
+   *                 null if the order has left the system
+   * @param change   Makes the change, returning false if it could not
+   * @return true if the change was made and recorded
+   */
+  public boolean recordIf( int orderNum, String state, BooleanSupplier change )
+  {
+    long version;
+    synchronized ( this )
+    {
+      if ( ! change.getAsBoolean() ) return false;
+      version = ++theVersion;
+      int i = (int) ( version % SIZE );
+      theOrderNums[i] = orderNum;
+      theStates[i]    = state;
+      if ( theCount < SIZE ) theCount++;
+    }
+    theNotifier.changed( version );
+    return true;
+  }
+
+  /**
+   * Add a listener to be told when the orders change
+   * @param listener The listener
+   */
+  public void addListener( OrderListener listener )
+  {
+    theNotifier.addListener( listener );
+  }
+
+  /**
+   * Stop telling a listener when the orders change
+   * @param listener The listener added
+   */
+  public void removeListener( OrderListener listener )
+  {
+    theNotifier.removeListener( listener );
+  }
+
+  /**
+   * The version the system is now up to
+   * @return The current version
+   */
+  public synchronized long getVersion()
+  {
+    return theVersion;
+  }
+
+  /**
+   * Return the changes made since a version, an order changed more
+   *  than once appearing only once with its latest state.
+   * @param since The version the caller is up to
+   * @return The changes, null if not all the changes are still held
+   */
+  public synchronized OrderChanges since( long since )
+  {
+    LinkedHashMap<Integer,String> changes = new LinkedHashMap<>();
+    if ( since == theVersion )                  // Nothing changed
+      return new OrderChanges( theVersion, false, changes );
+    if ( since > theVersion || since < theVersion - theCount )
+      return null;
+    for ( long v = since + 1; v <= theVersion; v++ )
+    {
+      int i = (int) ( v % SIZE );
+      changes.remove( theOrderNums[i] );        // Keep in order changed
+      changes.put( theOrderNums[i], theStates[i] );
+    }
+    return new OrderChanges( theVersion, false, changes );
+  }
+}
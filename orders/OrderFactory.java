@@ -0,0 +1,71 @@
+/**
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+package orders;
+
+import debug.DEBUG;
+import middle.OrderException;
+import middle.OrderProcessing;
+
+import java.io.File;
+
+/**
+  * Chooses which implementation of the order processing system is used.
+  * Set by the system property catshop.order
+  * <PRE>
+  * Order       Orders held in one queue for each state (default)
+  * OrderX      Orders held in one list for each state
+  * Concurrent  No locking of the whole system, see ConcurrentOrder
+  * </PRE>
+  * The changes to the orders are recorded in a journal, so they
+  *  survive a restart (see JournalledOrder). The journal is kept in
+  *  the directory set by the system property catshop.journal
+  *  (default orders.journal), set it to "" to keep orders only in memory.
+  * When the orders are split across servers (see ShardedOrder) each
+  *  shard defaults to its own directory, orders.journal.shard.
+  */
+
+// Pattern: Abstract Factory
+
+public class OrderFactory
+{
+  /**
+   * Return a new order processing system of the kind chosen
+   * @return An object implementing the order processing system
+   */
+  public OrderProcessing getNewOrder()
+  {
+    OrderProcessing orders = getNewOrder( System.getProperty( "catshop.order", "Order" ) );
+    String dir = System.getProperty( "catshop.journal",
+                   OrderNumbers.SHARDS > 1 ? "orders.journal." + OrderNumbers.SHARD
+                                           : "orders.journal" );
+    if ( dir.isEmpty() ) return orders;
+    try
+    {
+      return new JournalledOrder( orders, new File( dir ) );
+    } catch ( OrderException e )
+    {
+      DEBUG.traceA( "Orders will not survive a restart: %s", e.getMessage() );
+      return orders;
+    }
+  }
+
+  private OrderProcessing getNewOrder( String kind )
+  {
+    DEBUG.trace( "OrderFactory: using [%s]", kind );
+    switch ( kind )
+    {
+      case "OrderX" :
+        return new OrderX();
+      case "Concurrent" :
+        return new ConcurrentOrder();
+      case "Order" :
+        return new Order();
+      default:
+        DEBUG.traceA( "Order processing [%s] not known, using Order", kind );
+        return new Order();
+    }
+  }
+}
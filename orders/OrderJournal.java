@@ -0,0 +1,589 @@
+package orders;
+
+import catalogue.Basket;
+import catalogue.Product;
+import debug.DEBUG;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append only journal of the changes made to the orders in the
+ *  order processing system, so the orders can be recovered when
+ *  the system is restarted.
+ * <P>
+ * Each change is written as a record to the end of the current
+ *  journal file, with a checksum so a record only partly written
+ *  when the system stopped is ignored.
+ * Records are written and forced to disk by a background thread.
+ *  All the records added while the last lot were being forced to disk
+ *  are written together and forced to disk once (group commit), so
+ *  many clients adding orders at once share the cost of one force.
+ * <P>
+ * From time to time a snapshot of the open orders is written,
+ *  a new journal file started and the old journal files deleted,
+ *  so only a few records have to be replayed on restart.
+ * The files in the journal directory are
+ * <PRE>
+ * snapshot            Open orders at the start of journal file gen
+ * journal.gen         Changes made since the previous journal file
+ * lock                Stops two systems using the same journal
+ * </PRE>
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public class OrderJournal
+{
+  public enum State {Waiting, BeingPicked, ToBeCollected };
+
+  /**
+   * An open order as recorded in the journal
+   */
+  public static class Entry
+  {
+    private final int    orderNum;
+    private final byte[] basket;           // Encoded basket
+    private State        stateIs;
+
+    public Entry( int anOrderNum, byte[] aBasket, State aState )
+    {
+      orderNum = anOrderNum;
+      basket   = aBasket;
+      stateIs  = aState;
+    }
+
+    public int    getOrderNum()             { return orderNum; }
+    public State  getState()                { return stateIs; }
+    public void   newState( State newState ) // Only ever moves on
+    {
+      if ( newState.compareTo( stateIs ) > 0 ) stateIs = newState;
+    }
+    public Basket getBasket() throws IOException { return decode( basket ); }
+  }
+
+  // Types of record in the journal
+  private static final byte NEW       = 1;   // New order
+  private static final byte PICKING   = 2;   // Given to a picker
+  private static final byte PICKED    = 3;   // Picked
+  private static final byte COLLECTED = 4;   // Collected, order finished
+  private static final byte NUMBER    = 5;   // Order number handed out
+
+  private static final int  SNAPSHOT_MAGIC = 0x43534F31;  // "CSO1"
+
+  private final File        theDir;         // Journal directory
+  private final FileChannel theLockFile;
+  private final FileLock    theLock;        // Only one user of journal
+  private FileChannel       theJournal;     // Current journal file
+  private long              theGen;         //  its number
+
+  // Records waiting to be written, with a snapshot request (Snapshot)
+  //  where the next journal file is to start
+  private ArrayList<Object> thePending  = new ArrayList<>();
+  private long              theAppended = 0; // Records added
+  private long              theDurable  = 0; // Records forced to disk
+  private IOException       theFailure  = null;
+
+  private long theForces  = 0;              // Metrics
+  private long theWritten = 0;
+
+  /**
+   * A snapshot of the open orders to be written
+   */
+  private static class Snapshot
+  {
+    private final List<Entry> entries;
+    private final int         nextNumber;
+
+    Snapshot( List<Entry> someEntries, int aNextNumber )
+    {
+      entries    = someEntries;
+      nextNumber = aNextNumber;
+    }
+  }
+
+  /**
+   * What was recovered from the journal on start up
+   */
+  public static class Recovered
+  {
+    private final LinkedHashMap<Integer,Entry> entries;
+    private final int  nextNumber;
+    private final long events;
+    private final long millis;
+
+    Recovered( LinkedHashMap<Integer,Entry> someEntries, int aNextNumber,
+               long anEvents, long aMillis )
+    {
+      entries    = someEntries;
+      nextNumber = aNextNumber;
+      events     = anEvents;
+      millis     = aMillis;
+    }
+
+    /** Open orders, in the order they were placed */
+    public LinkedHashMap<Integer,Entry> getEntries() { return entries; }
+    /** First order number that has not been handed out */
+    public int  getNextNumber()                      { return nextNumber; }
+    /** Number of journal records replayed */
+    public long getEvents()                          { return events; }
+    /** Time taken to recover the orders in ms */
+    public long getMillis()                          { return millis; }
+  }
+
+  /**
+   * Open the journal in the directory, creating it if required.
+   * @param dir Directory holding the journal files
+   * @throws IOException if the journal is already in use or can not be used
+   */
+  public OrderJournal( File dir ) throws IOException
+  {
+    theDir = dir;
+    if ( ! theDir.isDirectory() && ! theDir.mkdirs() )
+      throw new IOException( "Can not create " + theDir );
+    theLockFile = FileChannel.open( new File( theDir, "lock" ).toPath(),
+                                    StandardOpenOption.CREATE,
+                                    StandardOpenOption.WRITE );
+    FileLock lock;
+    try
+    {
+      lock = theLockFile.tryLock();
+    } catch ( OverlappingFileLockException e )  // Locked by this program
+    {
+      lock = null;
+    }
+    theLock = lock;
+    if ( theLock == null )
+    {
+      theLockFile.close();
+      throw new IOException( "Journal " + theDir + " in use" );
+    }
+  }
+
+  /**
+   * Read the snapshot and the journal files to recover the open orders,
+   *  then start a new journal file for the changes from now on.
+   * Must be called once before any records are added.
+   * @return The open orders and next order number
+   * @throws IOException if the journal can not be read
+   */
+  public Recovered recover() throws IOException
+  {
+    long start = System.currentTimeMillis();
+    LinkedHashMap<Integer,Entry> entries = new LinkedHashMap<>();
+    int  nextNumber = 1;
+    long events     = 0;
+    long fromGen    = 0;
+
+    File snap = new File( theDir, "snapshot" );
+    if ( snap.exists() )
+    {
+      try ( DataInputStream in = new DataInputStream(
+              new BufferedInputStream( new FileInputStream( snap ), 1 << 16 ) ) )
+      {
+        if ( in.readInt() != SNAPSHOT_MAGIC )
+          throw new IOException( "Not a snapshot " + snap );
+        fromGen    = in.readLong();
+        nextNumber = in.readInt();
+        int count  = in.readInt();
+        for ( int i = 0; i < count; i++ )
+        {
+          State  state  = State.values()[ in.readByte() ];
+          int    num    = in.readInt();
+          byte[] basket = new byte[ in.readInt() ];
+          in.readFully( basket );
+          entries.put( num, new Entry( num, basket, state ) );
+        }
+      }
+    }
+
+    long lastGen = fromGen - 1;
+    for ( long gen : journalGens() )
+    {
+      if ( gen < fromGen ) continue;          // Already in snapshot
+      lastGen = gen;
+      File file = journalFile( gen );
+      long good = 0;                          // End of last good record
+      try ( DataInputStream in = new DataInputStream(
+              new BufferedInputStream( new FileInputStream( file ), 1 << 16 ) ) )
+      {
+        while ( true )
+        {
+          byte[] rec;
+          try
+          {
+            int len = in.readInt();
+            if ( len < 5 || len > ( 1 << 24 ) ) break;   // Torn write
+            rec = new byte[ len ];
+            in.readFully( rec );
+            if ( in.readInt() != checksum( rec, 0, len ) ) break;
+          } catch ( EOFException e )
+          {
+            break;                            // Last record incomplete
+          }
+          good += rec.length + 8;
+          events++;
+          nextNumber = Math.max( nextNumber, apply( entries, rec ) );
+        }
+      }
+      if ( good < file.length() )             // Drop the partly written
+      {                                       //  record at the end
+        DEBUG.traceA( "OrderJournal: %s truncated at %d", file, good );
+        try ( FileChannel fc = FileChannel.open( file.toPath(),
+                                                 StandardOpenOption.WRITE ) )
+        {
+          fc.truncate( good );
+        }
+      }
+    }
+
+    for ( Integer num : entries.keySet() )
+      nextNumber = Math.max( nextNumber, num + 1 );
+
+    theGen     = lastGen + 1;                 // Start a new journal file
+    theJournal = openJournal( theGen );
+    Thread writer = new Thread( () -> writeRun(), "OrderJournal writer" );
+    writer.setDaemon( true );
+    writer.start();
+
+    long millis = System.currentTimeMillis() - start;
+    DEBUG.trace( "OrderJournal: recovered %d orders from %d records in %dms",
+                 entries.size(), events, millis );
+    return new Recovered( entries, nextNumber, events, millis );
+  }
+
+  /**
+   * Record a change to an order.
+   * The record is written in the background, use await to wait
+   *  until it is on disk.
+   * @param orderNum The order
+   * @param basket   The order encoded by encode
+   * @return The record number to wait for
+   */
+  public long newOrder( int orderNum, byte[] basket )
+  {
+    return append( record( NEW, orderNum, basket ) );
+  }
+
+  public long picking( int orderNum )   { return append( record( PICKING, orderNum, null ) ); }
+  public long picked( int orderNum )    { return append( record( PICKED, orderNum, null ) ); }
+  public long collected( int orderNum ) { return append( record( COLLECTED, orderNum, null ) ); }
+  public long number( int orderNum )    { return append( record( NUMBER, orderNum, null ) ); }
+
+  /**
+   * Ask for a snapshot of the open orders to be written once all the
+   *  records added so far have been written, then the older journal
+   *  files deleted.
+   * The caller must stop the orders changing until this returns.
+   * @param entries    The open orders
+   * @param nextNumber The next order number to be handed out
+   */
+  public synchronized void snapshot( Collection<Entry> entries, int nextNumber )
+  {
+    List<Entry> copy = new ArrayList<>( entries.size() );
+    for ( Entry entry : entries )
+      copy.add( new Entry( entry.orderNum, entry.basket, entry.stateIs ) );
+    thePending.add( new Snapshot( copy, nextNumber ) );
+    notifyAll();
+  }
+
+  /**
+   * Wait until a record has been forced to disk
+   * @param seq Record number returned when the record was added
+   * @throws IOException if the journal can not be written
+   */
+  public synchronized void await( long seq ) throws IOException
+  {
+    boolean interrupted = false;
+    while ( theDurable < seq && theFailure == null )
+    {
+      try
+      {
+        wait();
+      } catch ( InterruptedException e )
+      {
+        interrupted = true;
+      }
+    }
+    if ( interrupted ) Thread.currentThread().interrupt();
+    if ( theFailure != null ) throw theFailure;
+  }
+
+  /**
+   * Return a one line summary of the journal metrics
+   * @return Description of the state of the journal
+   */
+  public synchronized String getStats()
+  {
+    return String.format( "Journal gen %d records %d forces %d " +
+                          "records per force %.1f",
+                          theGen, theWritten, theForces,
+                          theForces == 0 ? 0.0 : (double) theWritten / theForces );
+  }
+
+  /**
+   * Encode a basket as a record of the journal
+   * @param basket The basket
+   * @return Bytes holding the order number and the products
+   */
+  public static byte[] encode( Basket basket )
+  {
+    try
+    {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream( 128 );
+      DataOutputStream      out   = new DataOutputStream( bytes );
+      out.writeInt( basket.getOrderNum() );
+      out.writeInt( basket.size() );
+      for ( Product pr : basket )
+      {
+        out.writeUTF( pr.getProductNum() );
+        out.writeUTF( pr.getDescription() );
+        out.writeDouble( pr.getPrice() );
+        out.writeInt( pr.getQuantity() );
+      }
+      out.writeByte( basket.getPriority().ordinal() );
+      out.writeLong( basket.getCollectBy() );
+      out.writeLong( basket.getPlaced() );
+      out.flush();
+      return bytes.toByteArray();
+    } catch ( IOException e )                 // Can not happen
+    {
+      throw new IllegalStateException( e );
+    }
+  }
+
+  /**
+   * Decode a basket encoded by encode
+   * @param bytes Encoded basket
+   * @return The basket
+   */
+  public static Basket decode( byte[] bytes ) throws IOException
+  {
+    DataInputStream in = new DataInputStream( new ByteArrayInputStream( bytes ) );
+    Basket basket = new Basket();
+    basket.setOrderNum( in.readInt() );
+    int count = in.readInt();
+    for ( int i = 0; i < count; i++ )
+      basket.add( new Product( in.readUTF(), in.readUTF(),
+                               in.readDouble(), in.readInt() ) );
+    if ( in.available() > 0 )                    // Not in older records
+    {
+      basket.setPriority( Basket.Priority.values()[ in.readByte() ] );
+      basket.setCollectBy( in.readLong() );
+    }
+    if ( in.available() > 0 )                    // Not in older records
+      basket.setPlaced( in.readLong() );
+    return basket;
+  }
+
+  /**
+   * Apply a journal record to the open orders
+   * @return One more than the order number in the record
+   */
+  private static int apply( Map<Integer,Entry> entries, byte[] rec )
+  {
+    int num = ( (rec[1] & 0xff) << 24 ) | ( (rec[2] & 0xff) << 16 ) |
+              ( (rec[3] & 0xff) << 8  ) |   (rec[4] & 0xff);
+    Entry entry = entries.get( num );
+    switch ( rec[0] )
+    {
+      case NEW :
+        entries.put( num, new Entry( num, Arrays.copyOfRange( rec, 5, rec.length ),
+                                     State.Waiting ) );
+        break;
+      case PICKING :
+        if ( entry != null ) entry.newState( State.BeingPicked );
+        break;
+      case PICKED :
+        if ( entry != null ) entry.newState( State.ToBeCollected );
+        break;
+      case COLLECTED :
+        entries.remove( num );
+        break;
+      default :                               // NUMBER
+        break;
+    }
+    return num + 1;
+  }
+
+  private static byte[] record( byte type, int orderNum, byte[] basket )
+  {
+    int len = 5 + ( basket == null ? 0 : basket.length );
+    ByteBuffer buf = ByteBuffer.allocate( len + 8 );
+    buf.putInt( len ).put( type ).putInt( orderNum );
+    if ( basket != null ) buf.put( basket );
+    buf.putInt( checksum( buf.array(), 4, len ) );
+    return buf.array();
+  }
+
+  private static int checksum( byte[] bytes, int from, int len )
+  {
+    CRC32 crc = new CRC32();
+    crc.update( bytes, from, len );
+    return (int) crc.getValue();
+  }
+
+  private synchronized long append( byte[] rec )
+  {
+    thePending.add( rec );
+    notifyAll();
+    return ++theAppended;
+  }
+
+  /**
+   * Run as a thread in background to write records to the journal
+   */
+  private void writeRun()
+  {
+    while ( true )
+    {
+      ArrayList<Object> batch;
+      synchronized ( this )
+      {
+        while ( thePending.isEmpty() )
+        {
+          try
+          {
+            wait();
+          } catch ( InterruptedException e )
+          {
+            return;
+          }
+        }
+        batch      = thePending;
+        thePending = new ArrayList<>();
+      }
+      try
+      {
+        int from = 0;
+        for ( int i = 0; i <= batch.size(); i++ )
+        {
+          if ( i == batch.size() || batch.get( i ) instanceof Snapshot )
+          {
+            write( batch.subList( from, i ) );
+            if ( i < batch.size() ) writeSnapshot( (Snapshot) batch.get( i ) );
+            from = i + 1;
+          }
+        }
+      } catch ( IOException e )
+      {
+        DEBUG.traceA( "OrderJournal: %s", e.getMessage() );
+        synchronized ( this )
+        {
+          theFailure = e;
+          notifyAll();
+        }
+        return;
+      }
+    }
+  }
+
+  /**
+   * Write records to the journal file, force them to disk
+   *  and wake up those waiting for them
+   */
+  private void write( List<Object> recs ) throws IOException
+  {
+    if ( recs.isEmpty() ) return;
+    int size = 0;
+    for ( Object rec : recs ) size += ( (byte[]) rec ).length;
+    ByteBuffer buf = ByteBuffer.allocate( size );
+    for ( Object rec : recs ) buf.put( (byte[]) rec );
+    buf.flip();
+    while ( buf.hasRemaining() ) theJournal.write( buf );
+    theJournal.force( false );
+    synchronized ( this )
+    {
+      theDurable += recs.size();
+      theWritten += recs.size();
+      theForces++;
+      notifyAll();
+    }
+  }
+
+  /**
+   * Start a new journal file, write the snapshot of the orders open
+   *  at its start, then delete the older journal files
+   */
+  private void writeSnapshot( Snapshot snap ) throws IOException
+  {
+    theJournal.close();
+    theJournal = openJournal( ++theGen );
+    File tmp = new File( theDir, "snapshot.tmp" );
+    try ( FileOutputStream fos = new FileOutputStream( tmp ) )
+    {
+      DataOutputStream out = new DataOutputStream(
+                               new BufferedOutputStream( fos, 1 << 16 ) );
+      out.writeInt( SNAPSHOT_MAGIC );
+      out.writeLong( theGen );
+      out.writeInt( snap.nextNumber );
+      out.writeInt( snap.entries.size() );
+      for ( Entry entry : snap.entries )
+      {
+        out.writeByte( entry.getState().ordinal() );
+        out.writeInt( entry.getOrderNum() );
+        out.writeInt( entry.basket.length );
+        out.write( entry.basket );
+      }
+      out.flush();
+      fos.getFD().sync();
+    }
+    Files.move( tmp.toPath(), new File( theDir, "snapshot" ).toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE );
+    for ( long gen : journalGens() )
+      if ( gen < theGen ) Files.deleteIfExists( journalFile( gen ).toPath() );
+    DEBUG.trace( "OrderJournal: snapshot of %d orders, %s",
+                 snap.entries.size(), getStats() );
+  }
+
+  private FileChannel openJournal( long gen ) throws IOException
+  {
+    return FileChannel.open( journalFile( gen ).toPath(),
+                             StandardOpenOption.CREATE,
+                             StandardOpenOption.WRITE,
+                             StandardOpenOption.APPEND );
+  }
+
+  private File journalFile( long gen )
+  {
+    return new File( theDir, String.format( "journal.%012d", gen ) );
+  }
+
+  /**
+   * Numbers of the journal files in the directory, in ascending order
+   */
+  private long[] journalGens()
+  {
+    String[] names = theDir.list( ( dir, name ) -> name.matches( "journal\\.\\d+" ) );
+    if ( names == null ) return new long[0];
+    long[] gens = new long[ names.length ];
+    for ( int i = 0; i < names.length; i++ )
+      gens[i] = Long.parseLong( names[i].substring( "journal.".length() ) );
+    Arrays.sort( gens );
+    return gens;
+  }
+}
@@ -0,0 +1,118 @@
+package orders;
+
+import middle.OrderListener;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tells the listeners of an order processing system that the
+ *  orders have changed.
+ * <P>
+ * Each listener is called on a thread of its own, so a slow listener
+ *  (for example a display across the network) does not hold up the
+ *  others or the order processing system.
+ * Changes are coalesced: while a listener is being told of one change,
+ *  any further changes are reported by one more call with the latest
+ *  version. A listener is also not told more often than once every
+ *  catshop.order.notify ms (default 100), so a burst of changes
+ *  leads to a single redraw of a display.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+class OrderNotifier
+{
+  private static final long INTERVAL =
+                       Integer.getInteger( "catshop.order.notify", 100 );
+
+  // Threads used to call listeners, shared by all notifiers
+  private static final ExecutorService theThreads =
+    Executors.newCachedThreadPool( r -> {
+      Thread t = new Thread( r, "OrderNotifier" );
+      t.setDaemon( true );
+      return t;
+    } );
+
+  /**
+   * A listener and the version it is to be told about
+   */
+  private static class Subscription
+  {
+    private final OrderListener listener;
+    private final AtomicLong    latest  = new AtomicLong( 0 );
+    private final AtomicBoolean running = new AtomicBoolean( false );
+
+    Subscription( OrderListener aListener ) { listener = aListener; }
+
+    /**
+     * Tell the listener of the latest version until it is up to date
+     */
+    void drain()
+    {
+      long told = 0;
+      try
+      {
+        while ( true )
+        {
+          long version = latest.get();
+          if ( version == told )
+          {
+            running.set( false );
+            // Changed after the check, but before no longer running
+            if ( latest.get() == told || ! running.compareAndSet( false, true ) )
+              return;
+            continue;
+          }
+          listener.ordersChanged( version );
+          told = version;
+          Thread.sleep( INTERVAL );               // Collect a burst
+        }
+      } catch ( InterruptedException e )
+      {
+        running.set( false );
+      } catch ( RuntimeException e )            // Listener failed
+      {
+        running.set( false );
+      }
+    }
+  }
+
+  private final CopyOnWriteArrayList<Subscription> theSubs =
+                new CopyOnWriteArrayList<>();
+
+  /**
+   * Add a listener to be told when the orders change
+   * @param listener The listener
+   */
+  public void addListener( OrderListener listener )
+  {
+    theSubs.add( new Subscription( listener ) );
+  }
+
+  /**
+   * Stop telling a listener when the orders change
+   * @param listener The listener added
+   */
+  public void removeListener( OrderListener listener )
+  {
+    theSubs.removeIf( sub -> sub.listener.equals( listener ) );
+  }
+
+  /**
+   * Tell every listener that the orders have changed
+   * @param version The version the orders are now up to
+   */
+  public void changed( long version )
+  {
+    for ( Subscription sub : theSubs )
+    {
+      sub.latest.accumulateAndGet( version, Math::max );
+      if ( sub.running.compareAndSet( false, true ) )
+        theThreads.execute( sub::drain );
+    }
+  }
+}
@@ -0,0 +1,258 @@
+package orders;
+
+import middle.OrderException;
+import middle.OrderShards;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out order numbers without locking, so tills asking for
+ *  numbers at the same time do not wait for each other.
+ * <P>
+ * By default numbers go up for ever. If catshop.order.max is set,
+ *  only the numbers 1 .. max are used and the number of a collected
+ *  order is handed out again, but only once it has been free for
+ *  catshop.order.reuse ms (default 300000), so it is no longer
+ *  shown on a display or held by a customer. Numbers handed out
+ *  but not used for an order within twice the life of a lease
+ *  (catshop.order.lease ms, default 60000) are also taken back.
+ * <P>
+ * When the orders are split across servers (catshop.shard, see
+ *  OrderShards) only the numbers of this server's shard are used.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+class OrderNumbers
+{
+  /** Highest order number, 0 if numbers are not used again */
+  static final int  MAX   = Math.max( 0, Integer.getInteger( "catshop.order.max", 0 ) );
+  /** How long a leased number may be used for in ms */
+  static final long LEASE = Math.max( 1, Integer.getInteger( "catshop.order.lease", 60000 ) );
+
+  private static final long REUSE = TimeUnit.MILLISECONDS.toNanos(
+          Math.max( 2 * LEASE, Integer.getInteger( "catshop.order.reuse", 300000 ) ) );
+  private static final long RECLAIM = TimeUnit.MILLISECONDS.toNanos( 2 * LEASE );
+
+  // This shard and the number of shards, see OrderShards.
+  //  Only the numbers SHARD+1, SHARD+1+SHARDS ... are handed out.
+  static final int SHARD, SHARDS;
+  static
+  {
+    int[] config = OrderShards.getConfig();
+    SHARD  = config[0];
+    SHARDS = config[1];
+  }
+
+  /**
+   * A number, or numbers, and when it was freed or handed out
+   */
+  private static class Stamped
+  {
+    private final int[] nums;
+    private final long  at;
+
+    Stamped( int... someNums )           { this( System.nanoTime(), someNums ); }
+    Stamped( long anAt, int... someNums ) { at = anAt; nums = someNums; }
+  }
+
+  private final AtomicInteger theNext;           // Never handed out
+  // Free numbers, oldest first, each held by theFree while free.
+  //  A number used by an order before being handed out again is
+  //  removed from theFree, leaving a stale entry in theFreeQueue.
+  private final ConcurrentLinkedQueue<Stamped> theFreeQueue =
+                new ConcurrentLinkedQueue<>();
+  private final ConcurrentHashMap<Integer,Stamped> theFree =
+                new ConcurrentHashMap<>();
+  // Numbers handed out but not yet used for an order
+  private final ConcurrentLinkedQueue<Stamped> theHanded =
+                new ConcurrentLinkedQueue<>();
+  private final ConcurrentHashMap<Integer,Stamped> theOut =
+                new ConcurrentHashMap<>();
+
+  /**
+   * Order numbers
+   * @param first The first number never handed out
+   */
+  OrderNumbers( int first )
+  {
+    theNext = new AtomicInteger( align( first ) );
+  }
+
+  /**
+   * Hand out an order number
+   * @return An order number not in use
+   * @throws OrderException if every number up to MAX is in use
+   */
+  public int next() throws OrderException
+  {
+    if ( MAX == 0 ) return theNext.getAndAdd( SHARDS );
+    int num = reuse();
+    if ( num == 0 )
+    {
+      num = theNext.getAndUpdate( n -> n <= MAX ? n + SHARDS : n );
+      if ( num > MAX )
+        throw new OrderException( "No order numbers free, " +
+                                  "all " + MAX + " are in use" );
+    }
+    handed( new Stamped( num ) );
+    return num;
+  }
+
+  /**
+   * Hand out a block of order numbers
+   * @param count How many
+   * @return The order numbers, fewer than asked for if not enough free
+   */
+  public int[] lease( int count ) throws OrderException
+  {
+    int n = Math.max( 1, count );
+    if ( MAX == 0 )
+    {
+      int   first = theNext.getAndAdd( n * SHARDS );
+      int[] res   = new int[ n ];
+      for ( int i = 0; i < n; i++ ) res[i] = first + i * SHARDS;
+      return res;
+    }
+    int[] res = new int[ n ];
+    int   got = 0;
+    while ( got < n )
+    {
+      int num = reuse();
+      if ( num == 0 ) num = theNext.getAndUpdate( v -> v <= MAX ? v + SHARDS : v );
+      if ( num > MAX ) break;                    // None left
+      res[ got++ ] = num;
+    }
+    if ( got == 0 )
+      throw new OrderException( "No order numbers free, " +
+                                "all " + MAX + " are in use" );
+    if ( got < n ) res = Arrays.copyOf( res, got );
+    handed( new Stamped( res ) );
+    return res;
+  }
+
+  /**
+   * The number has been used for an order, so is not free.
+   * Called even if the number was not handed out here.
+   * @param num The order number
+   */
+  public void inUse( int num )
+  {
+    theNext.accumulateAndGet( align( num + 1 ), Math::max );
+    if ( MAX == 0 ) return;
+    theOut.remove( num );
+    theFree.remove( num );
+  }
+
+  /**
+   * The order has been collected, so its number may be used again
+   * @param num The order number
+   */
+  public void free( int num )
+  {
+    free( num, System.nanoTime() );
+  }
+
+  /**
+   * Free a number, as if freed at a time
+   */
+  private void free( int num, long at )
+  {
+    if ( MAX == 0 || num < 1 || num > MAX || ! owned( num ) ) return;
+    Stamped freed = new Stamped( at, num );
+    if ( theFree.putIfAbsent( num, freed ) == null )
+      theFreeQueue.add( freed );
+  }
+
+  /**
+   * Free every number handed out before a restart that is not used
+   *  by an open order.
+   * These are used again once any lease from before the restart
+   *  has been taken back, rather than after catshop.order.reuse.
+   * @param open Numbers of the open orders
+   */
+  public void freeAllBut( Collection<Integer> open )
+  {
+    if ( MAX == 0 ) return;
+    HashSet<Integer> used = new HashSet<>( open );
+    long at   = System.nanoTime() - REUSE + RECLAIM;
+    int  next = Math.min( theNext.get(), MAX + 1 );
+    for ( int num = align( 1 ); num < next; num += SHARDS )
+      if ( ! used.contains( num ) ) free( num, at );
+  }
+
+  /**
+   * The first number that has never been handed out
+   * @return The number
+   */
+  public int getNext()
+  {
+    return theNext.get();
+  }
+
+  /**
+   * Is the number one of this shard's
+   */
+  private static boolean owned( int num )
+  {
+    return OrderShards.shardOf( num, SHARDS ) == SHARD;
+  }
+
+  /**
+   * The first of this shard's numbers from a number on
+   */
+  private static int align( int num )
+  {
+    return num + Math.floorMod( SHARD - ( num - 1 ), SHARDS );
+  }
+
+  /**
+   * Take a free number that has been free long enough
+   * @return The number, 0 if none
+   */
+  private int reuse()
+  {
+    reclaim();
+    long now = System.nanoTime();
+    Stamped freed;
+    while ( ( freed = theFreeQueue.peek() ) != null && now - freed.at >= REUSE )
+    {
+      // Only one caller removes it, and only if not used since freed
+      if ( theFreeQueue.remove( freed ) &&
+           theFree.remove( freed.nums[0], freed ) )
+        return freed.nums[0];
+    }
+    return 0;
+  }
+
+  /**
+   * Record numbers handed out, to take back if not used
+   */
+  private void handed( Stamped out )
+  {
+    for ( int num : out.nums ) theOut.put( num, out );
+    theHanded.add( out );
+  }
+
+  /**
+   * Free the numbers handed out long enough ago that their lease
+   *  has run out, but not used for an order
+   */
+  private void reclaim()
+  {
+    long now = System.nanoTime();
+    Stamped out;
+    while ( ( out = theHanded.peek() ) != null && now - out.at >= RECLAIM )
+    {
+      if ( ! theHanded.remove( out ) ) continue;   // Another took it
+      for ( int num : out.nums )
+        if ( theOut.remove( num, out ) ) free( num );
+    }
+  }
+}
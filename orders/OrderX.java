@@ -2,18 +2,27 @@
 package orders;
 
 import catalogue.Basket;
+import catalogue.PickWave;
 import catalogue.Product;
 import debug.DEBUG;
+import middle.OrderChanges;
 import middle.OrderException;
+import middle.OrderListener;
+import middle.OrderNumberLease;
 import middle.OrderProcessing;
+import middle.QueueWait;
+import middle.WaitTime;
 
 import java.util.stream.Collectors;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Formatter;
+import java.util.concurrent.TimeUnit;
 
 /**
   * <BR>-----------------------------------------
@@ -44,6 +53,9 @@ public class OrderX implements OrderProcessing
   // Orders waiting to be collected by the customer
   private ArrayList<Basket>  theToBeCollectedTray = new ArrayList<Basket>();
 
+  // Recent changes, for displays
+  private OrderChangeLog     theChanges = new OrderChangeLog();
+
   /**
    * Used to generate debug information
    * @Param  basket an instance of a basket
@@ -73,6 +85,18 @@ public class OrderX implements OrderProcessing
     return theNextNumber++;
   }
 
+  /**
+   * Hands out a block of order numbers for a till to use
+   * @param count how many numbers
+   * @return the lease of the numbers
+   */
+  public synchronized OrderNumberLease leaseNumbers( int count )
+  {
+    int[] nums = new int[ Math.max( 1, count ) ];
+    for ( int i = 0; i < nums.length; i++ ) nums[i] = theNextNumber++;
+    return new OrderNumberLease( nums, OrderNumbers.LEASE );
+  }
+
   /**
    * Add a new order to the order processing system
    * @param bought a new order that is to be processed
@@ -83,6 +107,8 @@ public class OrderX implements OrderProcessing
     // You need to modify and fill in the correct code
     DEBUG.trace( "DEBUG: New order" );
     theWaitingTray.add( bought );
+    theChanges.record( bought.getOrderNum(), "Waiting" );
+    notifyAll();                                 // Wake the pickers
     for ( Basket bl : theWaitingTray )
     {
       DEBUG.trace( "Order: " + asString( bl ) );
@@ -104,11 +130,66 @@ public class OrderX implements OrderProcessing
     {
       Basket process = theWaitingTray.remove(0);
        theBeingPickedTray.add( process );
+       theChanges.record( process.getOrderNum(), "BeingPicked" );
        return process;
     }
      return null;
   }
 
+  /**
+   * Returns an order to pick from the warehouse, waiting for
+   *  one to be added if there is none.
+   * @param timeout Longest time to wait
+   * @return An order to pick or null if none added in time
+   */
+  public synchronized Basket takeOrderToPick( Duration timeout )
+         throws OrderException
+  {
+    long deadline = System.nanoTime() + WaitTime.nanos( timeout );
+    Basket found;
+    while ( ( found = getOrderToPick() ) == null )
+    {
+      long left = deadline - System.nanoTime();
+      if ( left <= 0 ) return null;
+      try
+      {
+        TimeUnit.NANOSECONDS.timedWait( this, left );  // Till newOrder
+      } catch ( InterruptedException e )
+      {
+        Thread.currentThread().interrupt();
+        throw new OrderException( "Interrupted waiting for an order" );
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Returns a wave of orders to pick together from the warehouse,
+   *  waiting for an order to be added if there is none.
+   * @param maxOrders Most orders in the wave
+   * @param timeout   Longest time to wait for an order
+   * @return A wave of orders to pick or null if none added in time
+   */
+  public synchronized PickWave takeWaveToPick( int maxOrders, Duration timeout )
+         throws OrderException
+  {
+    DEBUG.trace( "DEBUG: Get wave to pick" );
+    if ( ! WavePlanner.await( this, theWaitingTray::size, maxOrders, timeout ) )
+      return null;
+    List<Basket> wave =
+      WavePlanner.choose( WavePlanner.window( theWaitingTray ), maxOrders );
+    HashSet<Integer> inWave = new HashSet<Integer>();
+    for ( Basket process : wave )
+    {
+      inWave.add( process.getOrderNum() );
+      theBeingPickedTray.add( process );
+      theChanges.record( process.getOrderNum(), "BeingPicked" );
+    }
+    theWaitingTray.removeIf( b -> inWave.contains( b.getOrderNum() ) );
+    if ( theWaitingTray.size() > 0 ) notifyAll(); // Left for the others
+    return new PickWave( wave );
+  }
+
   /**
    * Informs the order processing system that the order has been
    * picked and the products are now being delivered to the
@@ -128,12 +209,29 @@ public class OrderX implements OrderProcessing
       {
         Basket picked = theBeingPickedTray.remove(i);
         theToBeCollectedTray.add( picked );
+        theChanges.record( orderNum, "ToBeCollected" );
         return true;
       }
     }
     return false;
   }
 
+  /**
+   * Informs the order processing system that the orders of a wave
+   *  have been picked
+   * @param  orderNums the orders that have been picked
+   * @return the number of the orders that were being picked
+   */
+
+  public synchronized int informOrdersPicked( List<Integer> orderNums )
+         throws OrderException
+  {
+    int moved = 0;
+    for ( int orderNum : orderNums )
+      if ( informOrderPicked( orderNum ) ) moved++;
+    return moved;
+  }
+
   /**
    * Informs the order processing system that the order has been
    * collected by the customer
@@ -150,6 +248,7 @@ public class OrderX implements OrderProcessing
       if ( theToBeCollectedTray.get(i).getOrderNum() == orderNum )
       {
         theToBeCollectedTray.remove(i);
+        theChanges.record( orderNum, null );
         return true;
       }
     }
@@ -181,6 +280,53 @@ public class OrderX implements OrderProcessing
     return res;
   }
   
+  /**
+   * Returns the changes made to the orders since a version of the
+   *  state of the order processing system, see OrderChanges.
+   * Does not build the lists of orders unless the version is too old.
+   * @param since The version the caller is up to
+   * @return The changes, or the whole state if the version is too old
+   */
+  public synchronized OrderChanges getOrderChanges( long since )
+         throws OrderException
+  {
+    OrderChanges res = theChanges.since( since );
+    return res != null ? res
+                       : OrderChanges.full( theChanges.getVersion(),
+                                            getOrderState() );
+  }
+
+  /**
+   * How long orders have waited to be picked, not recorded
+   *  as orders are picked in the order placed
+   * @return an empty list
+   */
+  public List<QueueWait> getQueueWaits()
+         throws OrderException
+  {
+    return new ArrayList<QueueWait>();
+  }
+
+  /**
+   * Tell the listener whenever the orders change
+   * @param l The listener
+   */
+  public void addOrderListener( OrderListener l )
+         throws OrderException
+  {
+    theChanges.addListener( l );
+  }
+
+  /**
+   * Stop telling the listener when the orders change
+   * @param l The listener added
+   */
+  public void removeOrderListener( OrderListener l )
+         throws OrderException
+  {
+    theChanges.removeListener( l );
+  }
+
   private List< Integer > orderNos( ArrayList<Basket> queue )
   {
     List <Integer> res = new ArrayList<Integer>();
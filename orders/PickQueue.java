@@ -0,0 +1,163 @@
+package orders;
+
+import catalogue.Basket;
+import middle.QueueWait;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides how urgently each waiting order is to be picked, and
+ *  records how long orders wait before being picked.
+ * <P>
+ * Each order is given a time it should be picked by: the time it
+ *  was placed plus the SLA of its priority (catshop.sla.express ms,
+ *  default 300000, catshop.sla.standard ms, default 1800000), or its
+ *  click and collect slot if that is sooner. The time needed to pick
+ *  the order (catshop.sla.line ms per line, default 20000) is taken
+ *  off this, so big orders are started sooner.
+ * Orders are picked earliest due first, using an ordered set, so the
+ *  most urgent order is found in O(log n) time.
+ * As the due time of an order never changes, an order waiting for a
+ *  long time will become due before any new order, however urgent, so
+ *  no order is left waiting for ever.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+class PickQueue
+{
+  private static final long LINE =
+                       Integer.getInteger( "catshop.sla.line", 20000 );
+
+  private static final EnumMap<Basket.Priority,Long> SLA =
+                       new EnumMap<>( Basket.Priority.class );
+  static
+  {
+    SLA.put( Basket.Priority.Express,
+             (long) Integer.getInteger( "catshop.sla.express", 300000 ) );
+    SLA.put( Basket.Priority.Standard,
+             (long) Integer.getInteger( "catshop.sla.standard", 1800000 ) );
+  }
+
+  private static final AtomicLong theSeq = new AtomicLong( 0 );
+
+  /**
+   * A waiting order and when it is due to be picked
+   */
+  static class Ticket
+  {
+    private final Basket basket;
+    private final long   placed;                 // Kept after a restart
+    private final long   deadline;               // To meet its SLA
+    private final long   due;                    // Start picking by
+    private final long   seq = theSeq.getAndIncrement();
+
+    Ticket( Basket aBasket )
+    {
+      basket = aBasket;
+      placed = basket.getPlaced() > 0 ? basket.getPlaced()
+                                      : System.currentTimeMillis();
+      long by = placed + SLA.get( basket.getPriority() );
+      if ( basket.getCollectBy() > 0 ) by = Math.min( by, basket.getCollectBy() );
+      deadline = by;
+      due      = by - LINE * basket.size();
+    }
+
+    Basket getBasket()  { return basket; }
+  }
+
+  /** Most urgent first, then in the order placed */
+  static final Comparator<Ticket> URGENCY = ( a, b ) ->
+    a.due != b.due ? Long.compare( a.due, b.due ) : Long.compare( a.seq, b.seq );
+
+  /**
+   * The waits of the orders of one priority, counted in buckets.
+   * Waits under 64ms have a bucket each, longer waits 32 buckets
+   *  for each power of 2, so a percentile is within 3%.
+   */
+  private static class Waits
+  {
+    private final long[] buckets = new long[ 64 + 32 * 32 ];
+    private long count = 0, met = 0, max = 0;
+
+    void add( long ms, boolean inSla )
+    {
+      buckets[ bucket( ms ) ]++;
+      count++;
+      if ( inSla ) met++;
+      max = Math.max( max, ms );
+    }
+
+    private static int bucket( long ms )
+    {
+      if ( ms < 64 ) return (int) Math.max( 0, ms );
+      int power = 63 - Long.numberOfLeadingZeros( ms );   // 6 ..
+      int sub   = (int) ( ms >>> ( power - 5 ) ) & 31;
+      return Math.min( 64 + ( power - 6 ) * 32 + sub, 64 + 32 * 32 - 1 );
+    }
+
+    private static long lowest( int bucket )
+    {
+      if ( bucket < 64 ) return bucket;
+      int power = ( bucket - 64 ) / 32 + 6;
+      int sub   = ( bucket - 64 ) % 32;
+      return ( 32L + sub ) << ( power - 5 );
+    }
+
+    long percentile( double p )
+    {
+      long want = (long) Math.ceil( count * p ), seen = 0;
+      for ( int i = 0; i < buckets.length; i++ )
+        if ( ( seen += buckets[i] ) >= want && want > 0 )
+          return Math.min( lowest( i ), max );
+      return max;
+    }
+  }
+
+  private final EnumMap<Basket.Priority,Waits> theWaits =
+                new EnumMap<>( Basket.Priority.class );
+
+  PickQueue()
+  {
+    for ( Basket.Priority p : Basket.Priority.values() )
+      theWaits.put( p, new Waits() );
+  }
+
+  /**
+   * Record an order being given to a picker
+   * @param ticket The order
+   */
+  public void picked( Ticket ticket )
+  {
+    long now = System.currentTimeMillis();
+    Waits waits = theWaits.get( ticket.basket.getPriority() );
+    synchronized ( waits )
+    {
+      waits.add( now - ticket.placed, now <= ticket.deadline );
+    }
+  }
+
+  /**
+   * How long the orders of each priority have waited to be picked
+   * @return The waits, one for each priority
+   */
+  public List<QueueWait> getQueueWaits()
+  {
+    List<QueueWait> res = new ArrayList<>();
+    for ( Basket.Priority p : Basket.Priority.values() )
+    {
+      Waits w = theWaits.get( p );
+      synchronized ( w )
+      {
+        res.add( new QueueWait( p.name(), w.count, w.percentile( 0.50 ),
+                                w.percentile( 0.90 ), w.percentile( 0.99 ),
+                                w.max, SLA.get( p ), w.met ) );
+      }
+    }
+    return res;
+  }
+}
@@ -0,0 +1,133 @@
+package orders;
+
+import catalogue.Basket;
+import catalogue.Product;
+import middle.OrderException;
+import middle.WaitTime;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * Chooses the orders that make up a wave of orders to be picked
+ *  together, see PickWave.
+ * <P>
+ * A wave always starts with the most urgent waiting order (see
+ *  PickQueue), so no order is passed over for long. It is then filled,
+ *  up to the size asked for, with the waiting orders that share the
+ *  most products with the orders already in the wave, the more urgent
+ *  first when there is a tie. Only the catshop.wave.window most urgent
+ *  waiting orders (default 64) are looked at.
+ * <P>
+ * A wave is released once it can be filled, or catshop.wave.age ms
+ *  (default 0) after the first order became available to it, so a
+ *  picker can wait a little for a bigger wave when few orders are
+ *  coming in.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+class WavePlanner
+{
+  static final int  WINDOW =
+                    Math.max( 1, Integer.getInteger( "catshop.wave.window", 64 ) );
+  static final long AGE    =
+                    TimeUnit.MILLISECONDS.toNanos(
+                      Math.max( 0, Integer.getInteger( "catshop.wave.age", 0 ) ) );
+
+  /**
+   * The first waiting orders, those a wave may be chosen from
+   * @param waiting Waiting orders, in the order to be picked
+   * @return At most WINDOW of the first orders
+   */
+  static List<Basket> window( Iterable<Basket> waiting )
+  {
+    List<Basket> res = new ArrayList<>();
+    Iterator<Basket> it = waiting.iterator();
+    while ( res.size() < WINDOW && it.hasNext() ) res.add( it.next() );
+    return res;
+  }
+
+  /**
+   * Choose the orders for a wave
+   * @param waiting   Orders that may be picked, most urgent first
+   * @param maxOrders Most orders in the wave
+   * @return The orders chosen, the most urgent first
+   */
+  static List<Basket> choose( List<Basket> waiting, int maxOrders )
+  {
+    List<Basket>      res    = new ArrayList<>();
+    List<Basket>      left   = new ArrayList<>( waiting );
+    HashSet<String>   inWave = new HashSet<>();  // Products in the wave
+    while ( res.size() < Math.max( 1, maxOrders ) && ! left.isEmpty() )
+    {
+      int best = 0, bestShared = -1;
+      if ( ! res.isEmpty() )                     // Always most urgent first
+      {
+        for ( int i = 0; i < left.size(); i++ )
+        {
+          int shared = shared( left.get(i), inWave );
+          if ( shared > bestShared ) { best = i; bestShared = shared; }
+        }
+      }
+      Basket chosen = left.remove( best );
+      for ( Product pr : chosen ) inWave.add( pr.getProductNum() );
+      res.add( chosen );
+    }
+    return res;
+  }
+
+  /**
+   * Number of different products in an order already in the wave
+   */
+  private static int shared( Basket order, HashSet<String> inWave )
+  {
+    HashSet<String> seen = new HashSet<>();
+    for ( Product pr : order )
+      if ( inWave.contains( pr.getProductNum() ) ) seen.add( pr.getProductNum() );
+    return seen.size();
+  }
+
+  /**
+   * Wait until a wave can be released.
+   * Must be called holding the lock on lock, which must be notified
+   *  when an order is added.
+   * @param lock      Lock of the order processing system
+   * @param waiting   Number of orders waiting
+   * @param maxOrders Most orders in the wave
+   * @param timeout   Longest time to wait for the first order
+   * @return true if there are orders for a wave, false if timed out
+   */
+  static boolean await( Object lock, IntSupplier waiting, int maxOrders,
+                        Duration timeout )
+         throws OrderException
+  {
+    long    deadline = System.nanoTime() + WaitTime.nanos( timeout );
+    long    release  = 0;
+    boolean started  = false;                    // Has an order
+    while ( true )
+    {
+      int  count = waiting.getAsInt();
+      long now   = System.nanoTime();
+      if ( count == 0 ) started = false;          // Taken by another picker
+      else if ( ! started ) { started = true; release = now + AGE; }
+      if ( count >= maxOrders || ( started && now - release >= 0 ) )
+        return true;
+      long until = started ? release : deadline;
+      if ( ! started && now - deadline >= 0 ) return false;
+      try
+      {
+        TimeUnit.NANOSECONDS.timedWait( lock, until - now );  // Till newOrder
+      } catch ( InterruptedException e )
+      {
+        Thread.currentThread().interrupt();
+        throw new OrderException( "Interrupted waiting for an order" );
+      }
+    }
+  }
+}
@@ -1,13 +1,21 @@
 package remote;
 
 import catalogue.Basket;
+import catalogue.PickWave;
+import middle.OrderChanges;
 import middle.OrderException;
-import orders.Order;
+import middle.OrderListener;
+import middle.OrderNumberLease;
+import middle.OrderProcessing;
+import middle.QueueWait;
+import orders.OrderFactory;
 
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The order processing handling.
@@ -21,12 +29,21 @@ public class      R_Order
        implements RemoteOrder_I
 {
   private static final long serialVersionUID = 1;
-  private Order aOrder = null;
+  private OrderProcessing aOrder = null;
+
+  // Longest a picker is kept waiting for an order in one call, so an
+  //  order is not handed to a picker lost while waiting (catshop.order.wait)
+  private static final Duration MAX_WAIT =
+          Duration.ofMillis( Integer.getInteger( "catshop.order.wait", 2000 ) );
+
+  // Clients to call back when the orders change
+  private final Map<RemoteOrderListener_I,OrderListener> theListeners =
+                new ConcurrentHashMap<>();
 
   public R_Order( String url )
          throws RemoteException, OrderException
   {
-    aOrder = new Order();
+    aOrder = (new OrderFactory()).getNewOrder();
   }
 
   public void newOrder( Basket bought )
@@ -41,6 +58,12 @@ public class      R_Order
   {
     return aOrder.uniqueNumber();
   }
+
+  public OrderNumberLease leaseNumbers( int count )
+         throws RemoteException, OrderException
+  {
+    return aOrder.leaseNumbers( count );
+  }
   
   public Basket getOrderToPick()
          throws RemoteException, OrderException
@@ -48,12 +71,35 @@ public class      R_Order
       return aOrder.getOrderToPick();
   }
   
+  public Basket takeOrderToPick( Duration timeout )
+         throws RemoteException, OrderException
+  {
+      return aOrder.takeOrderToPick( shorter( timeout ) );
+  }
+  
+  public PickWave takeWaveToPick( int maxOrders, Duration timeout )
+         throws RemoteException, OrderException
+  {
+      return aOrder.takeWaveToPick( maxOrders, shorter( timeout ) );
+  }
+
+  private static Duration shorter( Duration timeout )
+  {
+    return timeout.compareTo( MAX_WAIT ) > 0 ? MAX_WAIT : timeout;
+  }
+  
   public boolean informOrderPicked( int orderNum )
          throws RemoteException, OrderException
   {
      return aOrder.informOrderPicked(orderNum);
   }
   
+  public int informOrdersPicked( List<Integer> orderNums )
+         throws RemoteException, OrderException
+  {
+     return aOrder.informOrdersPicked( orderNums );
+  }
+  
   public boolean informOrderCollected( int orderNum )
          throws RemoteException, OrderException
   {
@@ -67,4 +113,51 @@ public class      R_Order
     return aOrder.getOrderState();
   }
 
+  public List<QueueWait> getQueueWaits()
+         throws RemoteException, OrderException
+  {
+    return aOrder.getQueueWaits();
+  }
+
+  public OrderChanges getOrderChanges( long since )
+          throws RemoteException, OrderException
+  {
+    return aOrder.getOrderChanges( since );
+  }
+
+  /**
+   * Call back the client whenever the orders change.
+   * A client that can not be called back is forgotten.
+   */
+  public void addOrderListener( RemoteOrderListener_I l )
+          throws RemoteException, OrderException
+  {
+    OrderListener local = new OrderListener()
+    {
+      public void ordersChanged( long version )
+      {
+        try
+        {
+          l.ordersChanged( version );
+        } catch ( RemoteException e )            // Client gone
+        {
+          try
+          {
+            removeOrderListener( l );
+          } catch ( Exception err ) { }        // Nothing more to do
+        }
+      }
+    };
+    OrderListener old = theListeners.put( l, local );
+    if ( old != null ) aOrder.removeOrderListener( old );  // Added again
+    aOrder.addOrderListener( local );
+  }
+
+  public void removeOrderListener( RemoteOrderListener_I l )
+          throws RemoteException, OrderException
+  {
+    OrderListener local = theListeners.remove( l );
+    if ( local != null ) aOrder.removeOrderListener( local );
+  }
+
 }
@@ -0,0 +1,48 @@
+package remote;
+
+import middle.OrderListener;
+
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+
+/**
+ * Lives in the client, so the order processing system on the
+ *  middle tier can call back to tell the client that the orders
+ *  have changed.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public class      R_OrderListener
+       extends    UnicastRemoteObject
+       implements RemoteOrderListener_I
+{
+  private static final long serialVersionUID = 1;
+  private final transient OrderListener theListener;
+
+  public R_OrderListener( OrderListener listener )
+         throws RemoteException
+  {
+    theListener = listener;
+  }
+
+  public void ordersChanged( long version )
+         throws RemoteException
+  {
+    theListener.ordersChanged( version );
+  }
+
+  /**
+   * Stop accepting call backs
+   */
+  public void close()
+  {
+    try
+    {
+      UnicastRemoteObject.unexportObject( this, true );
+    } catch ( java.rmi.NoSuchObjectException e )
+    {
+      // Already closed
+    }
+  }
+}
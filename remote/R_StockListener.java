@@ -0,0 +1,47 @@
+package remote;
+
+import middle.StockChangeListener;
+
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+
+/**
+ * Lives in the client, so the stock list on the middle tier can
+ *  call back to tell the client that a product has changed.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public class      R_StockListener
+       extends    UnicastRemoteObject
+       implements RemoteStockListener_I
+{
+  private static final long serialVersionUID = 1;
+  private final transient StockChangeListener theListener;
+
+  public R_StockListener( StockChangeListener listener )
+         throws RemoteException
+  {
+    theListener = listener;
+  }
+
+  public void stockChanged( String pNum )
+         throws RemoteException
+  {
+    theListener.stockChanged( pNum );
+  }
+
+  /**
+   * Stop accepting call backs
+   */
+  public void close()
+  {
+    try
+    {
+      UnicastRemoteObject.unexportObject( this, true );
+    } catch ( java.rmi.NoSuchObjectException e )
+    {
+      // Already closed
+    }
+  }
+}
@@ -2,15 +2,19 @@ package remote;
 
 import catalogue.Product;
 import dbAccess.StockR;
+import dbAccess.StockRW;
+import middle.CachedStockReader;
+import middle.ProductImage;
 import middle.StockException;
 
 import javax.swing.*;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
 
-// There can only be 1 ResultSet opened per statement
-// so no simultaneous use of the statement object
-// hence the synchronized methods
+// Each request to the database borrows its own pooled connection
+// so requests from different clients may run at the same time
 
 /**
  * Implements Read access to the stock list,
@@ -23,12 +27,13 @@ public class      R_StockR
        implements RemoteStockR_I
 {
   private static final long serialVersionUID = 1;
-  private StockR aStockR = null;
+  private CachedStockReader aStockR = null;
 
   public R_StockR( String url )
          throws RemoteException, StockException
   {
-    aStockR = new StockR();
+    aStockR = new CachedStockReader( new StockR() );
+    StockRW.addChangeListener( aStockR );     // Stock changed by R_StockRW
   }
 
   /**
@@ -36,13 +41,13 @@ public class      R_StockR
    * @param pNum The product number
    * @return true if exists otherwise false
    */
-  public synchronized boolean exists( String pNum )
+  public boolean exists( String pNum )
          throws RemoteException, StockException
   {
     return aStockR.exists( pNum );
   }
   
-  public synchronized boolean existsName( String desc )
+  public boolean existsName( String desc )
 	         throws RemoteException, StockException
 	  {
 	    return aStockR.exists( desc );
@@ -54,13 +59,36 @@ public class      R_StockR
    * @param pNum The product number
    * @return StockNumber, Description, Price, Quantity
    */
-  public synchronized Product getDetails( String pNum )
+  public Product getDetails( String pNum )
          throws RemoteException, StockException
   {
     return aStockR.getDetails( pNum );
   }
+
+  /**
+   * Returns details about the product if it is in the stock list.
+   * Optional is not Serializable so no product is returned as null
+   * @param pNum The product number
+   * @return StockNumber, Description, Price, Quantity or null
+   */
+  public Product findDetails( String pNum )
+         throws RemoteException, StockException
+  {
+    return aStockR.findDetails( pNum ).orElse( null );
+  }
+
+  /**
+   * Returns details about several products in the stock list
+   * @param pNums The product numbers
+   * @return Map from product number to details
+   */
+  public Map<String,Product> getDetails( Collection<String> pNums )
+         throws RemoteException, StockException
+  {
+    return aStockR.getDetails( pNums );
+  }
   
-  public synchronized ArrayList<Product> getDetailsName( String desc )
+  public ArrayList<Product> getDetailsName( String desc )
 	         throws RemoteException, StockException
 	  {
 	    return aStockR.getDetailsName( desc );
@@ -73,10 +101,42 @@ public class      R_StockR
    * @param pNum The product number
    * @return Image
    */
-  public synchronized ImageIcon getImage( String pNum )
+  public ImageIcon getImage( String pNum )
          throws RemoteException, StockException
   {
     return aStockR.getImage( pNum );
   }
 
+  /**
+   * Returns the image of the product as JPEG bytes,
+   *  without the bytes if the caller has this version
+   * @param pNum      The product number
+   * @param thumbnail true for a thumbnail of the image
+   * @param etag      ETag of the version the caller has, or null
+   * @return The image, or just its ETag if not changed
+   */
+  public ProductImage getImageData( String pNum, boolean thumbnail,
+                                    String etag )
+         throws RemoteException, StockException
+  {
+    return aStockR.getImageData( pNum, thumbnail, etag );
+  }
+
+  /**
+   * Call back the client whenever a product in the stock list
+   *  is changed, see StockListeners
+   * @param l The client
+   */
+  public void addStockListener( RemoteStockListener_I l )
+         throws RemoteException, StockException
+  {
+    StockListeners.add( l );
+  }
+
+  public void removeStockListener( RemoteStockListener_I l )
+         throws RemoteException, StockException
+  {
+    StockListeners.remove( l );
+  }
+
 }
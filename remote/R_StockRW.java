@@ -2,15 +2,18 @@ package remote;
 
 import catalogue.Product;
 import dbAccess.StockRW;
+import middle.CachedStockReadWriter;
+import middle.ProductImage;
 import middle.StockException;
 
 import javax.swing.*;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
 
-// There can only be 1 ResultSet opened per statement
-// so no simultaneous use of the statement object
-// hence the synchronized methods
+// Each request to the database borrows its own pooled connection
+// so requests from different clients may run at the same time
 
 /**
  * Implements Read/Write access to the stock list,
@@ -24,11 +27,11 @@ public class      R_StockRW
        implements RemoteStockRW_I
 {
   private static final long serialVersionUID = 1;
-  private StockRW aStockRW = null;
+  private CachedStockReadWriter aStockRW = null;
 
   /**
-   * All transactions are done via StockRW to ensure
-   * that a single connection to the database is used for all transactions
+   * All transactions are done via StockRW, which borrows a
+   * connection from the shared pool for each transaction
    * @param url of remote object
    * @throws java.rmi.RemoteException if issue
    * @throws middle.StockException if issue
@@ -36,7 +39,8 @@ public class      R_StockRW
   public R_StockRW(String url)
          throws RemoteException, StockException
   {
-    aStockRW = new StockRW();
+    aStockRW = new CachedStockReadWriter( new StockRW() );
+    StockRW.addChangeListener( aStockRW );
   }
   
   /**
@@ -45,7 +49,7 @@ public class      R_StockRW
    * @return true if product exists else false
    * @throws middle.StockException if underlying error
    */
-  public synchronized boolean exists( String pNum )
+  public boolean exists( String pNum )
          throws StockException
   {
     return aStockRW.exists( pNum );
@@ -57,7 +61,7 @@ public class      R_StockRW
    * @return true if exists otherwise false
    * @throws StockException if issue
    */
-  public synchronized boolean existsName( String name )
+  public boolean existsName( String name )
 	         throws StockException
 	  {
 	    return aStockRW.existsName( name );
@@ -69,11 +73,36 @@ public class      R_StockRW
    * @return StockNumber, Description, Price, Quantity
    * @throws middle.StockException if underlying error
    */
-  public synchronized Product getDetails( String pNum )
+  public Product getDetails( String pNum )
          throws StockException
   {
     return aStockRW.getDetails( pNum );
   }
+
+  /**
+   * Returns details about the product if it is in the stock list.
+   * Optional is not Serializable so no product is returned as null
+   * @param pNum The product number
+   * @return StockNumber, Description, Price, Quantity or null
+   * @throws middle.StockException if underlying error
+   */
+  public Product findDetails( String pNum )
+         throws StockException
+  {
+    return aStockRW.findDetails( pNum ).orElse( null );
+  }
+
+  /**
+   * Returns details about several products in the stock list
+   * @param pNums The product numbers
+   * @return Map from product number to details
+   * @throws middle.StockException if underlying error
+   */
+  public Map<String,Product> getDetails( Collection<String> pNums )
+         throws StockException
+  {
+    return aStockRW.getDetails( pNums );
+  }
   
   /**
    * Returns details about the products in the stock list within the array
@@ -81,7 +110,7 @@ public class      R_StockRW
    * @return ArrayList with products that match search criteria
    * @throws StockException if issue
    */
-  public synchronized ArrayList<Product> getDetailsName( String name )
+  public ArrayList<Product> getDetailsName( String name )
 	         throws StockException
 	  {
 	    return aStockRW.getDetailsName( name );
@@ -93,12 +122,44 @@ public class      R_StockRW
    * @return image
    * @throws middle.StockException if underlying error
    */
-  public synchronized ImageIcon getImage( String pNum )
+  public ImageIcon getImage( String pNum )
          throws StockException
   {
     return aStockRW.getImage( pNum );
   }
 
+  /**
+   * Returns the image of the product as JPEG bytes,
+   *  without the bytes if the caller has this version
+   * @param pNum      The product number
+   * @param thumbnail true for a thumbnail of the image
+   * @param etag      ETag of the version the caller has, or null
+   * @return The image, or just its ETag if not changed
+   */
+  public ProductImage getImageData( String pNum, boolean thumbnail,
+                                    String etag )
+         throws StockException
+  {
+    return aStockRW.getImageData( pNum, thumbnail, etag );
+  }
+
+  /**
+   * Call back the client whenever a product in the stock list
+   *  is changed, see StockListeners
+   * @param l The client
+   */
+  public void addStockListener( RemoteStockListener_I l )
+         throws RemoteException, StockException
+  {
+    StockListeners.add( l );
+  }
+
+  public void removeStockListener( RemoteStockListener_I l )
+         throws RemoteException, StockException
+  {
+    StockListeners.remove( l );
+  }
+
 
   /**
    * Buys stock and hence decrements number in the stock list
@@ -110,19 +171,33 @@ public class      R_StockRW
   // Need to Fix
   //  What happens if can not commit data
   //
-  public synchronized boolean buyStock( String pNum, int amount )
+  public boolean buyStock( String pNum, int amount )
          throws StockException
   {
     return aStockRW.buyStock( pNum, amount );
   }
 
+  /**
+   * Buys several products in one transaction
+   * @param lines product number to amount required
+   * @param allOrNothing true, nothing bought unless every line can be
+   * @return product number to true if enough stock for that line
+   * @throws middle.StockException if underlying error
+   */
+  public Map<String,Boolean> buyStock( Map<String,Integer> lines,
+                                       boolean allOrNothing )
+         throws StockException
+  {
+    return aStockRW.buyStock( lines, allOrNothing );
+  }
+
   /**
    * Adds (Restocks) stock to the product list
    * @param pNum The product number
    * @param amount Quantity
    * @throws middle.StockException if underlying error
    */
-  public synchronized void addStock( String pNum, int amount )
+  public void addStock( String pNum, int amount )
          throws StockException
   {
     aStockRW.addStock( pNum, amount );
@@ -135,7 +210,7 @@ public class      R_StockRW
    * @param product The product to be modified
    * @throws middle.StockException if underlying error
    */
-  public synchronized void modifyStock( Product product )
+  public void modifyStock( Product product )
               throws StockException
   {
     aStockRW.modifyStock( product );
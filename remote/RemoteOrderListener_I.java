@@ -0,0 +1,17 @@
+package remote;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Defines the RMI interface for a client told when the orders
+ *  have changed, the call back made by R_Order.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public interface RemoteOrderListener_I extends Remote
+{
+  public void ordersChanged(long version)
+         throws RemoteException;
+}
@@ -1,10 +1,15 @@
 package remote;
 
 import catalogue.Basket;
+import catalogue.PickWave;
+import middle.OrderChanges;
 import middle.OrderException;
+import middle.OrderNumberLease;
+import middle.QueueWait;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
 
@@ -20,13 +25,29 @@ public interface RemoteOrder_I extends Remote
          throws RemoteException, OrderException;
   public int  uniqueNumber() 
          throws RemoteException, OrderException;
+  public OrderNumberLease leaseNumbers(int count)
+         throws RemoteException, OrderException;
   public Basket getOrderToPick() 
          throws  RemoteException, OrderException;
+  public Basket takeOrderToPick(Duration timeout)
+         throws  RemoteException, OrderException;
+  public PickWave takeWaveToPick(int maxOrders, Duration timeout)
+         throws  RemoteException, OrderException;
   public boolean informOrderPicked(int orderNum)
          throws  RemoteException, OrderException;
+  public int informOrdersPicked(List<Integer> orderNums)
+         throws  RemoteException, OrderException;
   public boolean informOrderCollected(int orderNum)
          throws RemoteException, OrderException;
   public Map<String, List<Integer>> getOrderState() 
          throws  RemoteException, OrderException;
+  public OrderChanges getOrderChanges(long since)
+         throws  RemoteException, OrderException;
+  public List<QueueWait> getQueueWaits()
+         throws  RemoteException, OrderException;
+  public void addOrderListener(RemoteOrderListener_I l)
+         throws  RemoteException, OrderException;
+  public void removeOrderListener(RemoteOrderListener_I l)
+         throws  RemoteException, OrderException;
 }
 
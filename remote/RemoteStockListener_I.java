@@ -0,0 +1,18 @@
+package remote;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Defines the RMI interface for a client told when a product in
+ *  the stock list has changed, the call back made by R_StockR
+ *  and R_StockRW.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+public interface RemoteStockListener_I extends Remote
+{
+  public void stockChanged(String pNum)
+         throws RemoteException;
+}
@@ -10,6 +10,7 @@ import middle.StockException;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.Map;
 
 /**
  * Defines the RMI interface for read/write access to the stock object.
@@ -22,6 +23,8 @@ public interface RemoteStockRW_I
 {
   boolean buyStock(String number, int amount)
           throws RemoteException, StockException;
+  Map<String,Boolean> buyStock(Map<String,Integer> lines, boolean allOrNothing)
+          throws RemoteException, StockException;
   void    addStock(String number, int amount)
           throws RemoteException, StockException;
   void    modifyStock(Product detail)
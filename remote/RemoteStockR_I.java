@@ -1,12 +1,15 @@
 package remote;
 
 import catalogue.Product;
+import middle.ProductImage;
 import middle.StockException;
 
 import javax.swing.*;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * Defines the RMI interface for read access to the stock object.
@@ -21,8 +24,18 @@ public interface RemoteStockR_I
             throws RemoteException, StockException;
   Product   getDetails(String number)
             throws RemoteException, StockException;
+  Map<String,Product> getDetails(Collection<String> numbers)
+            throws RemoteException, StockException;
+  Product   findDetails(String number)           // null if none
+            throws RemoteException, StockException;
   ImageIcon getImage(String number)
             throws RemoteException, StockException;
+  ProductImage getImageData(String number, boolean thumbnail, String etag)
+            throws RemoteException, StockException;
+  void      addStockListener(RemoteStockListener_I l)
+            throws RemoteException, StockException;
+  void      removeStockListener(RemoteStockListener_I l)
+            throws RemoteException, StockException;
 boolean existsName(String desc)
 		throws RemoteException, StockException;
 ArrayList<Product> getDetailsName(String desc)
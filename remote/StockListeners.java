@@ -0,0 +1,113 @@
+package remote;
+
+import dbAccess.StockRW;
+import middle.StockChangeListener;
+
+import java.rmi.RemoteException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * The clients to call back when a product in the stock list is
+ *  changed by any StockRW, shared by R_StockR and R_StockRW.
+ * <P>
+ * Each client is called back on its own thread, in the order the
+ *  changes were made, so a slow client does not hold up the change
+ *  or the other clients. A product changed again before the client
+ *  has been told of the last change is only told once, so no more
+ *  call backs wait for a slow client than there are products.
+ * A client that can not be called back is forgotten.
+ * @author  Mike Smith University of Brighton
+ * @version 1.0
+ */
+
+class StockListeners
+{
+  // Client -> listener registered with StockRW for it
+  private static final Map<RemoteStockListener_I,Pusher> theClients =
+                       new ConcurrentHashMap<>();
+
+  /**
+   * Passes changes on to one client
+   */
+  private static class Pusher implements StockChangeListener
+  {
+    private final RemoteStockListener_I theClient;
+    private final ExecutorService       theThread =
+      Executors.newSingleThreadExecutor( r -> {
+        Thread t = new Thread( r, "StockListener" );
+        t.setDaemon( true );
+        return t;
+      } );
+    // Products changed that the client has not yet been told of
+    private final Set<String> thePending = ConcurrentHashMap.newKeySet();
+
+    Pusher( RemoteStockListener_I client )
+    {
+      theClient = client;
+    }
+
+    public void stockChanged( String pNum )
+    {
+      if ( ! thePending.add( pNum ) ) return;    // Already to be told
+      try
+      {
+        theThread.execute( () -> {
+          thePending.remove( pNum );             // Changes after, told again
+          try
+          {
+            theClient.stockChanged( pNum );
+          } catch ( RemoteException e )          // Client gone
+          {
+            remove( theClient, this );
+          }
+        } );
+      } catch ( RejectedExecutionException e )   // Removed meanwhile
+      {
+        thePending.remove( pNum );
+      }
+    }
+  }
+
+  /**
+   * Call back the client whenever a product changes
+   * @param l The client
+   */
+  static void add( RemoteStockListener_I l )
+  {
+    Pusher pusher = new Pusher( l );
+    Pusher old    = theClients.put( l, pusher );
+    if ( old != null ) close( old );             // Added again
+    StockRW.addChangeListener( pusher );
+  }
+
+  /**
+   * No longer call back the client
+   * @param l The client
+   */
+  static void remove( RemoteStockListener_I l )
+  {
+    Pusher pusher = theClients.remove( l );
+    if ( pusher != null ) close( pusher );
+  }
+
+  /**
+   * No longer call back the client, if it has not been added again
+   * @param l      The client
+   * @param pusher Passing on changes to it
+   */
+  private static void remove( RemoteStockListener_I l, Pusher pusher )
+  {
+    if ( theClients.remove( l, pusher ) ) close( pusher );
+  }
+
+  private static void close( Pusher pusher )
+  {
+    StockRW.removeChangeListener( pusher );
+    pusher.theThread.shutdown();
+  }
+}